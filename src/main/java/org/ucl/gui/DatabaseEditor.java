@@ -21,6 +21,8 @@ public class DatabaseEditor extends JPanel {
 	private static final Dimension screen = new Dimension(width, height);
 	private static final int unit = width / 60;
 	private static final int boxHeight = unit * 3;
+	/* the patient as it is in the database, and the copy the editor changes */
+	private Patient original;
 	private Patient patient;
 	private JTextField[] inputFields;
 	private JComboBox<String> titleMenu;
@@ -29,6 +31,9 @@ public class DatabaseEditor extends JPanel {
 	private JComboBox<String> month;
 	private JComboBox<String> year;
 	private JTextArea commentArea;
+	private JLabel profilePreview;
+	/* medical photos chosen to go into the photo store when the patient is saved */
+	private final java.util.List<File> chosenPhotos = new ArrayList<File>();
 	private String nextAppointment = "not booked"; // not a compulsory field, so let's set this as default
 
 	/**
@@ -42,7 +47,8 @@ public class DatabaseEditor extends JPanel {
 		 * the DatabaseEditor window is not resizable, so it's possible to
 		 * safely use the null layout here
 		 */
-		this.patient = patient;
+		this.original = patient;
+		this.patient = new Patient(patient);
 		setLayout(null);
 		setPreferredSize(screen);
 		setBackground(new Color(200, 200, 100, 200));
@@ -183,11 +189,16 @@ public class DatabaseEditor extends JPanel {
 						try {
 							String fileString = createPhotoChooser();
 							inputFields[13].setText(fileString);
+							profilePreview.setIcon(ImageCache.shared.icon(fileString, ThumbnailCache.SIZE));
 						} catch (NullPointerException npe) {
 						}
 					}
 				});
 				add(addPhoto);
+				/* a small copy of the profile photo, beside the comments */
+				profilePreview = new JLabel(ImageCache.shared.icon(patient.getProfilePhoto(), ThumbnailCache.SIZE));
+				profilePreview.setBounds(unit * 47, unit * 40, ThumbnailCache.SIZE, ThumbnailCache.SIZE);
+				add(profilePreview);
 				break;
 			case 14: /* comments */
 				commentArea = new JTextArea();
@@ -198,8 +209,24 @@ public class DatabaseEditor extends JPanel {
 				add(commentArea);
 				break;
 			case 15: /* medical photos */
-				inputFields[i].setBounds(unit * 23, unit * 55, unit * 31, boxHeight);
+				inputFields[i].setBounds(unit * 23, unit * 55, unit * 22, boxHeight);
 				inputFields[i].setText(patient.getMedPhotos());
+				final JButton addPhotos = new JButton();
+				addPhotos.setBounds(unit * 46, unit * 55, unit * 9, boxHeight);
+				addPhotos.setText("<html><b>Add</b></html>");
+				addPhotos.setToolTipText("photos to move into the photo store when the patient is saved");
+				addPhotos.addActionListener(new ActionListener() {
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						JFileChooser photoChooser = new JFileChooser();
+						photoChooser.setMultiSelectionEnabled(true);
+						if (photoChooser.showOpenDialog(DatabaseEditor.this) == JFileChooser.APPROVE_OPTION) {
+							chosenPhotos.addAll(Arrays.asList(photoChooser.getSelectedFiles()));
+							addPhotos.setText("<html><b>Add (" + chosenPhotos.size() + ")</b></html>");
+						}
+					}
+				});
+				add(addPhotos);
 				JButton medChooser = new JButton();
 				medChooser.setBounds(unit * 13, unit * 55, unit * 10, boxHeight);
 				medChooser.setText("<html><b>Choose</b></html>");
@@ -227,8 +254,9 @@ public class DatabaseEditor extends JPanel {
 	/**
 	 * scrapes the various textfields and other boxes for their data and use
 	 * this to edit the patient object that has been sent to the DatabaseEditor
+	 * @return ValidationResult the problems with what was entered
 	 */
-	protected void textFieldsToPatient() {
+	protected ValidationResult textFieldsToPatient() {
 		patient.setPatientID(inputFields[0].getText());
 		patient.setTitle(titleMenu.getSelectedItem().toString());
 		patient.setSex(genderMenu.getSelectedItem().toString());
@@ -244,6 +272,7 @@ public class DatabaseEditor extends JPanel {
 		patient.setProfilePhoto(inputFields[13].getText());
 		patient.setComments(commentArea.getText());
 		patient.setMedPhotos(inputFields[15].getText());
+		return patient.validation();
 	}
 
 	/**
@@ -296,17 +325,67 @@ public class DatabaseEditor extends JPanel {
 		return datePicker;
 	}
 
-	protected void appendPatient(Patient p) {
-		Main.medDB.appendPatientToDB(p);
+	/**
+	 * @param Patient p
+	 * @return boolean false if another patient already has its id, in which case it is not added
+	 */
+	protected boolean appendPatient(Patient p) {
+		if (!Main.medDB.appendPatientToDB(p)) {
+			return false;
+		}
+		storePhotos(p);
+		return true;
+	}
+
+	/** @return boolean true if the id entered belongs to a patient other than the one edited */
+	protected boolean idInUse() {
+		String id = patient.getPatientID();
+		return !id.equals(original.getPatientID()) && Main.medDB.returnPatientFromId(id) != null;
+	}
+
+	/** the edited copy of the patient */
+	protected Patient getPatient() {
+		return patient;
+	}
+
+	/** the patient as it stands in the database */
+	protected Patient getOriginal() {
+		return original;
 	}
 
-	protected void editPatient() {
-		Main.medDB.dumpDBtoFile();
+	/**
+	 * replaces the original patient in the database with the edited copy. Further edits in the
+	 * same dialog go to a fresh copy.
+	 * @return boolean false if the patient was changed or removed elsewhere since the editor
+	 *         was opened, or was given the id of another patient, in which case nothing is
+	 *         saved
+	 */
+	protected boolean editPatient() {
+		if (!Main.medDB.updatePatient(original, patient)) {
+			return false;
+		}
+		original = patient;
+		patient = new Patient(original);
+		storePhotos(original);
+		return true;
+	}
+
+	/**
+	 * moves the photos chosen, and those in the patient's medical photo directory, into the
+	 * photo store in the background, and watches the directory for more. The store keeps the
+	 * only copy, so the files are deleted once stored. A photo the store already holds is not
+	 * stored again.
+	 */
+	private void storePhotos(Patient p) {
+		Main.photoIndexer.watch(p.getPatientID(), p.getMedPhotos());
+		if (!chosenPhotos.isEmpty()) {
+			Main.photoIndexer.add(p.getPatientID(), new ArrayList<File>(chosenPhotos));
+			chosenPhotos.clear();
+		}
 	}
 
 	protected void deletePatient(Patient p) {
 		Main.medDB.removePatient(p);
-		editPatient();
 	}
 
 	/**
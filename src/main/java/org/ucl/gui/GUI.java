@@ -13,6 +13,11 @@ public class GUI extends JFrame {
 	static CardLayout cards = new CardLayout();
 	private static final int WIDTH = 1200;
 	private static final int HEIGHT = 800;
+	/* shown on the login screen while Main.medDB opens on its own thread */
+	static StartupProgress progress;
+	/* both touched only on the event thread */
+	private static boolean databaseReady;
+	private static boolean loginWaiting;
 
 	public void createAndShowGUI() {
 		JFrame frame = new JFrame("UCL Medical Database @author David Kelly");
@@ -27,7 +32,50 @@ public class GUI extends JFrame {
 		frame.setVisible(true);
 	}
 
+	/**
+	 * @return StartupProgress the progress strip of the login screen, to be told how the
+	 *         database is getting on while it opens
+	 */
+	public static StartupProgress startupProgress() {
+		return progress;
+	}
+
+	/**
+	 * called on the event thread once Main.medDB has opened. Opens the main screen if the user
+	 * logged in while it was loading.
+	 */
+	public static void databaseReady() {
+		databaseReady = true;
+		progress.ready();
+		if (loginWaiting) {
+			loginWaiting = false;
+			cards.next(cardPanel);
+		}
+	}
+
+	/**
+	 * called on the event thread if Main.medDB could not be opened
+	 * @param String message
+	 */
+	public static void databaseFailed(String message) {
+		progress.failed(message);
+	}
+
+	/**
+	 * called by the login screen on a good login. The main screen needs the database, so it
+	 * is only shown once the database has opened.
+	 */
+	static void loggedIn() {
+		if (databaseReady) {
+			cards.next(cardPanel);
+		} else {
+			loginWaiting = true;
+			progress.waiting();
+		}
+	}
+
 	private void addComponentToPane(Container pane) {
+		progress = new StartupProgress();
 		LoginScreen login = new LoginScreen();
 		MainScreen mainscreen = new MainScreen();
 
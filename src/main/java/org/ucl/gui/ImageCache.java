@@ -0,0 +1,238 @@
+package org.ucl.gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * decoded images shared by the screens, so flipping between the same few patients does not
+ * decode their photos again. The most recently used images are held up to a budget of bytes,
+ * a share of the maximum heap. An image pushed out of the budget is still kept through a soft
+ * reference, and taken back if it is asked for before the collector needs the memory.
+ *
+ * An image is keyed on its file and the size it was decoded at, and is read again if the file
+ * has changed since.
+ */
+class ImageCache {
+	/** the share of the heap used when the medicaldb.imagecache.share property is not set */
+	static final double DEFAULT_HEAP_SHARE = 0.15;
+	/** shown in place of a photo that cannot be read */
+	static final String PLACEHOLDER = "src/main/resources/placeholder.png";
+	/** the cache used by the screens */
+	static final ImageCache shared = new ImageCache(heapShare());
+	private final LinkedHashMap<String, Entry> recent = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, Spilled> spilled = new HashMap<String, Spilled>();
+	private final ReferenceQueue<BufferedImage> cleared = new ReferenceQueue<BufferedImage>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private long budget;
+	private long bytes;
+
+	private static class Entry {
+		final BufferedImage image;
+		final long modified;
+		final long length;
+		final long bytes;
+
+		Entry(BufferedImage image, long modified, long length) {
+			this.image = image;
+			this.modified = modified;
+			this.length = length;
+			this.bytes = bytesOf(image);
+		}
+	}
+
+	/* an image pushed out of the budget, which the collector may clear */
+	private static class Spilled extends SoftReference<BufferedImage> {
+		final String key;
+		final long modified;
+		final long length;
+
+		Spilled(String key, Entry entry, ReferenceQueue<BufferedImage> queue) {
+			super(entry.image, queue);
+			this.key = key;
+			this.modified = entry.modified;
+			this.length = entry.length;
+		}
+	}
+
+	/**
+	 * @param double heapShare the share of the maximum heap to hold images in, from 0 to 1
+	 */
+	ImageCache(double heapShare) {
+		setMaxHeapShare(heapShare);
+	}
+
+	private static double heapShare() {
+		try {
+			return Double.parseDouble(System.getProperty("medicaldb.imagecache.share", "" + DEFAULT_HEAP_SHARE));
+		} catch (NumberFormatException nfe) {
+			return DEFAULT_HEAP_SHARE;
+		}
+	}
+
+	/**
+	 * sets the budget as a share of the maximum heap, letting images go if it shrinks
+	 * @param double heapShare from 0 to 1
+	 */
+	synchronized void setMaxHeapShare(double heapShare) {
+		if (!(heapShare >= 0 && heapShare <= 1)) {
+			throw new IllegalArgumentException("heap share must be from 0 to 1: " + heapShare);
+		}
+		budget = (long) (Runtime.getRuntime().maxMemory() * heapShare);
+		trim();
+	}
+
+	/**
+	 * returns an image, decoding it only if it is not cached
+	 * @param File file
+	 * @param int size the largest width and height to decode at, or 0 for the full image
+	 * @return BufferedImage
+	 * @throws IOException if the file cannot be read as an image
+	 */
+	BufferedImage load(File file, int size) throws IOException {
+		BufferedImage image = get(file, size);
+		if (image == null) {
+			image = size > 0 ? ThumbnailCache.decode(file, size) : ImageIO.read(file);
+			if (image == null) {
+				throw new IOException(file + " is not an image");
+			}
+			put(file, size, image);
+		}
+		return image;
+	}
+
+	/**
+	 * @param String location of an image file
+	 * @param int size the largest width and height to decode at, or 0 for the full image
+	 * @return ImageIcon the image, or the placeholder if the file cannot be read as one
+	 */
+	ImageIcon icon(String location, int size) {
+		try {
+			return new ImageIcon(load(new File(location), size));
+		} catch (IOException ioe) {
+			return location.equals(PLACEHOLDER) ? new ImageIcon() : icon(PLACEHOLDER, size);
+		}
+	}
+
+	/**
+	 * @param File file
+	 * @param int size
+	 * @return BufferedImage the cached image, or null, counting a hit or a miss
+	 */
+	BufferedImage get(File file, int size) {
+		String key = key(file, size);
+		long modified = file.lastModified();
+		long length = file.length();
+		synchronized (this) {
+			expunge();
+			Entry entry = recent.get(key);
+			if (entry != null && entry.modified == modified && entry.length == length) {
+				hits.incrementAndGet();
+				return entry.image;
+			}
+			Spilled soft = spilled.remove(key);
+			BufferedImage image = soft == null ? null : soft.get();
+			if (image != null && soft.modified == modified && soft.length == length) {
+				hits.incrementAndGet();
+				keep(key, new Entry(image, modified, length));
+				return image;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param File file
+	 * @param int size the size it was decoded at, or 0
+	 * @param BufferedImage image
+	 */
+	void put(File file, int size, BufferedImage image) {
+		Entry entry = new Entry(image, file.lastModified(), file.length());
+		synchronized (this) {
+			expunge();
+			keep(key(file, size), entry);
+		}
+	}
+
+	/** @return long the number of lookups that found their image */
+	long hits() {
+		return hits.get();
+	}
+
+	/** @return long the number of lookups that had to decode */
+	long misses() {
+		return misses.get();
+	}
+
+	/** @return long the bytes of the images held within the budget */
+	synchronized long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * @param File file
+	 * @param int size
+	 * @return boolean true if the image is held within the budget, rather than spilled or not cached
+	 */
+	synchronized boolean holds(File file, int size) {
+		return recent.containsKey(key(file, size));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ImageCache[" + recent.size() + " images, " + bytes / 1024 + " of " + budget / 1024 + " KB, "
+				+ spilled.size() + " spilled, " + hits.get() + " hits, " + misses.get() + " misses]";
+	}
+
+	private void keep(String key, Entry entry) {
+		Entry old = recent.put(key, entry);
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		spilled.remove(key);
+		bytes += entry.bytes;
+		trim();
+	}
+
+	/* pushes the least recently used images out to soft references until the budget is met */
+	private void trim() {
+		Iterator<Map.Entry<String, Entry>> eldest = recent.entrySet().iterator();
+		while (bytes > budget && eldest.hasNext()) {
+			Map.Entry<String, Entry> next = eldest.next();
+			eldest.remove();
+			bytes -= next.getValue().bytes;
+			spilled.put(next.getKey(), new Spilled(next.getKey(), next.getValue(), cleared));
+		}
+	}
+
+	/* forgets the spilled images the collector has cleared */
+	private void expunge() {
+		Spilled soft;
+		while ((soft = (Spilled) cleared.poll()) != null) {
+			if (spilled.get(soft.key) == soft) {
+				spilled.remove(soft.key);
+			}
+		}
+	}
+
+	private static String key(File file, int size) {
+		return file.getAbsolutePath() + '|' + size;
+	}
+
+	private static long bytesOf(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+}
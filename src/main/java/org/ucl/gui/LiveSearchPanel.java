@@ -0,0 +1,166 @@
+package org.ucl.gui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import org.ucl.medicaldb.Main;
+import org.ucl.medicaldb.PatientQuery;
+import org.ucl.medicaldb.SearchResult;
+
+/**
+ * search as you type. Each keystroke in the search box restarts a short timer, and only when
+ * typing pauses is the query run, on a background thread, cancelling the one before it. The
+ * list is a view of the growing SearchResult, refreshed a few times a second while the search
+ * runs, so matches appear in rank order as they are found and the event thread never waits
+ * for the database.
+ */
+@SuppressWarnings("serial")
+public class LiveSearchPanel extends JPanel {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	private static final int DEBOUNCE_MS = 150;
+	private static final int REFRESH_MS = 100;
+	/* one query at a time, so a cancelled query never competes with the one replacing it */
+	private static final ExecutorService searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "patient-search");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** told when the user picks a patient from the results */
+	public interface Listener {
+		void patientChosen(String id);
+	}
+
+	private final JTextField searchTxtArea;
+	private final SearchResultModel results = new SearchResultModel();
+	private final JLabel status = new JLabel(" ");
+	private final Timer debounce;
+	private final Timer refresher;
+	private SearchResult current;
+
+	/**
+	 * @param JTextField searchTxtArea the search box to follow
+	 * @param Listener listener
+	 */
+	public LiveSearchPanel(JTextField searchTxtArea, final Listener listener) {
+		this.searchTxtArea = searchTxtArea;
+		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+		setOpaque(false);
+
+		status.setForeground(Color.WHITE);
+		status.setAlignmentX(Component.LEFT_ALIGNMENT);
+		add(status);
+
+		final JList<String> resultList = new JList<String>(results);
+		/* fixed sizes stop the list measuring every row to lay itself out */
+		resultList.setFixedCellHeight(18);
+		resultList.setFixedCellWidth(240);
+		resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		resultList.addListSelectionListener(new ListSelectionListener() {
+			public void valueChanged(ListSelectionEvent e) {
+				int chosen = resultList.getSelectedIndex();
+				if (!e.getValueIsAdjusting() && chosen >= 0) {
+					String id = results.getPatientId(chosen);
+					if (id != null) {
+						listener.patientChosen(id);
+					}
+				}
+			}
+		});
+		JScrollPane scroller = new JScrollPane(resultList);
+		scroller.setPreferredSize(new Dimension(250, 150));
+		scroller.setAlignmentX(Component.LEFT_ALIGNMENT);
+		add(scroller);
+
+		refresher = new Timer(REFRESH_MS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showProgress();
+			}
+		});
+		debounce = new Timer(DEBOUNCE_MS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				searchNow();
+			}
+		});
+		debounce.setRepeats(false);
+		searchTxtArea.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				debounce.restart();
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				debounce.restart();
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+				debounce.restart();
+			}
+		});
+	}
+
+	/** runs the search for the current text straight away, without waiting for typing to pause */
+	public void searchNow() {
+		debounce.stop();
+		if (current != null) {
+			current.cancel();
+		}
+		PatientQuery query = PatientQuery.parse(searchTxtArea.getText());
+		if (query.isEmpty()) {
+			current = null;
+			refresher.stop();
+			results.setResult(null);
+			status.setText(" ");
+			return;
+		}
+		final SearchResult result = Main.medDB.newSearch(query);
+		current = result;
+		results.setResult(result);
+		status.setText("searching...");
+		searcher.execute(new Runnable() {
+			public void run() {
+				try {
+					Main.medDB.search(result);
+				} catch (RuntimeException e) {
+					log.log(Level.SEVERE, "search failed", e);
+					result.cancel();
+				}
+			}
+		});
+		refresher.start();
+	}
+
+	/* shows what the running search has found so far, and stops refreshing once it is done */
+	private void showProgress() {
+		if (current == null) {
+			refresher.stop();
+			return;
+		}
+		/* read before refreshing, so a search finishing in between still has its last matches shown */
+		boolean complete = current.isComplete();
+		results.refresh();
+		int found = results.getSize();
+		if (complete) {
+			refresher.stop();
+			status.setText(found == 0 ? "no matches found" : found + (found == 1 ? " match" : " matches"));
+		} else if (current.isCancelled()) {
+			refresher.stop();
+			status.setText("search failed");
+		} else {
+			status.setText("searching... " + found + " found");
+		}
+	}
+}
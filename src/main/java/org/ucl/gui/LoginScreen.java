@@ -66,6 +66,10 @@ public class LoginScreen extends ImagePanel {
 
 		JButton enter = newButton();
 		add(enter);
+
+		/* the database opens while the user logs in */
+		GUI.progress.setBounds(400, 480, 400, 50);
+		add(GUI.progress);
 	}
 
 	private JButton newButton() {
@@ -88,7 +92,7 @@ public class LoginScreen extends ImagePanel {
 				lh.setUsername(usernameField.getText());
 				lh.setPassword(passwordField.getText());
 				if (lh.checkLoginDetails()) {
-					GUI.cards.next(GUI.cardPanel);
+					GUI.loggedIn();
 				} else {
 					usernameField.setText("");
 					passwordField.setText("");
@@ -5,16 +5,21 @@ import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.*;
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.text.DefaultEditorKit;
 import org.ucl.medicaldb.Database;
+import org.ucl.medicaldb.ImportReport;
 import org.ucl.medicaldb.Main;
 import org.ucl.medicaldb.Patient;
-import org.ucl.medicaldb.PatientHandler;
+import org.ucl.medicaldb.PhotoIndexer;
+import org.ucl.medicaldb.PhotoStore;
+import org.ucl.medicaldb.ValidationResult;
 
 /**
  * Creates the main screen GUI, initializing the various members, such as the
@@ -27,9 +32,9 @@ import org.ucl.medicaldb.PatientHandler;
 @SuppressWarnings("serial")
 public class MainScreen extends ImagePanel {
 	private static final Logger log = Logger.getLogger(Class.class.getName());
-	protected static final String[] currentIds = Database.idNumbers.stream().toArray(String[]::new);
 	protected static final String[][] dateFormat = { Database.days, Database.months, Database.years };
-	protected static final String[][] patientData = { currentIds, { "-", "Mr", "Miss", "Mrs", "Ms", "Dr" },
+	/* the first entry once listed every id in the database, and is kept so the others keep their place */
+	protected static final String[][] patientData = { {}, { "-", "Mr", "Miss", "Mrs", "Ms", "Dr" },
 			{ "-", "Male", "Female" } };
 	protected static final String[] fields = new String[] { "Patient ID", "Title", "Sex", "Last Name", "First Name(s)",
 			"Date of Birth", "dd", "mm", "YY", "Condition(s)", "Address", "Next Appt.", "url", "Photo", "Comments",
@@ -37,6 +42,12 @@ public class MainScreen extends ImagePanel {
 
 	/* GUI elements */
 	private static final int boxHeight = 30;
+	/* how many appointments the upcoming appointments list shows */
+	private static final int UPCOMING = 20;
+	/* the merge policies offered by File > Import, in the order of Database.MergePolicy */
+	private static final String[] MERGE_CHOICES = { "Keep existing", "Overwrite", "Newest wins" };
+	/* how many conflicts and errors the import report shows before it must be saved */
+	private static final int REPORT_LINES = 200;
         private static final int WIDTH = 1200;
 	private static JTextField[] inputFields;
 	protected Patient chosenResult;
@@ -48,6 +59,11 @@ public class MainScreen extends ImagePanel {
 	private String uriStr = "";
 	private static JLabel picture;
 	private static JPanel images;
+	private static final ThumbnailCache thumbnails = new ThumbnailCache();
+	/* the largest width and height of the profile photo */
+	private static final int PROFILE_SIZE = 200;
+	/* the patient whose photos are in the photo pane, or null */
+	private String shownPatientId;
 
 	/** constructor for the main screen. */
 	public MainScreen() {
@@ -91,6 +107,21 @@ public class MainScreen extends ImagePanel {
 		JSplitPane medicalHistoryPanel = medicalHistoryPanel();
 
 		add(medicalHistoryPanel, c);
+
+		/* redraws the photo pane when the photos of the patient shown change on disk */
+		Main.photoIndexer.setListener(new PhotoIndexer.Listener() {
+			public void listingChanged(final String patientId) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (patientId.equals(shownPatientId)) {
+							thumbnails.clear();
+							images.removeAll();
+							addPhotosToPhotoPane(patientId);
+						}
+					}
+				});
+			}
+		});
 	}
 
 	/** creates the main menu at the top of the screen */
@@ -115,13 +146,12 @@ public class MainScreen extends ImagePanel {
 				}
 			}
 		});
-		/* import database from file */
-		menuItem = mnFile.add(new JMenuItem("Import", 'i'));
-		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_I, Event.CTRL_MASK));
-		menuItem.addActionListener(new ActionListener() {
+		/* import patients from a file, merging them by id */
+		final JMenuItem importItem = mnFile.add(new JMenuItem("Import", 'i'));
+		importItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_I, Event.CTRL_MASK));
+		importItem.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				String result = createPhotoChooser();
-				Main.medDB.loadDBfromFile(result);
+				importPatients(importItem);
 			}
 		});
 		/* exit the program */
@@ -161,6 +191,32 @@ public class MainScreen extends ImagePanel {
 
 		mb.add(mnEdit);
 
+		JMenu mnAppointments = new JMenu("Appointments");
+		mnAppointments.setMnemonic(KeyEvent.VK_P);
+		/* the coming seven days, today included */
+		final JMenuItem thisWeek = mnAppointments.add(new JMenuItem("This week", 'w'));
+		thisWeek.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findAppointments(thisWeek, "This week", new Supplier<List<Patient>>() {
+					public List<Patient> get() {
+						LocalDate today = LocalDate.now();
+						return Main.medDB.appointmentsBetween(today, today.plusDays(6));
+					}
+				});
+			}
+		});
+		final JMenuItem upcoming = mnAppointments.add(new JMenuItem("Next " + UPCOMING + " appointments", 'n'));
+		upcoming.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				findAppointments(upcoming, "Upcoming appointments", new Supplier<List<Patient>>() {
+					public List<Patient> get() {
+						return Main.medDB.nextAppointments(LocalDate.now(), UPCOMING);
+					}
+				});
+			}
+		});
+		mb.add(mnAppointments);
+
 		JMenu mnAbout = new JMenu("About");
 
 		mnAbout.setMnemonic(KeyEvent.VK_A);
@@ -178,6 +234,144 @@ public class MainScreen extends ImagePanel {
 		return mb;
 	}
 
+	/**
+	 * runs an appointment query on a background thread, as the first one builds the
+	 * appointment index over the whole registry, then lists what it found. The menu item is
+	 * disabled until the list is shown.
+	 * @param JMenuItem item
+	 * @param String title
+	 * @param Supplier query
+	 */
+	private void findAppointments(final JMenuItem item, final String title, final Supplier<List<Patient>> query) {
+		item.setEnabled(false);
+		new Thread(new Runnable() {
+			public void run() {
+				String[] found = null;
+				try {
+					List<Patient> appointments = query.get();
+					found = new String[appointments.size()];
+					for (int i = 0; i < found.length; i++) {
+						Patient p = appointments.get(i);
+						found[i] = p.getPatientID() + " " + p.getNextAppointment() + " " + p.getLastName() + ", "
+								+ p.getTitle() + " " + p.getFirstName();
+					}
+				} catch (RuntimeException e) {
+					log.log(Level.SEVERE, "appointment query failed", e);
+				}
+				final String[] rows = found;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						item.setEnabled(true);
+						if (rows != null) {
+							showAppointments(rows, title);
+						}
+					}
+				});
+			}
+		}, "appointments").start();
+	}
+
+	/**
+	 * lists appointments in date order, and loads the patient chosen from the list
+	 * @param String[] rows the id, appointment and name of each patient
+	 * @param String title
+	 */
+	private void showAppointments(String[] rows, String title) {
+		if (rows.length == 0) {
+			JOptionPane.showMessageDialog(null, "No appointments found", title, JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		String chosen = (String) JOptionPane.showInputDialog(null, title, title, JOptionPane.QUESTION_MESSAGE, null,
+				rows, rows[0]);
+		if (chosen != null) {
+			String idNumber = chosen.split(" ")[0];
+			chosenResult = Main.medDB.returnPatientFromId(idNumber);
+			if (chosenResult != null) {
+				log.log(Level.INFO, idNumber + " loaded");
+				fillInputFields(chosenResult);
+			}
+		}
+	}
+
+	/**
+	 * asks for a file and what to do with the patients in it who are already in the registry,
+	 * then imports it on a background thread and shows the report. The menu item is disabled
+	 * until the import is done.
+	 * @param JMenuItem item
+	 */
+	private void importPatients(final JMenuItem item) {
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		final File file = chooser.getSelectedFile();
+		int choice = JOptionPane.showOptionDialog(this,
+				"When a patient in " + file.getName() + " is already in the registry:", "Import",
+				JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, MERGE_CHOICES, MERGE_CHOICES[0]);
+		if (choice < 0) {
+			return;
+		}
+		final Database.MergePolicy policy = Database.MergePolicy.values()[choice];
+		item.setEnabled(false);
+		new Thread(new Runnable() {
+			public void run() {
+				ImportReport report = null;
+				try {
+					report = Main.medDB.importFile(file.getPath(), policy);
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to import " + file, ioe.getMessage());
+				}
+				final ImportReport done = report;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						item.setEnabled(true);
+						if (done == null) {
+							confirmationDialog("Unable to read " + file.getName(), "Import error",
+									JOptionPane.DEFAULT_OPTION);
+						} else {
+							showImportReport(done);
+						}
+					}
+				});
+			}
+		}, "patient-import").start();
+	}
+
+	/* shows the counts of an import and its first conflicts and errors, offering to save them all */
+	private void showImportReport(ImportReport report) {
+		StringBuilder text = new StringBuilder(report.summary()).append('\n');
+		int shown = 0;
+		for (ImportReport.RowError error : report.getErrors()) {
+			if (shown++ < REPORT_LINES) {
+				text.append('\n').append(error);
+			}
+		}
+		for (ImportReport.Conflict conflict : report.getConflicts()) {
+			if (shown++ < REPORT_LINES) {
+				text.append('\n').append(conflict);
+			}
+		}
+		if (shown > REPORT_LINES) {
+			text.append("\n\n").append(shown - REPORT_LINES).append(" more, in the saved report");
+		}
+		JTextArea area = new JTextArea(text.toString(), 20, 60);
+		area.setEditable(false);
+		String[] options = shown == 0 ? new String[] { "Close" } : new String[] { "Close", "Save report" };
+		int reply = JOptionPane.showOptionDialog(this, new JScrollPane(area), "Imported " + report.getSource(),
+				JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[0]);
+		if (reply == 1) {
+			JFileChooser chooser = new JFileChooser();
+			if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+				try {
+					report.write(chooser.getSelectedFile());
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to save the import report", ioe.getMessage());
+					confirmationDialog("Unable to save the report", "Import error", JOptionPane.DEFAULT_OPTION);
+				}
+			}
+		}
+	}
+
 	/** popup confirmation dialog for user-driven decisions */
 	private int confirmationDialog(String message, String title, int messageType) {
 		int reply = JOptionPane.NO_OPTION;
@@ -278,7 +472,7 @@ public class MainScreen extends ImagePanel {
 		}
 
 		picture = new JLabel();
-		picture.setIcon(new ImageIcon("src/main/resources/placeholder.png"));
+		picture.setIcon(ImageCache.shared.icon(ImageCache.PLACEHOLDER, PROFILE_SIZE));
 		picture.setBorder(BorderFactory.createMatteBorder(5, 5, 5, 5, Color.BLUE));
 		picture.setBounds(900, 40, 200, 200);
 		area.add(picture);
@@ -312,7 +506,7 @@ public class MainScreen extends ImagePanel {
 
 		databaseChanger.setPreferredSize(new Dimension(300, 400));
 		databaseChanger.setBackground(new Color(100, 100, 100, 100));
-		databaseChanger.setBorder(new EmptyBorder(100, 0, 0, 0));
+		databaseChanger.setBorder(new EmptyBorder(40, 0, 0, 0));
 
 		JButton remover = createRemover();
 		databaseChanger.add(remover);
@@ -331,12 +525,24 @@ public class MainScreen extends ImagePanel {
 		JTextField searchTxtArea = new JTextField();
 		searchTxtArea.setPreferredSize(new Dimension(250, boxHeight));
 		searchTxtArea.setMaximumSize(new Dimension(Integer.MAX_VALUE, searchTxtArea.getPreferredSize().height));
+		searchTxtArea.setToolTipText(
+				"<html>search any field, or name one: <b>condition:asthma sex:female lastName:smi*</b></html>");
 		databaseChanger.add(searchBox);
 		databaseChanger.add(searchTxtArea);
 
-		/* the search function launcher */
-		JButton search = createSearcher(searchTxtArea);
+		/* results update as the user types; the button searches without waiting */
+		LiveSearchPanel liveSearch = new LiveSearchPanel(searchTxtArea, new LiveSearchPanel.Listener() {
+			public void patientChosen(String idNumber) {
+				chosenResult = Main.medDB.returnPatientFromId(idNumber);
+				if (chosenResult != null) {
+					log.log(Level.INFO, idNumber + " loaded");
+					fillInputFields(chosenResult);
+				}
+			}
+		});
+		JButton search = createSearcher(liveSearch);
 		databaseChanger.add(search);
+		databaseChanger.add(liveSearch);
 
 		return databaseChanger;
 	}
@@ -377,22 +583,33 @@ public class MainScreen extends ImagePanel {
 						confirmationDialog("Choose a patient first", "Editor error", JOptionPane.WARNING_MESSAGE);
 					} else {
 						DatabaseEditor pa = new DatabaseEditor(chosenResult);
+						ValidationResult validation;
+						boolean idInUse;
 						do {
-							if (PatientHandler.errors.size() != 0)
-								PatientHandler.errors.clear();
+							validation = ValidationResult.VALID;
+							idInUse = false;
 							int result = JOptionPane.showConfirmDialog(null, pa, "Edit Patient",
 									JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
 							if (result == JOptionPane.OK_OPTION) {
-								pa.textFieldsToPatient();
-								pa.editPatient();
-								if (PatientHandler.errors.size() != 0) {
-									JOptionPane.showMessageDialog(null, PatientHandler.prettyPrintErrors());
+								validation = pa.textFieldsToPatient();
+								if (!validation.isValid()) {
+									JOptionPane.showMessageDialog(null, validation.toArray());
 								} else {
-									fillInputFields(chosenResult);
+									if (pa.editPatient()) {
+										chosenResult = pa.getOriginal();
+										fillInputFields(chosenResult);
+									} else if (pa.idInUse()) {
+										idInUse = true;
+										idInUseDialog(pa.getPatient().getPatientID(), "Editor error");
+									} else {
+										confirmationDialog("This patient was changed or removed while you were editing, "
+												+ "find it again and redo your changes", "Editor error",
+												JOptionPane.WARNING_MESSAGE);
+									}
 								}
 							} else
 								log.log(Level.INFO, "Patient editing cancelled");
-						} while (PatientHandler.errors.size() != 0);
+						} while (!validation.isValid() || idInUse);
 					}
 					/*
 					 * if edit is pressed as the very first activity after
@@ -408,32 +625,14 @@ public class MainScreen extends ImagePanel {
 		return editor;
 	}
 
-	private JButton createSearcher(JTextField searchTxtArea) {
+	private JButton createSearcher(LiveSearchPanel liveSearch) {
 		JButton search = new JButton();
 		search.setMinimumSize(new Dimension(100, boxHeight));
 		search.setPreferredSize(new Dimension(200, boxHeight));
 		search.setText("<html><b><font color=red>Search</font></b></html>");
 		search.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				ArrayList<Patient> results = Main.medDB.searchPatients(searchTxtArea.getText());
-				String title = "Search Results";
-				if (results.size() != 0) {
-					try {
-						String[] names = formatSearchResults(results);
-						String chosen = (String) JOptionPane.showInputDialog(null, "Search Results", title,
-								JOptionPane.QUESTION_MESSAGE, null, names, results.get(0));
-						String idNumber = chosen.split(" ")[0];
-						chosenResult = Main.medDB.returnPatientFromId(idNumber);
-						log.log(Level.INFO, idNumber + " loaded");
-
-						fillInputFields(chosenResult);
-					} catch (Exception ex) {
-						System.out.println("Results cancelled");
-					}
-				} else {
-					JOptionPane.showMessageDialog(null, "No matches found");
-				}
-				searchTxtArea.setText("");
+				liveSearch.searchNow();
 			}
 		});
 		return search;
@@ -448,28 +647,38 @@ public class MainScreen extends ImagePanel {
 			public void actionPerformed(ActionEvent e) {
 				Patient temp = new Patient();
 				DatabaseEditor pa = new DatabaseEditor(temp);
+				ValidationResult validation;
+				boolean idInUse;
 				do {
-					if (PatientHandler.errors.size() != 0)
-						PatientHandler.errors.clear();
+					validation = ValidationResult.VALID;
+					idInUse = false;
 					int result = JOptionPane.showConfirmDialog(null, pa, "Add Patient", JOptionPane.OK_CANCEL_OPTION,
 							JOptionPane.PLAIN_MESSAGE);
 					if (result == JOptionPane.OK_OPTION) {
-						pa.textFieldsToPatient();
-						if (PatientHandler.errors.size() == 0) {
-							chosenResult = temp;
-							pa.appendPatient(chosenResult);
+						validation = pa.textFieldsToPatient();
+						if (!validation.isValid()) {
+							JOptionPane.showMessageDialog(null, validation.toArray());
+						} else if (pa.appendPatient(pa.getPatient())) {
+							chosenResult = pa.getPatient();
 							fillInputFields(chosenResult);
 						} else {
-							JOptionPane.showMessageDialog(null, PatientHandler.prettyPrintErrors());
+							idInUse = true;
+							idInUseDialog(pa.getPatient().getPatientID(), "Error adding");
 						}
 					} else
 						log.log(Level.INFO, "Patient adding cancelled");
-				} while (PatientHandler.errors.size() != 0);
+				} while (!validation.isValid() || idInUse);
 			}
 		});
 		return adder;
 	}
 
+	/* the id entered in the editor belongs to another patient; the editor is shown again */
+	private void idInUseDialog(String id, String title) {
+		confirmationDialog("Patient id " + id + " is already in use, please choose another", title,
+				JOptionPane.WARNING_MESSAGE);
+	}
+
 	/**
 	 * a JTabbedPane which houses the medical history pane (GridBagLayout) and
 	 * the image pane (GridLayout)
@@ -577,26 +786,64 @@ public class MainScreen extends ImagePanel {
 		images.setBackground(Color.LIGHT_GRAY);
 	}
 
-	/** populates the PhotoPane with clickable thumbnail images */
-	private void addPhotosToPhotoPane(String medPhotos) {
-		File photoDir = new File(medPhotos);
-		File[] directoryListing = photoDir.listFiles();
-		if (directoryListing != null) {
-			for (File photo : directoryListing) {
-				JButton placeHolder = new JButton();
-				placeHolder.setIcon(new ImageIcon(photo.toString()));
-				placeHolder.setPreferredSize(new Dimension(100, 100));
-				placeHolder.setBorder(BorderFactory.createBevelBorder(1));
-				placeHolder.addActionListener(new ActionListener() {
-					@Override
-					public void actionPerformed(ActionEvent e) {
-						JLabel popup = new JLabel(new ImageIcon(photo.toString()));
-						JOptionPane.showMessageDialog(null, popup, "Popup", JOptionPane.PLAIN_MESSAGE, null);
-					}
-				});
-				images.add(placeHolder, BorderLayout.CENTER);
+	/**
+	 * populates the PhotoPane with clickable thumbnail images, from the listing the
+	 * PhotoIndexer keeps in memory, so no file is read here. A patient not indexed yet is
+	 * indexed in the background, and the pane filled in when the listing is ready. The buttons
+	 * are added empty and given their thumbnails as the ThumbnailCache makes them.
+	 */
+	private void addPhotosToPhotoPane(Patient p) {
+		shownPatientId = p.getPatientID();
+		Main.photoIndexer.watch(p.getPatientID(), p.getMedPhotos());
+		addPhotosToPhotoPane(p.getPatientID());
+	}
+
+	private void addPhotosToPhotoPane(String patientId) {
+		List<PhotoStore.Photo> photos = Main.photoIndexer.listing(patientId);
+		if (photos != null) {
+			for (PhotoStore.Photo photo : photos) {
+				addPhotoButton(patientId, photo.file, photo.name);
 			}
 		}
+		images.revalidate();
+		images.repaint();
+	}
+
+	/**
+	 * adds a thumbnail button which opens the photo in a PhotoViewer, and whose popup menu
+	 * takes it off the patient's photos
+	 */
+	private void addPhotoButton(final String patientId, final File photo, final String name) {
+		JButton placeHolder = new JButton();
+		JPopupMenu menu = new JPopupMenu();
+		JMenuItem remove = new JMenuItem("Remove photo");
+		remove.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (JOptionPane.showConfirmDialog(null, "Remove " + name + " from the photos of " + patientId + "?",
+						"Photo", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+					Main.photoIndexer.remove(patientId, name);
+				}
+			}
+		});
+		menu.add(remove);
+		placeHolder.setComponentPopupMenu(menu);
+		placeHolder.setToolTipText(name);
+		thumbnails.request(photo, placeHolder);
+		placeHolder.setPreferredSize(new Dimension(ThumbnailCache.SIZE, ThumbnailCache.SIZE));
+		placeHolder.setBorder(BorderFactory.createBevelBorder(1));
+		placeHolder.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				try {
+					JOptionPane.showMessageDialog(null, new PhotoViewer(photo), name, JOptionPane.PLAIN_MESSAGE, null);
+				} catch (IOException ioe) {
+					JOptionPane.showMessageDialog(null, "Unable to open " + name, "Photo", JOptionPane.WARNING_MESSAGE);
+					log.log(Level.WARNING, ioe.getMessage());
+				}
+			}
+		});
+		images.add(placeHolder, BorderLayout.CENTER);
 	}
 
 	/**
@@ -616,8 +863,10 @@ public class MainScreen extends ImagePanel {
 		commentField.setText("");
 		uriStr = "";
 		nextAppointment.setText("Next Appointment ");
-		picture.setIcon(new ImageIcon("src/main/resources/placeholder.png"));
+		picture.setIcon(ImageCache.shared.icon(ImageCache.PLACEHOLDER, PROFILE_SIZE));
+		thumbnails.clear();
 		images.removeAll();
+		shownPatientId = null;
 	}
 
 	/** populates the patient data areas */
@@ -635,25 +884,9 @@ public class MainScreen extends ImagePanel {
 		commentField.setText(p.getComments());
 		uriStr = p.getURI();
 		nextAppointment.setText("Next Appointment " + p.getNextAppointment());
-		picture.setIcon(new ImageIcon(p.getProfilePhoto()));
+		picture.setIcon(ImageCache.shared.icon(p.getProfilePhoto(), PROFILE_SIZE));
+		thumbnails.clear();
 		images.removeAll();
-		addPhotosToPhotoPane(p.getMedPhotos());
-	}
-
-	// ugly duplication of code here. TODO fix this
-	private String createPhotoChooser() {
-		JFileChooser imageChooser = new JFileChooser();
-		imageChooser.showOpenDialog(this);
-		File file = imageChooser.getSelectedFile();
-		return file.toString();
-	}
-
-	private String[] formatSearchResults(ArrayList<Patient> results) {
-		String[] names = new String[results.size()];
-		for (int i = 0; i < names.length; i++) {
-			names[i] = results.get(i).getPatientID() + " " + results.get(i).getLastName() + ", "
-					+ results.get(i).getTitle() + " " + results.get(i).getFirstName();
-		}
-		return names;
+		addPhotosToPhotoPane(p);
 	}
 }
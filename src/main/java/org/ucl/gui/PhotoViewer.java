@@ -0,0 +1,343 @@
+package org.ucl.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * shows a photo of any size without decoding more of it than the window shows. The thumbnail
+ * is shown straight away, stretched, and then the part of the photo in view is decoded on a
+ * background thread at the resolution it is shown at: ImageReadParam reads only that region,
+ * and skips the pixels a zoomed out view would not show. The wheel zooms about the pointer and
+ * dragging pans. Each change is drawn at once from what is already decoded and sharpened when
+ * the new region is ready, so the memory held is about that of the window, however large the
+ * photo.
+ */
+@SuppressWarnings("serial")
+public class PhotoViewer extends JComponent {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	private static final Dimension MAX_VIEW = new Dimension(900, 650);
+	private static final double MAX_ZOOM = 8;
+	private static final double WHEEL_STEP = 1.25;
+	/* how long the view must stay still before the region in view is decoded */
+	private static final int REFINE_MS = 120;
+	/* one decode at a time, the photo is only shown once */
+	private static final ExecutorService decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "photo-viewer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final File photo;
+	private final int imageWidth;
+	private final int imageHeight;
+	/* moved on by each decode asked for, so only the latest is shown */
+	private final AtomicInteger generation = new AtomicInteger();
+	private final Timer refiner;
+	/* the rest are used only on the event thread */
+	private boolean fitted = true;
+	/* screen pixels per photo pixel, and the point of the photo at the centre of the view */
+	private double zoom;
+	private double centreX;
+	private double centreY;
+	/* the best decoding so far and the part of the photo it covers */
+	private BufferedImage tile;
+	private Rectangle tileRegion;
+	private Point dragFrom;
+
+	/**
+	 * reads the size of the photo, but none of its pixels
+	 * @param File photo
+	 * @throws IOException if the file is not an image ImageIO can read
+	 */
+	public PhotoViewer(File photo) throws IOException {
+		this.photo = photo;
+		Dimension size = imageSize(photo);
+		imageWidth = size.width;
+		imageHeight = size.height;
+		centreX = imageWidth / 2.0;
+		centreY = imageHeight / 2.0;
+		double fit = Math.min(1, Math.min(MAX_VIEW.width / (double) imageWidth, MAX_VIEW.height / (double) imageHeight));
+		setPreferredSize(new Dimension(Math.max(1, (int) (imageWidth * fit)), Math.max(1, (int) (imageHeight * fit))));
+		setBackground(Color.BLACK);
+		setOpaque(true);
+
+		showPreview();
+		refiner = new Timer(REFINE_MS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				refine();
+			}
+		});
+		refiner.setRepeats(false);
+
+		MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				dragFrom = e.getPoint();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (dragFrom != null) {
+					double z = zoom();
+					pan((dragFrom.x - e.getX()) / z, (dragFrom.y - e.getY()) / z);
+					dragFrom = e.getPoint();
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				zoomAbout(e.getPoint(), Math.pow(WHEEL_STEP, -e.getPreciseWheelRotation()));
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+		addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				refiner.restart();
+			}
+		});
+	}
+
+	/* shows the thumbnail, decoding it first in the background if it is not in the ImageCache */
+	private void showPreview() {
+		BufferedImage preview = ImageCache.shared.get(photo, ThumbnailCache.SIZE);
+		if (preview != null) {
+			show(preview, new Rectangle(imageWidth, imageHeight));
+			return;
+		}
+		decoder.execute(new Runnable() {
+			public void run() {
+				try {
+					final BufferedImage preview = ImageCache.shared.load(photo, ThumbnailCache.SIZE);
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (tile == null) {
+								show(preview, new Rectangle(imageWidth, imageHeight));
+							}
+						}
+					});
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to preview " + photo, ioe.getMessage());
+				}
+			}
+		});
+	}
+
+	/* decodes the region in view at the resolution it is shown at, dropping any earlier request */
+	private void refine() {
+		final int requested = generation.incrementAndGet();
+		if (getWidth() == 0 || getHeight() == 0) {
+			return;
+		}
+		final Rectangle region = visibleRegion();
+		if (region.isEmpty()) {
+			return;
+		}
+		final int step = Math.max(1, (int) Math.floor(1 / zoom()));
+		decoder.execute(new Runnable() {
+			public void run() {
+				if (generation.get() != requested) {
+					return;
+				}
+				try {
+					final BufferedImage decoded = read(photo, region, step);
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (generation.get() == requested) {
+								show(decoded, region);
+							}
+						}
+					});
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to decode " + photo, ioe.getMessage());
+				}
+			}
+		});
+	}
+
+	private void show(BufferedImage image, Rectangle region) {
+		tile = image;
+		tileRegion = region;
+		repaint();
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		refiner.restart();
+	}
+
+	/* stops any decode still to come once the viewer is closed */
+	@Override
+	public void removeNotify() {
+		refiner.stop();
+		generation.incrementAndGet();
+		tile = null;
+		super.removeNotify();
+	}
+
+	/* screen pixels per photo pixel; the whole photo fits the view until the user zooms */
+	private double zoom() {
+		if (fitted) {
+			return Math.min(1, Math.min(getWidth() / (double) imageWidth, getHeight() / (double) imageHeight));
+		}
+		return zoom;
+	}
+
+	/* the part of the photo in view, in photo pixels */
+	private Rectangle visibleRegion() {
+		double z = zoom();
+		int left = (int) Math.floor(centreX - getWidth() / 2.0 / z);
+		int top = (int) Math.floor(centreY - getHeight() / 2.0 / z);
+		int right = (int) Math.ceil(centreX + getWidth() / 2.0 / z);
+		int bottom = (int) Math.ceil(centreY + getHeight() / 2.0 / z);
+		return new Rectangle(left, top, right - left, bottom - top).intersection(
+				new Rectangle(imageWidth, imageHeight));
+	}
+
+	private void zoomAbout(Point point, double factor) {
+		double z = zoom();
+		double fit = Math.min(1, Math.min(getWidth() / (double) imageWidth, getHeight() / (double) imageHeight));
+		double next = Math.max(fit, Math.min(MAX_ZOOM, z * factor));
+		/* keep the point of the photo under the pointer where it is */
+		double dx = point.x - getWidth() / 2.0;
+		double dy = point.y - getHeight() / 2.0;
+		double x = centreX + dx / z;
+		double y = centreY + dy / z;
+		fitted = next <= fit;
+		zoom = next;
+		if (fitted) {
+			centreX = imageWidth / 2.0;
+			centreY = imageHeight / 2.0;
+		} else {
+			centreX = x - dx / next;
+			centreY = y - dy / next;
+		}
+		pan(0, 0);
+	}
+
+	/* moves the view by a distance in photo pixels, keeping its centre on the photo */
+	private void pan(double dx, double dy) {
+		centreX = Math.max(0, Math.min(imageWidth, centreX + dx));
+		centreY = Math.max(0, Math.min(imageHeight, centreY + dy));
+		repaint();
+		refiner.restart();
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		if (tile == null) {
+			return;
+		}
+		double z = zoom();
+		double left = getWidth() / 2.0 - centreX * z;
+		double top = getHeight() / 2.0 - centreY * z;
+		int x = (int) Math.round(left + tileRegion.x * z);
+		int y = (int) Math.round(top + tileRegion.y * z);
+		int width = (int) Math.round(left + tileRegion.getMaxX() * z) - x;
+		int height = (int) Math.round(top + tileRegion.getMaxY() * z) - y;
+		Graphics2D g2 = (Graphics2D) g.create();
+		try {
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2.drawImage(tile, x, y, width, height, null);
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	/**
+	 * @param File photo
+	 * @return Dimension the size of the first image in the file, read from its header
+	 * @throws IOException
+	 */
+	private static Dimension imageSize(File photo) throws IOException {
+		ImageInputStream in = open(photo);
+		try {
+			ImageReader reader = reader(in, photo);
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * decodes one region of a photo, keeping every step-th pixel of every step-th row
+	 * @param File photo
+	 * @param Rectangle region in photo pixels
+	 * @param int step
+	 * @return BufferedImage
+	 * @throws IOException
+	 */
+	private static BufferedImage read(File photo, Rectangle region, int step) throws IOException {
+		ImageInputStream in = open(photo);
+		try {
+			ImageReader reader = reader(in, photo);
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				param.setSourceSubsampling(step, step, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ImageInputStream open(File photo) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(photo);
+		if (in == null) {
+			throw new IOException("unable to open " + photo);
+		}
+		return in;
+	}
+
+	private static ImageReader reader(ImageInputStream in, File photo) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()) {
+			throw new IOException(photo + " is not an image");
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true);
+		return reader;
+	}
+}
@@ -0,0 +1,72 @@
+package org.ucl.gui;
+
+import javax.swing.AbstractListModel;
+import org.ucl.medicaldb.PatientQuery;
+import org.ucl.medicaldb.SearchResult;
+
+/**
+ * list model over a SearchResult. Nothing is formatted up front: a row's text is made from the
+ * database when the list paints it, so with fixed cell sizes on the JList only the rows in view
+ * are ever read, however many patients match. The model shows the matches found so far and is
+ * told to catch up by refresh() while a search is still running.
+ */
+@SuppressWarnings("serial")
+public class SearchResultModel extends AbstractListModel<String> {
+	private SearchResult result;
+	private int shown;
+
+	/**
+	 * @param SearchResult result, or null to empty the list
+	 */
+	public void setResult(SearchResult result) {
+		int removed = shown;
+		this.result = result;
+		shown = 0;
+		if (removed > 0) {
+			fireIntervalRemoved(this, 0, removed - 1);
+		}
+		refresh();
+	}
+
+	/**
+	 * brings the list up to the matches found so far. New matches can rank above ones already
+	 * shown, so every row is marked changed, which only costs a repaint of the rows in view.
+	 */
+	public void refresh() {
+		if (result == null) {
+			return;
+		}
+		int before = shown;
+		shown = result.size();
+		if (shown > before) {
+			fireIntervalAdded(this, before, shown - 1);
+		}
+		if (before > 0) {
+			fireContentsChanged(this, 0, before - 1);
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return shown;
+	}
+
+	@Override
+	public String getElementAt(int index) {
+		String id = result.field(index, PatientQuery.Field.PATIENT_ID);
+		if (id == null) {
+			return "(removed)";
+		}
+		return id + " " + result.field(index, PatientQuery.Field.LAST_NAME) + ", "
+				+ result.field(index, PatientQuery.Field.TITLE) + " "
+				+ result.field(index, PatientQuery.Field.FIRST_NAME);
+	}
+
+	/**
+	 * @param int index
+	 * @return String the id of the patient in the row, or null if it has been removed
+	 */
+	public String getPatientId(int index) {
+		return result.field(index, PatientQuery.Field.PATIENT_ID);
+	}
+}
@@ -0,0 +1,93 @@
+package org.ucl.gui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import org.ucl.medicaldb.Database;
+
+/**
+ * a strip showing how far the database has got while it opens on its own thread: the stage,
+ * the rows read so far and how many a second. Reports come from the loading threads and are
+ * passed to the event thread no more than ten times a second, plus the end of every stage.
+ */
+@SuppressWarnings("serial")
+public class StartupProgress extends JPanel implements Database.LoadProgress {
+	private static final long REPORT_NANOS = 100000000L;
+	private final JProgressBar bar = new JProgressBar(0, 1000);
+	private final JLabel status = new JLabel("Opening the registry...");
+	private final AtomicLong lastReport = new AtomicLong();
+	private final long started = System.nanoTime();
+	/* the stage on show and when it was first reported, touched only on the event thread */
+	private String stage;
+	private long stageStarted;
+
+	public StartupProgress() {
+		setLayout(new BorderLayout(0, 4));
+		setOpaque(false);
+		bar.setIndeterminate(true);
+		status.setFont(new Font("Sauce Code Powerline", Font.BOLD, 14));
+		status.setForeground(Color.WHITE);
+		add(bar, BorderLayout.NORTH);
+		add(status, BorderLayout.CENTER);
+	}
+
+	/**
+	 * may be called from any thread
+	 * @param String stage
+	 * @param long rows
+	 * @param double fraction
+	 */
+	@Override
+	public void progress(final String stage, final long rows, final double fraction) {
+		final long now = System.nanoTime();
+		long last = lastReport.get();
+		if (fraction < 1 && (now - last < REPORT_NANOS || !lastReport.compareAndSet(last, now))) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				show(stage, rows, fraction, now);
+			}
+		});
+	}
+
+	private void show(String stage, long rows, double fraction, long now) {
+		if (!stage.equals(this.stage)) {
+			this.stage = stage;
+			this.stageStarted = now;
+		}
+		bar.setIndeterminate(fraction < 0);
+		if (fraction >= 0) {
+			bar.setValue((int) (fraction * bar.getMaximum()));
+		}
+		double seconds = (now - stageStarted) / 1e9;
+		String rate = seconds > 0 ? String.format(", %,d a second", (long) (rows / seconds)) : "";
+		status.setText(String.format("Loading %s: %,d rows%s", stage, rows, rate));
+	}
+
+	/** called on the event thread once the user has logged in, if the registry is still opening */
+	void waiting() {
+		status.setText("Signed in, the registry opens when loading finishes");
+	}
+
+	/** called on the event thread once the database is open */
+	void ready() {
+		bar.setIndeterminate(false);
+		bar.setValue(bar.getMaximum());
+		status.setText(String.format("Registry ready in %.1f seconds", (System.nanoTime() - started) / 1e9));
+	}
+
+	/**
+	 * called on the event thread if the database could not be opened
+	 * @param String message
+	 */
+	void failed(String message) {
+		bar.setIndeterminate(false);
+		status.setText("Unable to open the registry: " + message);
+	}
+}
@@ -0,0 +1,258 @@
+package org.ucl.gui;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.AbstractButton;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+/**
+ * makes the thumbnails of the photo pane away from the event thread. A photo is decoded with
+ * subsampling, so only about as many pixels are read as the thumbnail needs, scaled to fit,
+ * and written as a png to the thumbnail directory under a hash of the photo's bytes. So each
+ * photo is decoded once, however often and under whatever name it is shown, and a button is
+ * given its icon on the event thread as soon as its thumbnail is ready.
+ */
+class ThumbnailCache {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	static final int SIZE = 100;
+	private static final String DIRECTORY = "thumbnails";
+	private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final ExecutorService pool = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "thumbnail-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	});
+	private final File directory;
+	private final Executor workers;
+	/* the hash of each photo already read, kept while its length and date stay the same */
+	private final ConcurrentHashMap<String, Key> keys = new ConcurrentHashMap<String, Key>();
+	/* moved on by clear(), so requests for the photos of an earlier patient are dropped */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private static class Key {
+		final long length;
+		final long modified;
+		final String hash;
+
+		Key(long length, long modified, String hash) {
+			this.length = length;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+	ThumbnailCache() {
+		this(new File(DIRECTORY));
+	}
+
+	/**
+	 * @param File directory where thumbnails are kept, made if it does not exist
+	 */
+	ThumbnailCache(File directory) {
+		this(directory, pool);
+	}
+
+	/**
+	 * @param File directory where thumbnails are kept, made if it does not exist
+	 * @param Executor workers where thumbnails are made
+	 */
+	ThumbnailCache(File directory, Executor workers) {
+		this.directory = directory;
+		this.workers = workers;
+	}
+
+	/** drops every request not yet done, as the buttons they were for are no longer shown */
+	void clear() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * makes the thumbnail of a photo in the background and sets it as the icon of a button,
+	 * unless clear() is called first
+	 * @param File photo
+	 * @param AbstractButton button
+	 */
+	void request(final File photo, final AbstractButton button) {
+		final int requested = generation.get();
+		workers.execute(new Runnable() {
+			public void run() {
+				if (generation.get() != requested) {
+					return;
+				}
+				BufferedImage thumbnail = null;
+				try {
+					thumbnail = thumbnail(photo);
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to make a thumbnail of " + photo, ioe.getMessage());
+				}
+				final ImageIcon icon = thumbnail == null ? null : new ImageIcon(thumbnail);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (generation.get() != requested) {
+							return;
+						}
+						if (icon != null) {
+							button.setIcon(icon);
+						} else {
+							button.setText(photo.getName());
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * returns the thumbnail of a photo from the shared ImageCache, or else from the thumbnail
+	 * directory, making it first if it is in neither
+	 * @param File photo
+	 * @return BufferedImage
+	 * @throws IOException if the photo cannot be read as an image
+	 */
+	BufferedImage thumbnail(File photo) throws IOException {
+		BufferedImage image = ImageCache.shared.get(photo, SIZE);
+		if (image == null) {
+			image = stored(photo);
+			ImageCache.shared.put(photo, SIZE, image);
+		}
+		return image;
+	}
+
+	/* reads a thumbnail from the directory, making and writing it first if it is not there */
+	private BufferedImage stored(File photo) throws IOException {
+		File cached = new File(directory, key(photo) + ".png");
+		if (cached.exists()) {
+			BufferedImage image = ImageIO.read(cached);
+			if (image != null) {
+				return image;
+			}
+		}
+		BufferedImage image = decode(photo, SIZE);
+		if (directory.isDirectory() || directory.mkdirs()) {
+			/* written aside and moved into place, so a thumbnail is never seen half written */
+			File temporary = File.createTempFile("thumbnail", ".tmp", directory);
+			try {
+				ImageIO.write(image, "png", temporary);
+				Files.move(temporary.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temporary.toPath());
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @param File photo
+	 * @return String the hex SHA-1 of the photo's bytes, read again only if the file changed
+	 * @throws IOException
+	 */
+	private String key(File photo) throws IOException {
+		String path = photo.getAbsolutePath();
+		long length = photo.length();
+		long modified = photo.lastModified();
+		Key key = keys.get(path);
+		if (key != null && key.length == length && key.modified == modified) {
+			return key.hash;
+		}
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IOException(nsae);
+		}
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = new FileInputStream(photo);
+		try {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hash.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		keys.put(path, new Key(length, modified, hash.toString()));
+		return hash.toString();
+	}
+
+	/**
+	 * decodes an image at about the size asked for, reading only every n-th pixel of every n-th
+	 * row of a large image, then scales it to fit a square of that size
+	 * @param File photo
+	 * @param int size
+	 * @return BufferedImage
+	 * @throws IOException if the file is not an image ImageIO can read
+	 */
+	static BufferedImage decode(File photo, int size) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(photo);
+		if (in == null) {
+			throw new IOException("unable to open " + photo);
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException(photo + " is not an image");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / size);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				return fit(reader.read(0, param), size);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/* scales an image down, keeping its shape, until it fits a square of the given size */
+	private static BufferedImage fit(BufferedImage image, int size) {
+		double scale = Math.min(1, Math.min(size / (double) image.getWidth(), size / (double) image.getHeight()));
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		BufferedImage fitted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = fitted.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			g.dispose();
+		}
+		return fitted;
+	}
+}
@@ -0,0 +1,67 @@
+package org.ucl.medicaldb;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * the patients with a next appointment, sorted by its epoch day. A date range is a sub map of
+ * the days in it, so a range query only touches the days and patients it returns. Patients
+ * with no appointment, or an unreadable one, are not in the index.
+ */
+class AppointmentIndex {
+	private final TreeMap<Long, PostingList> days = new TreeMap<Long, PostingList>();
+
+	/** receives the ordinals of a range, in date order */
+	interface Visitor {
+		/**
+		 * @param long epochDay
+		 * @param int ordinal
+		 * @return boolean false to stop
+		 */
+		boolean visit(long epochDay, int ordinal);
+	}
+
+	/**
+	 * @param int ordinal
+	 * @param String appointment the nextAppointment field
+	 */
+	void add(int ordinal, String appointment) {
+		long day = PatientDate.toEpochDay(appointment);
+		if (day == PatientDate.NONE) {
+			return;
+		}
+		PostingList list = days.get(day);
+		if (list == null) {
+			list = new PostingList();
+			days.put(day, list);
+		}
+		list.add(ordinal);
+	}
+
+	void remove(int ordinal, String appointment) {
+		long day = PatientDate.toEpochDay(appointment);
+		PostingList list = days.get(day);
+		if (list != null && list.remove(ordinal) && list.size() == 0) {
+			days.remove(day);
+		}
+	}
+
+	/**
+	 * visits the appointments from one day to another, both included, by date and then in
+	 * registry order
+	 * @param long from epoch day
+	 * @param long to epoch day
+	 * @param Visitor visitor
+	 */
+	void visit(long from, long to, Visitor visitor) {
+		if (from > to) {
+			return;
+		}
+		for (Map.Entry<Long, PostingList> entry : days.subMap(from, true, to, true).entrySet()) {
+			long day = entry.getKey();
+			if (!entry.getValue().visit(ordinal -> visitor.visit(day, ordinal))) {
+				return;
+			}
+		}
+	}
+}
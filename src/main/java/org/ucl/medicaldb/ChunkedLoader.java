@@ -0,0 +1,259 @@
+package org.ucl.medicaldb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * loads a csv separated database file in parallel. The file is cut into byte ranges that
+ * start and end on line boundaries, each range is parsed and validated as a separate task on
+ * a ForkJoinPool, and the chunks are handed back in file order so the patients end up in the
+ * same order as a sequential load would give. Every record in the file is a single line.
+ */
+class ChunkedLoader {
+	/* ranges smaller than this are not worth a task of their own */
+	private static final long MIN_CHUNK = 1 << 20;
+	/* and ranges no larger than this, whatever the size of the file, bar one long line */
+	static final long MAX_CHUNK = 1 << 23;
+	private final ForkJoinPool pool;
+
+	/**
+	 * the patients and failures of one byte range of the file
+	 */
+	static class Chunk {
+		final int index;
+		final long start;
+		final long end;
+		final List<Patient> patients = new ArrayList<Patient>();
+		/* line numbers are relative to the chunk until the load is merged */
+		private int[] patientLines = new int[64];
+		final List<Integer> failedLines = new ArrayList<Integer>();
+		final List<String> failures = new ArrayList<String>();
+		/* rows loaded with fields the validators rejected, which are left blank */
+		final List<Integer> invalidLines = new ArrayList<Integer>();
+		final List<ValidationResult> invalid = new ArrayList<ValidationResult>();
+		int firstLine;
+		int lines;
+
+		Chunk(int index, long start, long end) {
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @param int i the position of a patient in patients
+		 * @return int the line of the file it was read from
+		 */
+		int lineOf(int i) {
+			return firstLine + patientLines[i] - 1;
+		}
+
+		private void add(Patient patient, int line) {
+			if (patients.size() == patientLines.length) {
+				patientLines = Arrays.copyOf(patientLines, patientLines.length * 2);
+			}
+			patientLines[patients.size()] = line;
+			patients.add(patient);
+		}
+
+		/**
+		 * @param int i the position of a failure in failures
+		 * @return int the line of the file that failed
+		 */
+		int failedLineOf(int i) {
+			return firstLine + failedLines.get(i) - 1;
+		}
+
+		/**
+		 * @param int i the position of a result in invalid
+		 * @return int the line of the file it is for
+		 */
+		int invalidLineOf(int i) {
+			return firstLine + invalidLines.get(i) - 1;
+		}
+
+		/**
+		 * @return String a one line summary of the chunk, listing any rows that failed
+		 */
+		String report() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("chunk ").append(index).append(" (bytes ").append(start).append("-").append(end)
+					.append("): ").append(patients.size()).append(" patients loaded, ").append(failures.size())
+					.append(" rows rejected, ").append(invalid.size()).append(" with invalid fields");
+			for (int i = 0; i < failures.size(); i++) {
+				sb.append("; line ").append(failedLineOf(i)).append(": ").append(failures.get(i));
+			}
+			return sb.toString();
+		}
+	}
+
+	ChunkedLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	ChunkedLoader(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * parses the whole file, using up to four chunks per worker thread, or more if that many
+	 * would be larger than MAX_CHUNK, and tells progress of the lines and bytes parsed by all
+	 * the chunks between them as they go
+	 * @param String fileLocation
+	 * @param Database.LoadProgress progress, or null
+	 * @return List the chunks in file order, with absolute line numbers
+	 * @throws IOException
+	 */
+	List<Chunk> load(String fileLocation, final Database.LoadProgress progress) throws IOException {
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+		stream(fileLocation, progress, chunk -> chunks.add(chunk));
+		return chunks;
+	}
+
+	/**
+	 * parses the file as load() does, but hands each chunk to the sink, in file order and on
+	 * the calling thread, as soon as it and every chunk before it are parsed. No chunk is
+	 * larger than MAX_CHUNK, and only two chunks per worker thread are parsed ahead of the
+	 * sink, so the patients held at once do not grow with the file.
+	 * @param String fileLocation
+	 * @param Database.LoadProgress progress, or null
+	 * @param Consumer sink given each chunk, with absolute line numbers
+	 * @throws IOException
+	 */
+	void stream(String fileLocation, final Database.LoadProgress progress, Consumer<Chunk> sink) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileLocation, "r");
+		Deque<Future<Chunk>> parsing = new ArrayDeque<Future<Chunk>>();
+		try {
+			final FileChannel channel = file.getChannel();
+			int parallelism = pool.getParallelism();
+			List<Chunk> chunks = split(file, (int) Math.max(parallelism * 4, file.length() / MAX_CHUNK + 1));
+			final Counter counter = progress == null ? null : new Counter(progress, file.length());
+			int next = 0;
+			int line = 1;
+			while (next < chunks.size() || !parsing.isEmpty()) {
+				while (next < chunks.size() && parsing.size() < parallelism * 2) {
+					final Chunk chunk = chunks.get(next++);
+					parsing.add(pool.submit(new Callable<Chunk>() {
+						@Override
+						public Chunk call() throws IOException {
+							parse(channel, chunk, counter);
+							return chunk;
+						}
+					}));
+				}
+				Chunk chunk = parsing.remove().get();
+				chunk.firstLine = line;
+				line += chunk.lines;
+				sink.accept(chunk);
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("load of " + fileLocation + " interrupted");
+		} catch (ExecutionException ee) {
+			throw new IOException("unable to load " + fileLocation, ee.getCause());
+		} finally {
+			for (Future<Chunk> left : parsing) {
+				left.cancel(false);
+			}
+			file.close();
+		}
+	}
+
+	/**
+	 * cuts the file into roughly equal ranges, moving each cut forward to just past the next
+	 * line break
+	 * @param RandomAccessFile file
+	 * @param int maxChunks
+	 * @return List
+	 * @throws IOException
+	 */
+	private List<Chunk> split(RandomAccessFile file, int maxChunks) throws IOException {
+		long length = file.length();
+		int count = (int) Math.max(1, Math.min(maxChunks, length / MIN_CHUNK));
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		long start = 0;
+		for (int i = 1; i <= count && start < length; i++) {
+			long end = i == count ? length : Math.max(start, length * i / count);
+			if (end < length) {
+				file.seek(end);
+				int b;
+				while ((b = file.read()) != -1 && b != '\n') {
+					end++;
+				}
+				end = Math.min(length, end + 1);
+			}
+			chunks.add(new Chunk(chunks.size(), start, end));
+			start = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * parses and validates every line of one chunk. A row that cannot be turned into a patient
+	 * is recorded as a failure of the chunk rather than stopping the load, and the problems
+	 * found with a row that can are kept with its line.
+	 * @param FileChannel channel
+	 * @param Chunk chunk
+	 * @param Counter counter, or null
+	 * @throws IOException
+	 */
+	private void parse(FileChannel channel, Chunk chunk, Counter counter) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+		PatientBuilder builder = new PatientBuilder();
+		int counted = 0;
+		while (buffer.hasRemaining()) {
+			chunk.lines++;
+			if (counter != null && chunk.lines % Database.PROGRESS_ROWS == 0) {
+				counter.add(Database.PROGRESS_ROWS, buffer.position() - counted);
+				counted = buffer.position();
+			}
+			try {
+				Patient patient = builder.build(buffer);
+				if (patient != null) {
+					chunk.add(patient, chunk.lines);
+					if (!builder.validation().isValid()) {
+						chunk.invalidLines.add(chunk.lines);
+						chunk.invalid.add(builder.validation());
+					}
+				}
+			} catch (IOException ioe) {
+				chunk.failedLines.add(chunk.lines);
+				chunk.failures.add(ioe.getMessage());
+			}
+		}
+		if (counter != null) {
+			counter.add(chunk.lines % Database.PROGRESS_ROWS, buffer.position() - counted);
+		}
+	}
+
+	/** the lines and bytes parsed so far by every chunk of a load */
+	private static class Counter {
+		private final Database.LoadProgress progress;
+		private final long length;
+		private final AtomicLong lines = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+
+		Counter(Database.LoadProgress progress, long length) {
+			this.progress = progress;
+			this.length = length;
+		}
+
+		void add(int lines, long bytes) {
+			long done = this.bytes.addAndGet(bytes);
+			progress.progress("parsing", this.lines.addAndGet(lines), length == 0 ? 1 : done / (double) length);
+		}
+	}
+}
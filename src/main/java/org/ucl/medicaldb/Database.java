@@ -1,51 +1,222 @@
 package org.ucl.medicaldb;
 
-import com.opencsv.CSVReader;
 import java.io.*;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ucl.medicaldb.Patient;
 
-/** the main database methods for the medical registry. It loads the patient data from a csv
- * separated text file into an ArrayList of Patient objects
+/** the main database methods for the medical registry. It maps the last saved binary snapshot
+ * into a table of lazily built Patient objects (or, the first time round, loads the patient
+ * data from a csv separated text file), then replays the write-ahead log of every change made
+ * since the snapshot was saved.
+ *
+ * Every change publishes a new version of the table (see PatientTable), and a search pins the
+ * version current when it starts and reads only that, so it sees the registry as it was at one
+ * moment however long it runs, without holding any lock. The indexes are shared by every
+ * version and guarded by a read/write lock: a search holds the read lock only while it looks
+ * its terms up and pins its version, and a change holds the write lock while it updates the
+ * indexes and publishes. So a change waits at most for an index lookup, never for a search,
+ * and a search only waits for the change being made at that moment. The change log is forced
+ * to disk after the write lock is released.
  */
 public class Database {
 	private static final Logger log = Logger.getLogger(Class.class.getName());
 	private static final String FILELOCATION = "db.txt";
-	protected static ArrayList<Patient> currentPatients = new ArrayList<Patient>();
-	public static Set<String> idNumbers = new HashSet<String>();
-	private static CSVReader reader;
-	private static BufferedWriter writer;
-	private static int setterCount;
+	private static final String SNAPSHOTLOCATION = "db.snap";
+	private static final String LOGLOCATION = "db.log";
+	/* static, like the indexes it guards */
+	private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/* guards builds, so each lazy index is only built once */
+	private static final Object indexLock = new Object();
+	/* the builds of the lazy indexes under way, by index name */
+	private static final Map<String, Future<?>> builds = new HashMap<String, Future<?>>();
+	/* builds the lazy indexes, one at a time, whether or not the query that asked is still waiting */
+	private static final ExecutorService indexBuilder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "index-builder");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/* how often a query waiting for an index checks whether it has been cancelled */
+	private static final int BUILD_POLL_MS = 20;
+	/* for the searches and index builds nobody can cancel */
+	private static final BooleanSupplier NEVER = () -> false;
+	/* one save at a time, as saves write to the same temporary file */
+	private static final Object saveLock = new Object();
+	/* the latest published version, replaced under the write lock */
+	protected static volatile PatientTable currentPatients = new PatientTable();
+	/* primary key index, patient id to the ordinal of its row in currentPatients */
+	static PrimaryKey primaryKey = new PrimaryKey();
+	/* built on the first search, so that opening a snapshot does not have to read every field,
+	 * and read under the read lock once published */
+	static volatile TrigramIndex trigramIndex;
+	/* per field indexes for fielded queries, each built the first time a query names its field */
+	private static final AtomicReferenceArray<FieldIndex> fieldIndexes = new AtomicReferenceArray<FieldIndex>(
+			Patient.FIELD_COUNT);
+	private static volatile AppointmentIndex appointmentIndex;
+	/* a query term is intersected through its index while its matches are no more than this
+	 * many times the candidates left, as walking two sorted arrays is far cheaper per entry
+	 * than reading and comparing the field of each candidate */
+	private static final int INTERSECT_RATIO = 8;
+	/* rows between two reports of progress while the database opens */
+	static final int PROGRESS_ROWS = 1 << 14;
+	private static WriteAheadLog changeLog;
+	private static int setterCount = getPatientMethods();
+	private final File directory;
+	private final LoadProgress progress;
+	/* restores logged records as they were written, without validating them again */
+	private final PatientBuilder replayBuilder = new PatientBuilder(false);
+	/* encodes the records of the change log; used under the write lock */
+	private final RecordWriter logWriter = new RecordWriter(true);
 	static final char DELIM = '|';
-	public static String[] days;
-	public static String[] months;
-	public static String[] years;
+	public static final String[] days = initializeDays();
+	public static final String[] months = initializeMonths();
+	public static final String[] years = initializeYears();
+
+	/** adds a row of a version to an index, or removes it, given the values in that version */
+	private interface Indexer<T> {
+		void update(T index, PatientTable table, int ordinal, boolean add);
+	}
+
+	/** receives the results of a query as they are found */
+	public interface ResultSink {
+		/**
+		 * @param Patient patient
+		 * @return boolean false to stop the query
+		 */
+		boolean accept(Patient patient);
+	}
+
+	/**
+	 * told how far the database has got while it opens. It is called on the thread opening the
+	 * database, and while a text file is parsed on the loader threads as well, possibly at once.
+	 */
+	public interface LoadProgress {
+		/**
+		 * @param String stage what is being read, such as "snapshot" or "change log"
+		 * @param long rows the rows read so far in this stage
+		 * @param double fraction how much of the stage is done, from 0 to 1, or -1 if not known
+		 */
+		void progress(String stage, long rows, double fraction);
+	}
 
+	/** what an import does with a row whose patient id is already in the registry */
+	public enum MergePolicy {
+		/** keep the patient in the registry */
+		SKIP,
+		/** replace the patient in the registry with the row */
+		OVERWRITE,
+		/**
+		 * keep whichever has the later next appointment, as the record seen most recently;
+		 * the patient in the registry is kept if neither is later
+		 */
+		NEWEST_WINS
+	}
+
+	/** opens the database in the working directory */
 	public Database() {
+		this(null, null);
+	}
+
+	/**
+	 * opens the database in the working directory, reporting as it goes. Opening a large
+	 * database takes a while, so this is best called away from the event thread.
+	 * @param LoadProgress progress
+	 */
+	public Database(LoadProgress progress) {
+		this(null, progress);
+	}
+
+	/**
+	 * opens the database files in a directory, replacing whatever table was open before
+	 * @param File directory, or null for the working directory
+	 */
+	Database(File directory) {
+		this(directory, null);
+	}
+
+	/**
+	 * @param File directory, or null for the working directory
+	 * @param LoadProgress progress, or null
+	 * @throws UncheckedIOException if there is a snapshot which cannot be read. Once a snapshot
+	 *         has been saved db.txt is no longer kept up to date, so opening anything else would
+	 *         lose every change saved since, and the next save would write that loss over the
+	 *         snapshot.
+	 */
+	Database(File directory, LoadProgress progress) {
+		this.directory = directory;
+		this.progress = progress != null ? progress : (stage, rows, fraction) -> {
+		};
+		lock.writeLock().lock();
 		try {
-			File db = new File(FILELOCATION);
+			clear();
+			File db = file(FILELOCATION);
 			setterCount = getPatientMethods();
-			if (!db.exists()) {
+			if (file(SNAPSHOTLOCATION).exists()) {
+				openSnapshot(file(SNAPSHOTLOCATION).getPath());
+				log.log(Level.INFO, "mapped " + currentPatients.size() + " patients from snapshot");
+			} else if (!db.exists()) {
 				log.log(Level.INFO, "creating new database file");
 				db.createNewFile();
 			} else
-				loadDBfromFile(FILELOCATION);
-			log.log(Level.INFO, "database loaded successfully");
+				loadDBfromFile(db.getPath());
+			changeLog = new WriteAheadLog(file(LOGLOCATION).getPath());
+			final PatientTable table = currentPatients.edit();
+			final int[] replaying = new int[1];
+			int replayed = changeLog.replay((operation, payload) -> {
+				applyLogRecord(table, operation, payload);
+				if (++replaying[0] % PROGRESS_ROWS == 0) {
+					this.progress.progress("change log", replaying[0], -1);
+				}
+			});
+			this.progress.progress("change log", replayed, 1);
+			currentPatients = table.publish();
+			log.log(Level.INFO, "database loaded successfully, " + replayed + " changes replayed from log");
 		} catch (IOException e) {
 			log.log(Level.SEVERE, "unable to initialize database");
 		} finally {
-			days = initializeDays();
-			months = initializeMonths();
-			years = initializeYears();
+			lock.writeLock().unlock();
+		}
+	}
+
+	private File file(String name) {
+		return new File(directory, name);
+	}
+
+	/* empties the table and drops every index, before a database is opened */
+	private static void clear() {
+		currentPatients = new PatientTable();
+		primaryKey = new PrimaryKey();
+		trigramIndex = null;
+		for (int field = 0; field < fieldIndexes.length(); field++) {
+			fieldIndexes.set(field, null);
 		}
+		appointmentIndex = null;
 	}
 
-	private String[] initializeDays() {
+	private static String[] initializeDays() {
 		String[] days = new String[31];
 		for (int i = 0; i < days.length; i++) {
 			days[i] = String.valueOf(i + 1);
@@ -53,7 +224,7 @@ public class Database {
 		return days;
 	}
 
-	private String[] initializeMonths() {
+	private static String[] initializeMonths() {
 		String[] months = new String[12];
 		for (int i = 0; i < months.length; i++) {
 			months[i] = String.valueOf(i + 1);
@@ -61,7 +232,7 @@ public class Database {
 		return months;
 	}
 
-	private String[] initializeYears() {
+	private static String[] initializeYears() {
 		String[] years = new String[100];
 		for (int i = years.length - 1; i > 0; i--) {
 			years[i] = String.valueOf(2016 - i);
@@ -69,60 +240,223 @@ public class Database {
 		return years;
 	}
 
-	/** saves the ArrayList of current patients to the db.txt file, overwriting it in the
-	 * process.
+	/** saves the table of current patients to the binary snapshot, then drops the change log,
+	 * as every change in it is now part of the snapshot. The snapshot is written to a temporary
+	 * file first and moved into place, so a crash mid-save leaves the previous snapshot and the
+	 * log intact. The save pins the current version and sets the log written so far aside in one
+	 * step, then writes the snapshot without holding any lock, so changes carry on into a fresh
+	 * log while it is written.
 	 */
 	public void dumpDBtoFile() {
-		writer = null;
-		try {
-			writer = new BufferedWriter(new FileWriter(FILELOCATION));
-			for (Patient patient : currentPatients) {
-				writer.write(patient.toString());
+		synchronized (saveLock) {
+			PatientTable version;
+			/* the read lock is enough to keep changes out while the log is rotated */
+			lock.readLock().lock();
+			try {
+				version = currentPatients;
+				if (changeLog != null) {
+					changeLog.rotate();
+				}
+			} catch (IOException ioe) {
+				log.log(Level.SEVERE, "unable to rotate change log, snapshot not saved", ioe.getMessage());
+				return;
+			} finally {
+				lock.readLock().unlock();
 			}
-		} catch (FileNotFoundException fnf) {
-			log.log(Level.SEVERE, fnf.getMessage());
-		} catch (IOException ioe) {
-			log.log(Level.WARNING, ioe.getMessage());
-		} finally {
 			try {
-				if (writer != null) {
-					writer.close();
+				PatientSnapshot.write(file(SNAPSHOTLOCATION).getPath(), version);
+				if (changeLog != null) {
+					changeLog.dropRotated();
 				}
 			} catch (IOException ioe) {
-				log.log(Level.SEVERE, ioe.getMessage());
+				log.log(Level.SEVERE, "unable to save snapshot", ioe.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * maps a snapshot file as the table of current patients. No record is read: the primary key
+	 * searches the snapshot's id index where it is mapped, and everything else stays in the
+	 * mapped file until it is needed.
+	 * @param String fileLocation
+	 * @throws UncheckedIOException if the file is not a snapshot this version can read
+	 */
+	private void openSnapshot(String fileLocation) {
+		PatientSnapshot snapshot;
+		try {
+			snapshot = PatientSnapshot.open(fileLocation);
+		} catch (IOException ioe) {
+			log.log(Level.SEVERE, "unable to open snapshot " + fileLocation, ioe.getMessage());
+			throw new UncheckedIOException("unable to open " + fileLocation + ": " + ioe.getMessage(), ioe);
+		}
+		currentPatients = new PatientTable(snapshot);
+		primaryKey = new PrimaryKey(snapshot);
+		int size = snapshot.size();
+		/* a snapshot saved before snapshots had an id index has its ids read one by one */
+		for (int i = 0; !snapshot.hasIdIndex() && i < size; i++) {
+			indexRow(i, snapshot.field(i, Patient.PATIENT_ID));
+			if ((i + 1) % PROGRESS_ROWS == 0) {
+				progress.progress("snapshot", i + 1, (i + 1) / (double) size);
 			}
 		}
+		progress.progress("snapshot", size, 1);
 	}
 
 	/**
-	 * loads default database file into an ArrayList of current patients.
+	 * loads a csv separated database file into the table of current patients. The file is
+	 * parsed and validated in parallel chunks; rows which cannot be read are skipped and
+	 * reported per chunk in the log, as are rows with the id of a patient loaded before them,
+	 * since the change log finds patients by id.
 	 * @param String fileLocation
 	 */
 	public void loadDBfromFile(String fileLocation) {
-		reader = null;
 		try {
-			reader = new CSVReader(new FileReader(fileLocation), DELIM);
-			String[] patient;			
-			while ((patient = reader.readNext()) != null) {
-				Patient p = arrayToPatient(patient);
-				populateIdSet(p.getPatientID());
-				currentPatients.add(p);
+			List<ChunkedLoader.Chunk> chunks = new ChunkedLoader().load(fileLocation, progress);
+			int total = 0;
+			for (ChunkedLoader.Chunk chunk : chunks) {
+				total += chunk.patients.size();
+			}
+			lock.writeLock().lock();
+			try {
+				PatientTable table = currentPatients.edit();
+				int rows = 0;
+				for (ChunkedLoader.Chunk chunk : chunks) {
+					for (int i = 0; i < chunk.patients.size(); i++) {
+						Patient p = chunk.patients.get(i);
+						if (idInUse(p.getPatientID(), -1)) {
+							log.log(Level.WARNING, "line " + chunk.lineOf(i) + ": patient id " + p.getPatientID()
+									+ " already loaded, row skipped");
+						} else {
+							addRow(table, p);
+						}
+						if (++rows % PROGRESS_ROWS == 0) {
+							progress.progress("indexing", rows, rows / (double) total);
+						}
+					}
+					if (!chunk.failures.isEmpty() || !chunk.invalid.isEmpty()) {
+						log.log(Level.WARNING, chunk.report());
+					}
+				}
+				currentPatients = table.publish();
+				progress.progress("indexing", rows, 1);
+			} finally {
+				lock.writeLock().unlock();
 			}
 		} catch (IOException ioe) {
 			log.log(Level.SEVERE, ioe.getMessage());
-		} catch (IndexOutOfBoundsException ibe) {
-			log.log(Level.SEVERE, ibe.getMessage());
-		} catch (Exception e) {
-			log.log(Level.SEVERE, e.getMessage());
-		} finally {
+		}
+	}
+
+	/**
+	 * imports a csv separated file into the registry, merging it by patient id. The file is
+	 * parsed and validated in parallel chunks as loadDBfromFile() does, and each chunk is merged
+	 * as soon as it and the chunks before it are parsed: a row with a new id is added, a row
+	 * identical to the patient already there is left alone, and a row that differs is a
+	 * conflict, settled by the policy. Rows that cannot be read, or have no valid patient id,
+	 * are rejected. A chunk is merged under the write lock as one change, published as a
+	 * version of its own, and committed to the change log with a single fsync, so neither the
+	 * memory an import needs nor the time it holds the lock grows with the file, and searches
+	 * see the import arrive a chunk at a time.
+	 * @param String fileLocation
+	 * @param MergePolicy policy
+	 * @return ImportReport
+	 * @throws IOException if the file cannot be read, in which case the chunks before the one
+	 *         that failed stay imported
+	 */
+	public ImportReport importFile(String fileLocation, final MergePolicy policy) throws IOException {
+		final ImportReport report = new ImportReport(fileLocation, policy);
+		final long length = new File(fileLocation).length();
+		final int[] rows = new int[1];
+		new ChunkedLoader().stream(fileLocation, progress, chunk -> {
+			long sequence = -1;
+			lock.writeLock().lock();
 			try {
-				if (reader != null) {
-					reader.close();
+				PatientTable table = currentPatients.edit();
+				for (int i = 0; i < chunk.failures.size(); i++) {
+					report.error(chunk.failedLineOf(i), chunk.failures.get(i));
 				}
-			} catch (IOException ioe) {
-				log.log(Level.SEVERE, ioe.getMessage());
+				for (int i = 0; i < chunk.invalid.size(); i++) {
+					report.invalid(chunk.invalidLineOf(i), chunk.invalid.get(i));
+				}
+				for (int i = 0; i < chunk.patients.size(); i++) {
+					long logged = merge(table, chunk.patients.get(i), chunk.lineOf(i), policy, report);
+					if (logged >= 0) {
+						sequence = logged;
+					}
+				}
+				currentPatients = table.publish();
+			} finally {
+				lock.writeLock().unlock();
+			}
+			commitLogRecord(sequence);
+			rows[0] += chunk.patients.size();
+			progress.progress("merging", rows[0], length == 0 ? 1 : chunk.end / (double) length);
+		});
+		log.log(Level.INFO, "imported " + fileLocation + ": " + report.summary());
+		return report;
+	}
+
+	/**
+	 * merges one imported row into an edit of the table. Called under the write lock.
+	 * @return long the sequence number of the change logged, or -1 if nothing was changed
+	 */
+	private long merge(PatientTable table, Patient p, int line, MergePolicy policy, ImportReport report) {
+		String id = p.getPatientID();
+		if (id.isEmpty()) {
+			report.error(line, "missing or invalid patient id");
+			return -1;
+		}
+		int ordinal = ordinalOfId(id);
+		if (ordinal < 0) {
+			addRow(table, p);
+			report.added();
+			logWriter.reset();
+			logWriter.write(p);
+			return writeLogRecord(WriteAheadLog.INSERT, logWriter, true);
+		}
+		int differs = differingField(table, ordinal, p);
+		if (differs < 0) {
+			report.unchanged();
+			return -1;
+		}
+		String reason = fieldName(differs) + " differs";
+		boolean replace = policy == MergePolicy.OVERWRITE;
+		if (policy == MergePolicy.NEWEST_WINS) {
+			long current = PatientDate.toEpochDay(table.field(ordinal, Patient.NEXT_APPOINTMENT));
+			long incoming = PatientDate.toEpochDay(p.getNextAppointment());
+			replace = incoming != PatientDate.NONE && (current == PatientDate.NONE || incoming > current);
+			reason += replace ? ", next appointment later" : ", next appointment not later";
+		}
+		if (!replace) {
+			report.conflict(line, id, ImportReport.Outcome.SKIPPED, reason);
+			return -1;
+		}
+		replaceRow(table, ordinal, p);
+		report.conflict(line, id, ImportReport.Outcome.REPLACED, reason);
+		logWriter.reset();
+		logWriter.field(id);
+		logWriter.write(p);
+		return writeLogRecord(WriteAheadLog.UPDATE, logWriter, true);
+	}
+
+	/* the name of a field in a report, as the query language names it */
+	private static String fieldName(int field) {
+		for (PatientQuery.Field named : PatientQuery.Field.values()) {
+			if (named.index == field) {
+				return named.getQueryName();
+			}
+		}
+		return field == Patient.PROFILE_PHOTO ? "profilePhoto" : "medPhotos";
+	}
+
+	/* the first field in which a row and a patient differ, or -1 if they are the same */
+	private static int differingField(PatientTable table, int ordinal, Patient p) {
+		for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+			if (!p.getField(field).equals(table.field(ordinal, field))) {
+				return field;
 			}
 		}
+		return -1;
 	}
 
 	/**
@@ -149,7 +483,7 @@ public class Database {
 	 * @param String[]
 	 * @return Patient
 	 */
-	Patient arrayToPatient(String[] array) throws IndexOutOfBoundsException {
+	static Patient arrayToPatient(String[] array) throws IndexOutOfBoundsException {
 		Patient temp = new Patient();
 		int i = 0;
 		temp.setFirstName(array[i++]);
@@ -174,78 +508,832 @@ public class Database {
 	}
 
 	/**
-	 * creates a java set of id numbers as read from the database file
-	 * @param String
+	 * removes a patient from the ArrayList of current patients and logs the deletion
+	 * @param Patient toRemove
 	 */
-	private void populateIdSet(String id) {
+	public void removePatient(Patient toRemove) {
+		long sequence;
+		lock.writeLock().lock();
 		try {
-			idNumbers.add(id);
-		} catch (Exception e) {
-			log.log(Level.WARNING, e.getMessage());
+			PatientTable table = currentPatients.edit();
+			int ordinal = ordinalOf(table, toRemove);
+			if (ordinal < 0) {
+				return;
+			}
+			removeRow(table, ordinal);
+			currentPatients = table.publish();
+			logWriter.reset();
+			logWriter.field(toRemove.getPatientID());
+			sequence = writeLogRecord(WriteAheadLog.DELETE, logWriter);
+		} finally {
+			lock.writeLock().unlock();
 		}
+		commitLogRecord(sequence);
 	}
 
 	/**
-	 * 
-	 * @param Patient toRemove
+	 * method to add a new patient to the ArrayList of current patients, and
+	 * appends the insert to the change log. The patient id is the primary key, so a patient
+	 * whose id another patient already has is not added.
+	 * @param Patient newPatient
+	 * @return boolean false if the id is already in use, in which case nothing is changed
 	 */
-	public void removePatient(Patient toRemove) {
-		currentPatients.remove(toRemove);
+	public boolean appendPatientToDB(Patient newPatient) {
+		long sequence;
+		lock.writeLock().lock();
+		try {
+			if (idInUse(newPatient.getPatientID(), -1)) {
+				return false;
+			}
+			PatientTable table = currentPatients.edit();
+			addRow(table, newPatient);
+			currentPatients = table.publish();
+			logWriter.reset();
+			logWriter.write(newPatient);
+			sequence = writeLogRecord(WriteAheadLog.INSERT, logWriter);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		commitLogRecord(sequence);
+		return true;
 	}
 
 	/**
-	 * method to add a new patient to the ArrayList of current patients, and
-	 * appends this to the db.txt
-	 * @param Patient newPatient
+	 * replaces a patient with an edited copy of it, and logs the change. The original must not
+	 * have been changed, as its fields are what the indexes need to remove. Its id is logged as
+	 * well, so that replaying the log can find the record even if the id itself was edited.
+	 *
+	 * The edit only goes in if the original is still the current record. If another edit or a
+	 * removal got there first, nothing is changed, and the caller can read the patient again and
+	 * redo its edit, rather than one of the two edits being lost without trace. Nor does an
+	 * edit go in which gives the patient the id of another.
+	 * @param Patient original
+	 * @param Patient edited
+	 * @return boolean false if the original had already been replaced or removed, or the
+	 *         edited id is in use by another patient
 	 */
-	public void appendPatientToDB(Patient newPatient) {
-		currentPatients.add(newPatient);
-		BufferedWriter bw = null;
+	public boolean updatePatient(Patient original, Patient edited) {
+		long sequence;
+		String originalId = original.getPatientID();
+		lock.writeLock().lock();
 		try {
-			bw = new BufferedWriter(new FileWriter("db.txt", true));
-			bw.write(newPatient.toString());
-			bw.flush();
-		} catch (IOException ioe) {
-			log.log(Level.SEVERE, "unable to append patient to file", ioe.getMessage());
+			PatientTable table = currentPatients.edit();
+			int ordinal = ordinalOf(table, original);
+			if (ordinal < 0 || idInUse(edited.getPatientID(), ordinal)) {
+				return false;
+			}
+			replaceRow(table, ordinal, edited);
+			currentPatients = table.publish();
+			logWriter.reset();
+			logWriter.field(originalId);
+			logWriter.write(edited);
+			sequence = writeLogRecord(WriteAheadLog.UPDATE, logWriter);
 		} finally {
+			lock.writeLock().unlock();
+		}
+		commitLogRecord(sequence);
+		return true;
+	}
+
+	/**
+	 * writes a change to the log, in the order it was made in memory. Must be called while
+	 * holding the write lock.
+	 * @param byte operation
+	 * @param RecordWriter payload
+	 * @return long the log sequence number, or -1 if the write failed
+	 */
+	private long writeLogRecord(byte operation, RecordWriter payload) {
+		return writeLogRecord(operation, payload, false);
+	}
+
+	/**
+	 * as writeLogRecord(byte, RecordWriter), optionally leaving the record to be written out
+	 * with others by the commit, for changes made in bulk
+	 * @param byte operation
+	 * @param RecordWriter payload
+	 * @param boolean deferred
+	 * @return long the log sequence number, or -1 if the write failed
+	 */
+	private long writeLogRecord(byte operation, RecordWriter payload, boolean deferred) {
+		if (changeLog == null) {
+			log.log(Level.SEVERE, "no change log open, change will be lost on exit unless saved");
+			return -1;
+		}
+		try {
+			return deferred ? changeLog.writeDeferred(operation, payload.array(), 0, payload.length())
+					: changeLog.write(operation, payload.array(), 0, payload.length());
+		} catch (IOException ioe) {
+			log.log(Level.SEVERE, "unable to write change to log", ioe.getMessage());
+		}
+		return -1;
+	}
+
+	/**
+	 * waits for a logged change to reach the disk. Called after releasing the write lock so
+	 * that concurrent changes can share one fsync.
+	 * @param long sequence
+	 */
+	private void commitLogRecord(long sequence) {
+		if (sequence < 0) {
+			return;
+		}
+		try {
+			changeLog.commit(sequence);
+		} catch (IOException ioe) {
+			log.log(Level.SEVERE, "unable to commit change to log", ioe.getMessage());
+		}
+	}
+
+	/**
+	 * applies one record read back from the change log. Replaying is idempotent, since a crash
+	 * between saving the snapshot and emptying the log means it may already contain the change.
+	 * @param PatientTable table the version being replayed into
+	 * @param byte operation
+	 * @param String payload
+	 */
+	private void applyLogRecord(PatientTable table, byte operation, String payload) {
+		try {
+			switch (operation) {
+			case WriteAheadLog.INSERT:
+				Patient inserted = parseRecord(payload);
+				replaceOrAdd(table, inserted.getPatientID(), inserted);
+				break;
+			case WriteAheadLog.UPDATE:
+				int split = payload.indexOf(DELIM);
+				replaceOrAdd(table, payload.substring(0, split), parseRecord(payload.substring(split + 1)));
+				break;
+			case WriteAheadLog.DELETE:
+				int ordinal = ordinalOfId(payload);
+				if (ordinal >= 0) {
+					removeRow(table, ordinal);
+				}
+				break;
+			default:
+				log.log(Level.WARNING, "unknown log operation " + operation);
+			}
+		} catch (IOException ioe) {
+			log.log(Level.SEVERE, "unable to parse log record", ioe.getMessage());
+		}
+	}
+
+	/*
+	 * puts a logged record in the row of the id it was logged under. The snapshot may already
+	 * hold the change, so the row may be under the record's own id instead (an update that
+	 * changed the id), or under both, when an earlier insert of the old id was replayed first;
+	 * the row of the new id is then dropped so each id ends up in one row. Only a record whose
+	 * ids are both missing is added.
+	 */
+	private void replaceOrAdd(PatientTable table, String id, Patient p) {
+		int ordinal = ordinalOfId(id);
+		int current = id.equals(p.getPatientID()) ? ordinal : ordinalOfId(p.getPatientID());
+		if (ordinal < 0) {
+			ordinal = current;
+		} else if (current >= 0 && current != ordinal) {
+			removeRow(table, current);
+		}
+		if (ordinal >= 0) {
+			replaceRow(table, ordinal, p);
+		} else {
+			addRow(table, p);
+		}
+	}
+
+	/*
+	 * every change to the table of current patients goes through addRow(), replaceRow() and
+	 * removeRow(), which make it on an edit of the latest version and keep the indexes in step
+	 * with it. Callers hold the write lock, and publish the edit once they are done.
+	 */
+
+	private int addRow(PatientTable table, Patient p) {
+		int ordinal = table.add(p);
+		indexRow(ordinal, p.getPatientID());
+		indexText(table, ordinal, true);
+		return ordinal;
+	}
+
+	private void replaceRow(PatientTable table, int ordinal, Patient p) {
+		unindexRow(ordinal, table.field(ordinal, Patient.PATIENT_ID));
+		Patient before = table.get(ordinal);
+		table.set(ordinal, p);
+		indexRow(ordinal, p.getPatientID());
+		reindexText(table, ordinal, before);
+	}
+
+	private void removeRow(PatientTable table, int ordinal) {
+		unindexRow(ordinal, table.field(ordinal, Patient.PATIENT_ID));
+		indexText(table, ordinal, false);
+		table.remove(ordinal);
+	}
+
+	/* adds a row to, or removes it from, whichever of the secondary indexes have been built */
+	private void indexText(PatientTable table, int ordinal, boolean add) {
+		if (appointmentIndex != null) {
+			APPOINTMENTS.update(appointmentIndex, table, ordinal, add);
+		}
+		for (int field = 0; field < fieldIndexes.length(); field++) {
+			FieldIndex index = fieldIndexes.get(field);
+			if (index != null) {
+				fieldIndexer(field).update(index, table, ordinal, add);
+			}
+		}
+		if (trigramIndex != null) {
+			TRIGRAMS.update(trigramIndex, table, ordinal, add);
+		}
+	}
+
+	/*
+	 * moves an edited row within whichever of the secondary indexes have been built, touching
+	 * only the keys of the values the edit changed
+	 */
+	private void reindexText(PatientTable table, int ordinal, Patient before) {
+		if (appointmentIndex != null) {
+			String from = before.getField(Patient.NEXT_APPOINTMENT);
+			String to = table.field(ordinal, Patient.NEXT_APPOINTMENT);
+			if (!from.equals(to)) {
+				appointmentIndex.remove(ordinal, from);
+				appointmentIndex.add(ordinal, to);
+			}
+		}
+		for (int field = 0; field < fieldIndexes.length(); field++) {
+			FieldIndex index = fieldIndexes.get(field);
+			if (index != null) {
+				String from = before.getField(field).toLowerCase();
+				String to = fieldValue(table, ordinal, field);
+				if (!from.equals(to)) {
+					index.remove(ordinal, from);
+					index.add(ordinal, to);
+				}
+			}
+		}
+		if (trigramIndex != null) {
+			trigramIndex.replace(ordinal, searchText(before::getField), searchText(table, ordinal));
+		}
+	}
+
+	private void indexRow(int ordinal, String id) {
+		primaryKey.put(id, ordinal);
+	}
+
+	private void unindexRow(int ordinal, String id) {
+		primaryKey.remove(id, ordinal);
+	}
+
+	private static final Indexer<TrigramIndex> TRIGRAMS = (index, table, ordinal, add) -> {
+		if (add) {
+			index.add(ordinal, searchText(table, ordinal));
+		} else {
+			index.remove(ordinal, searchText(table, ordinal));
+		}
+	};
+
+	private static final Indexer<AppointmentIndex> APPOINTMENTS = (index, table, ordinal, add) -> {
+		if (add) {
+			index.add(ordinal, table.field(ordinal, Patient.NEXT_APPOINTMENT));
+		} else {
+			index.remove(ordinal, table.field(ordinal, Patient.NEXT_APPOINTMENT));
+		}
+	};
+
+	private static Indexer<FieldIndex> fieldIndexer(final int field) {
+		return (index, table, ordinal, add) -> {
+			if (add) {
+				index.add(ordinal, fieldValue(table, ordinal, field));
+			} else {
+				index.remove(ordinal, fieldValue(table, ordinal, field));
+			}
+		};
+	}
+
+	/**
+	 * builds an index over every live patient of the current version without holding the
+	 * lock, so that neither searches nor changes wait while it is built. Then, under the write
+	 * lock, it catches the index up with the rows changed since, and publishes it. Runs on the
+	 * index builder, one build at a time.
+	 * @param Supplier factory makes an empty index
+	 * @param Indexer indexer
+	 * @param Consumer publish stores the finished index
+	 */
+	private static <T> void build(Supplier<T> factory, Indexer<T> indexer, Consumer<T> publish) {
+		while (true) {
+			T index = factory.get();
+			PatientTable from = currentPatients;
+			for (int ordinal = 0; ordinal < from.size(); ordinal++) {
+				if (from.isLive(ordinal)) {
+					indexer.update(index, from, ordinal, true);
+				}
+			}
+			lock.writeLock().lock();
 			try {
-				if (bw != null) {
-					bw.close();
+				PatientTable to = currentPatients;
+				int[] changed = to.changedSince(from);
+				/* null if the database was opened again meanwhile, so start over */
+				if (changed != null) {
+					for (int ordinal : changed) {
+						if (from.isLive(ordinal)) {
+							indexer.update(index, from, ordinal, false);
+						}
+						if (to.isLive(ordinal)) {
+							indexer.update(index, to, ordinal, true);
+						}
+					}
+					publish.accept(index);
+					return;
 				}
-			} catch (IOException ioe) {
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * waits for an index, starting its build on the index builder if nobody has yet. The build
+	 * belongs to no query: a query cancelled while it waits stops waiting and returns, and the
+	 * build goes on, so a search typed one key at a time does not start it again on every key.
+	 * None of the indexes may be asked for while holding the read lock, as a build ends by
+	 * taking the write lock.
+	 * @param String name of the index, which names its build
+	 * @param Supplier published the index if it has been built, else null
+	 * @param Supplier factory
+	 * @param Indexer indexer
+	 * @param Consumer publish
+	 * @param BooleanSupplier cancelled true once the index is no longer wanted
+	 * @return T the index, or null if cancelled before it was built
+	 */
+	private static <T> T index(final String name, Supplier<T> published, final Supplier<T> factory,
+			final Indexer<T> indexer, final Consumer<T> publish, BooleanSupplier cancelled) {
+		T index = published.get();
+		if (index != null) {
+			return index;
+		}
+		Future<?> build;
+		synchronized (indexLock) {
+			index = published.get();
+			if (index != null) {
+				return index;
+			}
+			build = builds.get(name);
+			if (build == null) {
+				build = indexBuilder.submit(() -> {
+					try {
+						build(factory, indexer, publish);
+					} finally {
+						synchronized (indexLock) {
+							builds.remove(name);
+						}
+					}
+				});
+				builds.put(name, build);
+			}
+		}
+		while (!cancelled.getAsBoolean()) {
+			try {
+				build.get(BUILD_POLL_MS, TimeUnit.MILLISECONDS);
+				return published.get();
+			} catch (TimeoutException waiting) {
+				/* check the query still wants it */
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return null;
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException("unable to build the " + name + " index", ee.getCause());
+			}
+		}
+		return null;
+	}
+
+	private TrigramIndex trigramIndex() {
+		return trigramIndex(NEVER);
+	}
+
+	/* null if cancelled before the index was built */
+	private TrigramIndex trigramIndex(BooleanSupplier cancelled) {
+		return index("trigram", () -> trigramIndex, TrigramIndex::new, TRIGRAMS, built -> trigramIndex = built,
+				cancelled);
+	}
+
+	/* null if cancelled before the index was built */
+	private FieldIndex fieldIndex(final int field, BooleanSupplier cancelled) {
+		return index("field " + field, () -> fieldIndexes.get(field), FieldIndex::new, fieldIndexer(field),
+				built -> fieldIndexes.set(field, built), cancelled);
+	}
+
+	private AppointmentIndex appointmentIndex() {
+		return index("appointment", () -> appointmentIndex, AppointmentIndex::new, APPOINTMENTS,
+				built -> appointmentIndex = built, NEVER);
+	}
+
+	private static String fieldValue(PatientTable table, int ordinal, int field) {
+		return table.field(ordinal, field).toLowerCase();
+	}
+
+	/**
+	 * the text a substring search is matched against: the searchable fields of a patient,
+	 * separated as in db.txt and lower cased
+	 * @param PatientTable table
+	 * @param int ordinal
+	 * @return String
+	 */
+	private static String searchText(PatientTable table, int ordinal) {
+		return searchText(field -> table.field(ordinal, field));
+	}
+
+	private static String searchText(PatientQuery.Fields patient) {
+		StringBuilder text = new StringBuilder();
+		for (int field : Patient.SEARCHABLE_FIELDS) {
+			if (text.length() > 0) {
+				text.append(DELIM);
 			}
+			text.append(patient.get(field));
 		}
+		return text.toString().toLowerCase();
 	}
 
-	/** search method for the database. It searches the ArrayList, rather than the db.txt file
-	 * itself
+	/**
+	 * @param String id
+	 * @return int the ordinal of the patient with this id, or -1
+	 */
+	private int ordinalOfId(String id) {
+		return primaryKey.get(id);
+	}
+
+	/**
+	 * @param String id
+	 * @param int ordinal the row the id is for, or -1 for a new row
+	 * @return boolean true if another row has the id. A patient with no id has no key, so it
+	 *         never clashes.
+	 */
+	private boolean idInUse(String id, int ordinal) {
+		int holder = ordinalOfId(id);
+		return holder >= 0 && holder != ordinal;
+	}
+
+	/**
+	 * finds the row of a patient object, by its id if the index points at it, otherwise by
+	 * looking for the object itself
+	 * @param PatientTable table
+	 * @param Patient p
+	 * @return int the ordinal, or -1
+	 */
+	private int ordinalOf(PatientTable table, Patient p) {
+		int ordinal = ordinalOfId(p.getPatientID());
+		if (ordinal >= 0 && table.get(ordinal) == p) {
+			return ordinal;
+		}
+		return table.indexOf(p);
+	}
+
+	private Patient parseRecord(String record) throws IOException {
+		Patient patient = replayBuilder.build(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)));
+		if (patient == null) {
+			throw new IOException("empty log record");
+		}
+		return patient;
+	}
+
+	/** search method for the database. A patient matches if the search text appears anywhere
+	 * in its searchable fields, ignoring case, so "thromb" finds thrombosis and part of a
+	 * postcode finds the address. The trigram index narrows the patients down to those holding
+	 * every three letter sequence of the search text, and only those are checked in full. An
+	 * empty search returns every patient.
 	 * @param String searchTxt
 	 * @return ArrayList
 	 */
 	public ArrayList<Patient> searchPatients(String searchTxt) {
 		ArrayList<Patient> resultList = new ArrayList<Patient>();
-		for (int i = 0; i < currentPatients.size(); i++) {
-			if (currentPatients.get(i).toString().toLowerCase().contains(searchTxt.toLowerCase())) {
-				resultList.add(currentPatients.get(i));
+		String query = searchTxt.toLowerCase();
+		TrigramIndex index = trigramIndex();
+		PatientTable table;
+		int[] candidates;
+		lock.readLock().lock();
+		try {
+			table = currentPatients;
+			candidates = index.candidates(query);
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (candidates == null) {
+			for (int ordinal = 0; ordinal < table.size(); ordinal++) {
+				if (table.isLive(ordinal) && searchText(table, ordinal).contains(query)) {
+					resultList.add(table.get(ordinal));
+				}
+			}
+		} else {
+			for (int ordinal : candidates) {
+				if (searchText(table, ordinal).contains(query)) {
+					resultList.add(table.get(ordinal));
+				}
 			}
 		}
 		return resultList;
 	}
 
+	/** runs a fielded query, as parsed from the search box or built with PatientQuery. Each
+	 * term is costed by the index that can answer it: the field index gives the exact number of
+	 * patients with a value or prefix, and the trigram index bounds the patients containing a
+	 * substring. The cheapest term is looked up first; every other term is intersected through
+	 * its own index while its matches are not many more than the candidates left, and the
+	 * remaining terms are checked against the candidates one by one. A substring term narrows
+	 * the candidates by its trigrams, and is checked against them as well. An empty query
+	 * returns every patient.
+	 * @param PatientQuery query
+	 * @return ArrayList
+	 */
+	public ArrayList<Patient> query(PatientQuery query) {
+		final ArrayList<Patient> resultList = new ArrayList<Patient>();
+		query(query, patient -> resultList.add(patient));
+		return resultList;
+	}
+
+	/**
+	 * runs a query as query(PatientQuery) does, handing each match to the sink as soon as it is
+	 * found, so a search can show its first results early and be abandoned part way through.
+	 * Every match comes from the version of the registry current when the query started.
+	 * @param PatientQuery query
+	 * @param ResultSink sink
+	 */
+	public void query(PatientQuery query, ResultSink sink) {
+		final Plan plan = plan(query, NEVER);
+		run(plan, ordinal -> sink.accept(plan.table.get(ordinal)), NEVER);
+	}
+
+	/**
+	 * runs a query into a ranked result of patient ordinals, which keeps no Patient or String
+	 * per match. The fields of a match are only read when it is asked for.
+	 * @param PatientQuery query
+	 * @return SearchResult every match
+	 */
+	public SearchResult search(PatientQuery query) {
+		SearchResult result = newSearch(query);
+		search(result);
+		return result;
+	}
+
+	/**
+	 * one page of the ranked matches of a query. A query with no terms on any field ranks every
+	 * match the same, so the search stops once it has found the page; otherwise every match has
+	 * to be scored, but only the best offset + limit of them are kept while it runs, and only
+	 * the page is built.
+	 * @param PatientQuery query
+	 * @param int offset the rank of the first patient wanted
+	 * @param int limit the most patients wanted, so offset 0 gives the top limit matches
+	 * @return List
+	 */
+	public List<Patient> search(PatientQuery query, int offset, int limit) {
+		int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+		SearchResult result = new SearchResult(query, wanted);
+		search(result);
+		return result.page(offset, limit);
+	}
+
+	/**
+	 * fills in a result, which may be read by another thread as it grows. The search stops
+	 * early if the result is cancelled.
+	 * @param SearchResult result a result made by newSearch()
+	 */
+	public void search(final SearchResult result) {
+		final PatientQuery query = result.getQuery();
+		final Plan plan = plan(query, result::isCancelled);
+		if (plan == null) {
+			return;
+		}
+		result.pin(plan.table);
+		run(plan, ordinal -> result.add(ordinal, query.score(field -> plan.table.field(ordinal, field))),
+				result::isCancelled);
+		if (!result.isCancelled()) {
+			result.markComplete();
+		}
+	}
+
+	/**
+	 * @param PatientQuery query
+	 * @return SearchResult an empty result, for search(SearchResult) to fill in
+	 */
+	public SearchResult newSearch(PatientQuery query) {
+		return new SearchResult(query, Integer.MAX_VALUE);
+	}
+
+	/** receives the ordinals of matching rows, in order */
+	private interface OrdinalSink {
+		boolean accept(int ordinal);
+	}
+
 	/**
-	 * returns a patient object from a known id. Not to be called directly
+	 * a query planned against one version of the registry: the candidates its indexes gave,
+	 * and the terms the candidates have still to be checked against
+	 */
+	private static final class Plan {
+		final PatientTable table;
+		/* null to check every row */
+		final int[] candidates;
+		final List<PatientQuery.Term> residual;
+
+		Plan(PatientTable table, int[] candidates, List<PatientQuery.Term> residual) {
+			this.table = table;
+			this.candidates = candidates;
+			this.residual = residual;
+		}
+	}
+
+	/*
+	 * the query planner shared by query() and search(). The indexes the terms need are built
+	 * first, then the terms are costed and looked up, and the version pinned, under the read
+	 * lock, so the candidates are those of the pinned version. Returns null if the search is
+	 * cancelled while it waits for an index to be built.
+	 */
+	private Plan plan(PatientQuery query, BooleanSupplier cancelled) {
+		final List<PatientQuery.Term> terms = query.getTerms();
+		TrigramIndex trigrams = null;
+		FieldIndex[] fields = new FieldIndex[Patient.FIELD_COUNT];
+		for (PatientQuery.Term term : terms) {
+			if (term.match == PatientQuery.Match.CONTAINS) {
+				trigrams = trigramIndex(cancelled);
+				if (trigrams == null) {
+					return null;
+				}
+			} else {
+				fields[term.field.index] = fieldIndex(term.field.index, cancelled);
+				if (fields[term.field.index] == null) {
+					return null;
+				}
+			}
+		}
+		lock.readLock().lock();
+		try {
+			PatientTable table = currentPatients;
+			int liveCount = table.liveCount();
+			final int[] estimates = new int[terms.size()];
+			Integer[] order = new Integer[terms.size()];
+			for (int i = 0; i < order.length; i++) {
+				estimates[i] = estimate(terms.get(i), liveCount, trigrams, fields);
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Integer.compare(estimates[a], estimates[b]));
+
+			int[] candidates = null;
+			List<PatientQuery.Term> residual = new ArrayList<PatientQuery.Term>();
+			for (int i : order) {
+				PatientQuery.Term term = terms.get(i);
+				boolean exact = term.field != null && term.match != PatientQuery.Match.CONTAINS;
+				if (candidates == null && estimates[i] < liveCount) {
+					candidates = lookup(term, trigrams, fields);
+					if (!exact) {
+						/* the trigram candidates still have to be checked */
+						residual.add(term);
+					}
+				} else if (candidates != null && estimates[i] < liveCount
+						&& estimates[i] <= (long) candidates.length * INTERSECT_RATIO) {
+					candidates = PostingList.intersect(candidates, lookup(term, trigrams, fields));
+					if (!exact) {
+						residual.add(term);
+					}
+				} else {
+					residual.add(term);
+				}
+			}
+			return new Plan(table, candidates, residual);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * checks the candidates of a plan against its pinned version, without any lock. The scan
+	 * stops as soon as the search is cancelled, not only at its next match, since a search
+	 * which matches few rows may otherwise read the whole registry after it was abandoned.
+	 */
+	private void run(Plan plan, OrdinalSink sink, BooleanSupplier cancelled) {
+		PatientTable table = plan.table;
+		if (plan.candidates == null) {
+			for (int ordinal = 0; ordinal < table.size(); ordinal++) {
+				if (cancelled.getAsBoolean()) {
+					return;
+				}
+				if (table.isLive(ordinal) && matchesAll(table, plan.residual, ordinal) && !sink.accept(ordinal)) {
+					return;
+				}
+			}
+		} else {
+			for (int ordinal : plan.candidates) {
+				if (cancelled.getAsBoolean()) {
+					return;
+				}
+				if (matchesAll(table, plan.residual, ordinal) && !sink.accept(ordinal)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param PatientQuery.Term term
+	 * @param int liveCount
+	 * @param TrigramIndex trigrams
+	 * @param FieldIndex[] fields the index of each field named by the query
+	 * @return int the number of patients the index for the term would return, or liveCount if
+	 *         no index can narrow it down
+	 */
+	private int estimate(PatientQuery.Term term, int liveCount, TrigramIndex trigrams, FieldIndex[] fields) {
+		switch (term.match) {
+		case EQUALS:
+			return fields[term.field.index].count(term.value);
+		case PREFIX:
+			return fields[term.field.index].countPrefix(term.value);
+		default:
+			int estimate = trigrams.estimate(term.value);
+			return estimate < 0 ? liveCount : estimate;
+		}
+	}
+
+	/**
+	 * @param PatientQuery.Term term
+	 * @param TrigramIndex trigrams
+	 * @param FieldIndex[] fields the index of each field named by the query
+	 * @return int[] the ordinals the index for the term holds, in order. For a substring term
+	 *         these are candidates only.
+	 */
+	private int[] lookup(PatientQuery.Term term, TrigramIndex trigrams, FieldIndex[] fields) {
+		switch (term.match) {
+		case EQUALS:
+			return fields[term.field.index].lookup(term.value);
+		case PREFIX:
+			return fields[term.field.index].lookupPrefix(term.value);
+		default:
+			return trigrams.candidates(term.value);
+		}
+	}
+
+	private boolean matchesAll(PatientTable table, List<PatientQuery.Term> terms, int ordinal) {
+		for (PatientQuery.Term term : terms) {
+			String value = term.field == null ? searchText(table, ordinal) : fieldValue(table, ordinal, term.field.index);
+			if (!term.matches(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * the patients with their next appointment between two dates, through the appointment
+	 * index, so the cost follows the number of appointments found rather than the size of the
+	 * registry
+	 * @param LocalDate from the first day, included
+	 * @param LocalDate to the last day, included
+	 * @return List the patients in order of appointment
+	 */
+	public List<Patient> appointmentsBetween(LocalDate from, LocalDate to) {
+		return appointments(from.toEpochDay(), to.toEpochDay(), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * the first appointments on or after a date
+	 * @param LocalDate from the first day, included
+	 * @param int count the most appointments wanted
+	 * @return List the patients in order of appointment
+	 */
+	public List<Patient> nextAppointments(LocalDate from, final int count) {
+		if (count <= 0) {
+			return new ArrayList<Patient>();
+		}
+		return appointments(from.toEpochDay(), Long.MAX_VALUE, count);
+	}
+
+	/* the ordinals are collected under the read lock, and the patients built after it */
+	private List<Patient> appointments(long from, long to, final int count) {
+		AppointmentIndex index = appointmentIndex();
+		final List<Integer> ordinals = new ArrayList<Integer>();
+		PatientTable table;
+		lock.readLock().lock();
+		try {
+			table = currentPatients;
+			index.visit(from, to, (day, ordinal) -> {
+				ordinals.add(ordinal);
+				return ordinals.size() < count;
+			});
+		} finally {
+			lock.readLock().unlock();
+		}
+		List<Patient> appointments = new ArrayList<Patient>(ordinals.size());
+		for (int ordinal : ordinals) {
+			appointments.add(table.get(ordinal));
+		}
+		return appointments;
+	}
+
+	/**
+	 * returns a patient object from its exact id, through the primary key index
 	 * @param String id
-	 * @return Patient
+	 * @return Patient, or null if no patient has this id
 	 */
 	public Patient returnPatientFromId(String id) {
-		for (int i = 0; i < currentPatients.size(); i++) {
-			if (currentPatients.get(i).toString().contains(id)) {
-				return currentPatients.get(i);
-			}
+		int ordinal;
+		PatientTable table;
+		lock.readLock().lock();
+		try {
+			ordinal = ordinalOfId(id);
+			table = currentPatients;
+		} finally {
+			lock.readLock().unlock();
 		}
-		/* this method is only called if the previous search function has proved
-		 * the existence of the search string in question
-		 */
-		return null;
+		return table.get(ordinal);
 	}
 }
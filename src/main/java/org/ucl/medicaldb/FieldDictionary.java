@@ -0,0 +1,25 @@
+package org.ucl.medicaldb;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * one shared copy of each value of a field that repeats across patients, such as a condition
+ * or the directory of a photo. Patients are built on several threads while a file loads, so the
+ * dictionary is a concurrent map.
+ */
+final class FieldDictionary {
+	private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param String value
+	 * @return String the shared copy of the value
+	 */
+	String intern(String value) {
+		String shared = values.putIfAbsent(value, value);
+		return shared == null ? value : shared;
+	}
+
+	int size() {
+		return values.size();
+	}
+}
@@ -0,0 +1,88 @@
+package org.ucl.medicaldb;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeMap;
+
+/**
+ * index of one patient field, from its lower cased value to the ordinals of the patients
+ * holding it. The values are kept sorted, so a prefix is the range of keys from the prefix up
+ * to the prefix followed by the highest char.
+ */
+class FieldIndex {
+	private final TreeMap<String, PostingList> postings = new TreeMap<String, PostingList>();
+
+	/**
+	 * @param int ordinal
+	 * @param String value the lower cased field value
+	 */
+	void add(int ordinal, String value) {
+		PostingList list = postings.get(value);
+		if (list == null) {
+			list = new PostingList();
+			postings.put(value, list);
+		}
+		list.add(ordinal);
+	}
+
+	void remove(int ordinal, String value) {
+		PostingList list = postings.get(value);
+		if (list != null && list.remove(ordinal) && list.size() == 0) {
+			postings.remove(value);
+		}
+	}
+
+	/**
+	 * @param String value
+	 * @return int the number of patients with exactly this value
+	 */
+	int count(String value) {
+		PostingList list = postings.get(value);
+		return list == null ? 0 : list.size();
+	}
+
+	/**
+	 * @param String prefix
+	 * @return int the number of patients with a value starting with the prefix
+	 */
+	int countPrefix(String prefix) {
+		int count = 0;
+		for (PostingList list : withPrefix(prefix)) {
+			count += list.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @param String value
+	 * @return int[] the ordinals of the patients with exactly this value, in order
+	 */
+	int[] lookup(String value) {
+		PostingList list = postings.get(value);
+		return list == null ? new int[0] : list.toArray();
+	}
+
+	/**
+	 * @param String prefix
+	 * @return int[] the ordinals of the patients with a value starting with the prefix, in order
+	 */
+	int[] lookupPrefix(String prefix) {
+		Collection<PostingList> lists = withPrefix(prefix);
+		int count = 0;
+		for (PostingList list : lists) {
+			count += list.size();
+		}
+		int[] ordinals = new int[count];
+		int at = 0;
+		for (PostingList list : lists) {
+			at = list.copyInto(ordinals, at);
+		}
+		/* every patient has one value per field, so the lists share no ordinals */
+		Arrays.sort(ordinals);
+		return ordinals;
+	}
+
+	private Collection<PostingList> withPrefix(String prefix) {
+		return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+	}
+}
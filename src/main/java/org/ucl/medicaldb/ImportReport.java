@@ -0,0 +1,200 @@
+package org.ucl.medicaldb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * what a bulk import did: how many rows were added, replaced, skipped or already present, each
+ * row whose patient id was already in the registry with different values (a conflict), each
+ * row that could not be read at all, and each row read with fields the validators rejected.
+ * Filled in by Database.importFile(), and read only once it is returned.
+ */
+public class ImportReport {
+	/** what became of a row whose id was already in the registry */
+	public enum Outcome {
+		/** the row replaced the patient in the registry */
+		REPLACED,
+		/** the patient in the registry was kept */
+		SKIPPED
+	}
+
+	/** a row whose id was already in the registry with different values */
+	public static final class Conflict {
+		public final int line;
+		public final String patientId;
+		public final Outcome outcome;
+		public final String reason;
+
+		Conflict(int line, String patientId, Outcome outcome, String reason) {
+			this.line = line;
+			this.patientId = patientId;
+			this.outcome = outcome;
+			this.reason = reason;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ": " + patientId + " " + outcome.name().toLowerCase() + ", " + reason;
+		}
+	}
+
+	/** a row that could not be imported, or was imported with fields left blank */
+	public static final class RowError {
+		public final int line;
+		public final String message;
+
+		RowError(int line, String message) {
+			this.line = line;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ": " + message;
+		}
+	}
+
+	private final String source;
+	private final Database.MergePolicy policy;
+	private final List<Conflict> conflicts = new ArrayList<Conflict>();
+	private final List<RowError> errors = new ArrayList<RowError>();
+	private final List<RowError> invalid = new ArrayList<RowError>();
+	private int added;
+	private int replaced;
+	private int skipped;
+	private int unchanged;
+
+	ImportReport(String source, Database.MergePolicy policy) {
+		this.source = source;
+		this.policy = policy;
+	}
+
+	void added() {
+		added++;
+	}
+
+	void unchanged() {
+		unchanged++;
+	}
+
+	void conflict(int line, String patientId, Outcome outcome, String reason) {
+		if (outcome == Outcome.REPLACED) {
+			replaced++;
+		} else {
+			skipped++;
+		}
+		conflicts.add(new Conflict(line, patientId, outcome, reason));
+	}
+
+	void error(int line, String message) {
+		errors.add(new RowError(line, message));
+	}
+
+	void invalid(int line, ValidationResult validation) {
+		invalid.add(new RowError(line, validation.toString()));
+	}
+
+	/** @return String the file imported */
+	public String getSource() {
+		return source;
+	}
+
+	public Database.MergePolicy getPolicy() {
+		return policy;
+	}
+
+	/** @return int the rows whose id was new to the registry */
+	public int getAdded() {
+		return added;
+	}
+
+	/** @return int the conflicting rows that replaced the patient in the registry */
+	public int getReplaced() {
+		return replaced;
+	}
+
+	/** @return int the conflicting rows that were left out */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/** @return int the rows identical to the patient already in the registry */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/** @return List the conflicts in file order */
+	public List<Conflict> getConflicts() {
+		return Collections.unmodifiableList(conflicts);
+	}
+
+	/** @return List the rows that could not be imported, in file order */
+	public List<RowError> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return List the rows imported with fields the validators rejected, which were left
+	 *         blank, in file order
+	 */
+	public List<RowError> getInvalid() {
+		return Collections.unmodifiableList(invalid);
+	}
+
+	/** @return String the counts, on one line */
+	public String summary() {
+		return added + " added, " + replaced + " replaced, " + skipped + " skipped, " + unchanged + " unchanged, "
+				+ errors.size() + " rejected, " + invalid.size() + " with invalid fields";
+	}
+
+	/**
+	 * writes every conflict, error and invalid row, one per line in the '|' separated record
+	 * format of db.txt: the kind ("conflict", "error" or "invalid"), the line of the source, the
+	 * patient id, the outcome and the reason
+	 * @param File file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		RecordWriter writer = new RecordWriter(true);
+		for (Conflict conflict : conflicts) {
+			writer.field("conflict");
+			writer.field(String.valueOf(conflict.line));
+			writer.field(conflict.patientId);
+			writer.field(conflict.outcome.name().toLowerCase());
+			writer.field(conflict.reason);
+			writer.endRecord();
+		}
+		for (RowError error : errors) {
+			writer.field("error");
+			writer.field(String.valueOf(error.line));
+			writer.field("");
+			writer.field("rejected");
+			writer.field(error.message);
+			writer.endRecord();
+		}
+		for (RowError row : invalid) {
+			writer.field("invalid");
+			writer.field(String.valueOf(row.line));
+			writer.field("");
+			writer.field("blanked");
+			writer.field(row.message);
+			writer.endRecord();
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(writer.array(), 0, writer.length());
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ImportReport[" + source + ", " + policy + ": " + summary() + "]";
+	}
+}
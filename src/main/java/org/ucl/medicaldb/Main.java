@@ -4,15 +4,20 @@ import java.awt.EventQueue;
 import java.awt.Font;
 import javax.swing.UIManager;
 import org.ucl.gui.GUI;
+import org.ucl.gui.StartupProgress;
 
 /**
- * contains the main method for the medical register. Instantiates the database and the gui.
+ * contains the main method for the medical register. Shows the gui straight away and opens the
+ * database on a thread of its own, so the login screen can be used while the data loads.
  * @author David Kelly
  * @version 1.0
  *
  */
 public class Main {
-	public static Database medDB;
+	/* set by the loader thread, and read on the event thread once GUI.databaseReady() is called */
+	public static volatile Database medDB;
+	public static final PhotoStore photoStore = new PhotoStore();
+	public static final PhotoIndexer photoIndexer = new PhotoIndexer(photoStore);
 
 	public static void main(String[] args) {
 		try {
@@ -25,18 +30,43 @@ public class Main {
 		EventQueue.invokeLater(new Runnable() {
 			public void run() {
 				try {
-					/**
-					 * we need to initialize the database before the GUI in
-					 * order to have to data already available. Otherwise the
-					 * GUI cannot fill in its fields
-					 */
-					medDB = new Database();
 					GUI gui = new GUI();
 					gui.createAndShowGUI();
+					openDatabase();
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
 			}
 		});
 	}
+
+	/**
+	 * opens the database on a thread of its own, reporting to the login screen as it goes. The
+	 * main screen is opened once the table and its primary key are loaded; the search indexes
+	 * are built later, on the first search that needs them.
+	 */
+	private static void openDatabase() {
+		final StartupProgress progress = GUI.startupProgress();
+		Thread loader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					medDB = new Database(progress);
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							GUI.databaseReady();
+						}
+					});
+				} catch (final RuntimeException e) {
+					e.printStackTrace();
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							GUI.databaseFailed(String.valueOf(e.getMessage()));
+						}
+					});
+				}
+			}
+		}, "database-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
 }
@@ -13,35 +13,89 @@ public class Patient {
 	 */
 	private String firstName = "";
 	private String lastName = "";
-	private String title = "";
-	private String sex = "";
+	/* an index into TITLES and SEXES */
+	private byte title;
+	private byte sex;
 	// this seems strange, but it's the easiest way to load a blank patient in
 	// the DatabaseEditor, as it is expecting to split() a DOB[] on the symbol
 	// "/"
-	private String DOB = " / / ";
+	private int DOB = BLANK_DATE;
 	private String address = "";
+	/* shared through the conditions dictionary */
 	private String condition = "";
-	private String nextAppointment = "";
+	private int nextAppointment = NO_DATE;
 	private String comments = "";
-	private String patientID = "";
+	/* packed by PatientId */
+	private long patientID;
 	private String uri = "";
-	/* set the placeholder image as a default */
-	private String profilePhoto = "/home/david/Programming/Java/medicaldb/src/main/resources/placeholder.png";
-	private String medPhotos = "";
+	/* photo paths as a shared directory, from the photos dictionary, and a file name */
+	private String profilePhotoDir = PLACEHOLDER_DIR;
+	private String profilePhotoName = PLACEHOLDER_NAME;
+	private String medPhotosDir = "";
+	private String medPhotosName = "";
+	/* the values which do not fit their compact form, by field; null while every value fits */
+	private String[] irregular;
+	/* what the setters have rejected since validation() was last called; null while nothing has */
+	private ValidationResult.Builder problems;
 	private static final int MAX_LEN = 400;
 
-	/* can't cast from char to String, so this is a workaround */
-	private static final String DELIM = Database.DELIM + "";
+	/* set the placeholder image as a default */
+	private static final String PLACEHOLDER_DIR = "/home/david/Programming/Java/medicaldb/src/main/resources/";
+	private static final String PLACEHOLDER_NAME = "placeholder.png";
+	private static final String[] TITLES = { "", "Mr", "Miss", "Mrs", "Ms", "Dr" };
+	private static final String[] SEXES = { "", "Male", "Female" };
+	/* dates are held as epoch days, with these for the two values which are not dates */
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	private static final int BLANK_DATE = Integer.MIN_VALUE + 1;
+	/* the code of a value kept in irregular */
+	private static final int IRREGULAR = Integer.MIN_VALUE + 2;
+	private static final FieldDictionary conditions = new FieldDictionary();
+	private static final FieldDictionary photoDirs = new FieldDictionary();
+
+	/* field order of a db.txt record, also used by the binary snapshot */
+	static final int FIRST_NAME = 0;
+	static final int LAST_NAME = 1;
+	static final int PATIENT_ID = 2;
+	static final int TITLE = 3;
+	static final int SEX = 4;
+	static final int DOB_FIELD = 5;
+	static final int ADDRESS = 6;
+	static final int CONDITION = 7;
+	static final int NEXT_APPOINTMENT = 8;
+	static final int COMMENTS = 9;
+	static final int URI = 10;
+	static final int PROFILE_PHOTO = 11;
+	static final int MED_PHOTOS = 12;
+	static final int FIELD_COUNT = 13;
+	/* the fields a search looks at: all of them, as a search has always looked through the
+	 * whole record, photo locations included */
+	static final int[] SEARCHABLE_FIELDS = { FIRST_NAME, LAST_NAME, PATIENT_ID, TITLE, SEX, DOB_FIELD, ADDRESS,
+			CONDITION, NEXT_APPOINTMENT, COMMENTS, URI, PROFILE_PHOTO, MED_PHOTOS };
+
+	/** a blank patient, ready to be filled in by the DatabaseEditor */
+	public Patient() {
+	}
+
+	/**
+	 * a copy of another patient. Edits are made to a copy, so the database can still see the
+	 * values the original was indexed under when the edited copy replaces it.
+	 * @param Patient other
+	 */
+	public Patient(Patient other) {
+		for (int field = 0; field < FIELD_COUNT; field++) {
+			restoreField(field, other.getField(field));
+		}
+	}
 
 	public void setFirstName(String firstName) {
 		if (checker.completedObligatoryField(firstName)) {
 			if (checker.isValid(firstName, "name")) {
 				this.firstName = firstName.trim();
 			} else {
-				checker.setErrors("<html>Invalid <font color=red>first name</font></html>");
+				problem("<html>Invalid <font color=red>first name</font></html>");
 			}
 		} else {
-			checker.setErrors("<html>Missing <font color=red>first name</font></html>");
+			problem("<html>Missing <font color=red>first name</font></html>");
 		}
 	}
 
@@ -54,10 +108,10 @@ public class Patient {
 			if (checker.isValid(lastName, "name")) {
 				this.lastName = lastName.trim();
 			} else {
-				checker.setErrors("<html>Invalid <font color=red>last name</font></html>");
+				problem("<html>Invalid <font color=red>last name</font></html>");
 			}
 		} else {
-			checker.setErrors("<html>Missing <font color=red>last name</font></html>");
+			problem("<html>Missing <font color=red>last name</font></html>");
 		}
 	}
 
@@ -67,63 +121,68 @@ public class Patient {
 
 	public void setTitle(String title) {
 		if (title.equals("-")) {
-			checker.setErrors("<html>Please choose <font color=red>title</font></html>");
-		} else this.title = title;
+			problem("<html>Please choose <font color=red>title</font></html>");
+		} else store(TITLE, title);
 	}
 
 	public String getTitle() {
-		return title;
+		return load(TITLE);
 	}
 
 	public void setSex(String sex) {
 		if (sex.equals("-")) {
-			checker.setErrors("<html><font color=red>Sex</font> missing</html>");
-		} else if (sex.equals("Female") && this.title.equals("Mr")) {
-			checker.setErrors(
+			problem("<html><font color=red>Sex</font> missing</html>");
+		} else if (sex.equals("Female") && getTitle().equals("Mr")) {
+			problem(
 					"<html><font color=red>Gender mismatch<font></html>");
 		} else
-			this.sex = sex;
+			store(SEX, sex);
 	}
 
 	public String getSex() {
-		return sex;
+		return load(SEX);
 	}
 
 	public void setPatientID(String patientID) {
 		if (checker.completedObligatoryField(patientID)) {
 			if (checker.isValid(patientID)) {
-				this.patientID = patientID;
+				store(PATIENT_ID, patientID);
 			} else {
-				checker.setErrors("<html>Invalid <font color=red>patient id</font></html>");
+				problem("<html>Invalid <font color=red>patient id</font></html>");
 			}
 		} else {
-			checker.setErrors("<html>Missing <font color=red>patient id</font></html>");
+			problem("<html>Missing <font color=red>patient id</font></html>");
 		}
 	}
 
 	public String getPatientID() {
-		return patientID;
+		return load(PATIENT_ID);
 	}
 
 	public void setDOB(String DOB) {
 		if (checker.completedObligatoryField(DOB)) {
-			if (checker.isDateinFuture(DOB)) {
-			    checker.setErrors("<html>Patient <b>cannot</b> be born in the future</html>");
+			long day = PatientDate.toEpochDay(DOB);
+			if (checker.isDateinFuture(day, DOB)) {
+			    problem("<html>Patient <b>cannot</b> be born in the future</html>");
 			} else {
-			    this.DOB = DOB;
+			    storeDay(DOB_FIELD, DOB, day);
 			}
 		} else {
-			checker.setErrors("<html>Missing <font color=red>date of birth</font></html>");
+			problem("<html>Missing <font color=red>date of birth</font></html>");
 		}
 	}
 
 	public String getDOB() {
-		return DOB;
+		return load(DOB_FIELD);
 	}
 
 	public void setAddress(String address) {
-		if (checker.completedObligatoryField(address) && checker.hasValidPostCode(address)) {
-			this.address = address;
+		if (checker.completedObligatoryField(address)) {
+			if (checker.hasValidPostCode(address)) {
+				this.address = address;
+			} else {
+				problem("incorrect postcode");
+			}
 		}
 	}
 
@@ -133,7 +192,7 @@ public class Patient {
 
 	public void setCondition(String condition) {
 		if (checker.completedObligatoryField(condition)) {
-			this.condition = condition;
+			store(CONDITION, condition);
 		}
 	}
 
@@ -146,17 +205,20 @@ public class Patient {
 		 * there might not be a next appointment, so this is not an obligatory
 		 * field
 		 */
-		if (nextAppointment.equals("") && this.nextAppointment.equals("")) {
-			this.nextAppointment = "";
-		} else if (checker.isDateinFuture(nextAppointment)) {
-			this.nextAppointment = nextAppointment;
+		if (nextAppointment.equals("") && this.nextAppointment == NO_DATE) {
+			this.nextAppointment = NO_DATE;
+			return;
+		}
+		long day = PatientDate.toEpochDay(nextAppointment);
+		if (checker.isDateinFuture(day, nextAppointment)) {
+			storeDay(NEXT_APPOINTMENT, nextAppointment, day);
 		} else {
-			checker.setErrors("The next appointment cannot be in the past");
+			problem("The next appointment cannot be in the past");
 		}
 	}
 
 	public String getNextAppointment() {
-		return nextAppointment;
+		return load(NEXT_APPOINTMENT);
 	}
 
 	/**
@@ -178,6 +240,8 @@ public class Patient {
 	public void setURI(String uri) {
 		if (checker.isValidURI(uri)) {
 			this.uri = uri;
+		} else {
+			problem("uri incorrect");
 		}
 	}
 
@@ -186,42 +250,331 @@ public class Patient {
 	}
 
 	public void setProfilePhoto(String profilePhoto) {
-		this.profilePhoto = profilePhoto;
+		store(PROFILE_PHOTO, profilePhoto);
 	}
 
 	public String getProfilePhoto() {
-		return profilePhoto;
+		return load(PROFILE_PHOTO);
 	}
 
 	public void setMedPhotos(String medPhotos) {
-		this.medPhotos = medPhotos;
+		store(MED_PHOTOS, medPhotos);
 	}
 
 	public String getMedPhotos() {
-		return medPhotos;
+		return load(MED_PHOTOS);
 	}
 
 	/**
-	 * returns a CSV string of the patient object. Used for writing to the
-	 * db.txt file.
-	 * 
+	 * the problems the setters have found since this was last called, which it clears. A
+	 * record is validated by calling its setters and then this, on one thread.
+	 * @return ValidationResult
+	 */
+	public ValidationResult validation() {
+		ValidationResult result = problems == null ? ValidationResult.VALID : problems.build();
+		problems = null;
+		return result;
+	}
+
+	private void problem(String message) {
+		if (problems == null) {
+			problems = new ValidationResult.Builder();
+		}
+		problems.add(message);
+	}
+
+	/**
+	 * returns a field by its position in the db.txt record
+	 * @param int field
 	 * @return String
 	 */
-	@Override
-	public String toString() {
-		try {
-			return String.format(this.getFirstName() + DELIM + this.getLastName() + DELIM + this.getPatientID() + DELIM
-					+ this.getTitle() + DELIM + this.getSex() + DELIM + this.getDOB() + DELIM + this.getAddress()
-					+ DELIM + this.getCondition() + DELIM + this.getNextAppointment() + DELIM + this.getComments()
-					+ DELIM + this.getURI() + DELIM + this.getProfilePhoto() + DELIM + this.getMedPhotos() + "\n");
-		} catch (Exception e) {
-			e.printStackTrace();
+	String getField(int field) {
+		switch (field) {
+		case FIRST_NAME:
+			return firstName;
+		case LAST_NAME:
+			return lastName;
+		case ADDRESS:
+			return address;
+		case COMMENTS:
+			return comments;
+		case URI:
+			return uri;
+		default:
+			return load(field);
 		}
+	}
 
-		/*
-		 * the program should never reach this point, as the previous return
-		 * will either be successful or result in an exception
-		 */
-		return "";
+	/*
+	 * the compact form of the fields. Each value is held in its compact form if it can be given
+	 * back exactly, and in irregular otherwise, so the getters always return what was set.
+	 */
+
+	/**
+	 * decodes one of the compactly held fields
+	 * @param int field
+	 * @return String
+	 */
+	private String load(int field) {
+		switch (field) {
+		case PATIENT_ID:
+			return patientID == PatientId.NONE ? irregular[field] : PatientId.unpack(patientID);
+		case TITLE:
+			return title < 0 ? irregular[field] : TITLES[title];
+		case SEX:
+			return sex < 0 ? irregular[field] : SEXES[sex];
+		case DOB_FIELD:
+			return loadDate(field, DOB);
+		case CONDITION:
+			return condition;
+		case NEXT_APPOINTMENT:
+			return loadDate(field, nextAppointment);
+		case PROFILE_PHOTO:
+			return profilePhotoDir.concat(profilePhotoName);
+		case MED_PHOTOS:
+			return medPhotosDir.concat(medPhotosName);
+		default:
+			throw new IndexOutOfBoundsException("no patient field " + field);
+		}
+	}
+
+	private String loadDate(int field, int date) {
+		switch (date) {
+		case NO_DATE:
+			return "";
+		case BLANK_DATE:
+			return " / / ";
+		case IRREGULAR:
+			return irregular[field];
+		default:
+			return PatientDate.format(date);
+		}
+	}
+
+	/**
+	 * assigns a field by its position, in its compact form
+	 * @param int field
+	 * @param String value
+	 */
+	private void store(int field, String value) {
+		if (irregular != null) {
+			irregular[field] = null;
+		}
+		switch (field) {
+		case FIRST_NAME:
+			firstName = value;
+			break;
+		case LAST_NAME:
+			lastName = value;
+			break;
+		case PATIENT_ID:
+			patientID = PatientId.pack(value);
+			if (patientID == PatientId.NONE) {
+				storeIrregular(field, value);
+			}
+			break;
+		case TITLE:
+			title = code(TITLES, value);
+			if (title < 0) {
+				storeIrregular(field, value);
+			}
+			break;
+		case SEX:
+			sex = code(SEXES, value);
+			if (sex < 0) {
+				storeIrregular(field, value);
+			}
+			break;
+		case DOB_FIELD:
+			DOB = storeDate(field, value, PatientDate.toEpochDay(value));
+			break;
+		case ADDRESS:
+			address = value;
+			break;
+		case CONDITION:
+			condition = conditions.intern(value);
+			break;
+		case NEXT_APPOINTMENT:
+			nextAppointment = storeDate(field, value, PatientDate.toEpochDay(value));
+			break;
+		case COMMENTS:
+			comments = value;
+			break;
+		case URI:
+			uri = value;
+			break;
+		case PROFILE_PHOTO:
+			int split = value.lastIndexOf('/') + 1;
+			profilePhotoDir = photoDirs.intern(value.substring(0, split));
+			profilePhotoName = value.substring(split);
+			break;
+		case MED_PHOTOS:
+			split = value.lastIndexOf('/') + 1;
+			medPhotosDir = photoDirs.intern(value.substring(0, split));
+			medPhotosName = value.substring(split);
+			break;
+		default:
+			throw new IndexOutOfBoundsException("no patient field " + field);
+		}
+	}
+
+	/* assigns a date field from its value and the epoch day already parsed from it */
+	private void storeDay(int field, String value, long day) {
+		if (irregular != null) {
+			irregular[field] = null;
+		}
+		if (field == DOB_FIELD) {
+			DOB = storeDate(field, value, day);
+		} else {
+			nextAppointment = storeDate(field, value, day);
+		}
+	}
+
+	private int storeDate(int field, String value, long day) {
+		if (value.isEmpty()) {
+			return NO_DATE;
+		}
+		if (value.equals(" / / ")) {
+			return BLANK_DATE;
+		}
+		/* only a date written the way format() writes it can be given back from its day */
+		if (day != PatientDate.NONE && day > IRREGULAR && day <= Integer.MAX_VALUE
+				&& PatientDate.format(day).equals(value)) {
+			return (int) day;
+		}
+		storeIrregular(field, value);
+		return IRREGULAR;
+	}
+
+	private void storeIrregular(int field, String value) {
+		if (irregular == null) {
+			irregular = new String[FIELD_COUNT];
+		}
+		irregular[field] = value;
+	}
+
+	private static byte code(String[] values, String value) {
+		for (byte i = 0; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * passes a field to its setter by its position in the db.txt record, so it is validated
+	 * exactly as if the setter had been called by name. Fields must be applied in record order,
+	 * as some setters check fields set before them.
+	 * @param int field
+	 * @param String value
+	 */
+	void applyField(int field, String value) {
+		switch (field) {
+		case FIRST_NAME:
+			setFirstName(value);
+			break;
+		case LAST_NAME:
+			setLastName(value);
+			break;
+		case PATIENT_ID:
+			setPatientID(value);
+			break;
+		case TITLE:
+			setTitle(value);
+			break;
+		case SEX:
+			setSex(value);
+			break;
+		case DOB_FIELD:
+			setDOB(value);
+			break;
+		case ADDRESS:
+			setAddress(value);
+			break;
+		case CONDITION:
+			setCondition(value);
+			break;
+		case NEXT_APPOINTMENT:
+			setNextAppointment(value);
+			break;
+		case COMMENTS:
+			setComments(value);
+			break;
+		case URI:
+			setURI(value);
+			break;
+		case PROFILE_PHOTO:
+			setProfilePhoto(value);
+			break;
+		case MED_PHOTOS:
+			setMedPhotos(value);
+			break;
+		default:
+			throw new IndexOutOfBoundsException("no patient field " + field);
+		}
+	}
+
+	/**
+	 * assigns a field by its position without running it through the validators. Only for
+	 * restoring data this program has already validated and saved, such as a snapshot record.
+	 * @param int field
+	 * @param String value
+	 */
+	void restoreField(int field, String value) {
+		store(field, value);
+	}
+
+	/**
+	 * writes one field to a record writer, straight from its compact form
+	 * @param int field
+	 * @param RecordWriter out
+	 */
+	void writeField(int field, RecordWriter out) {
+		out.beginField();
+		switch (field) {
+		case PATIENT_ID:
+			if (patientID == PatientId.NONE) {
+				out.append(irregular[field]);
+			} else {
+				PatientId.write(patientID, out);
+			}
+			break;
+		case DOB_FIELD:
+			writeDate(field, DOB, out);
+			break;
+		case NEXT_APPOINTMENT:
+			writeDate(field, nextAppointment, out);
+			break;
+		case PROFILE_PHOTO:
+			out.append(profilePhotoDir);
+			out.append(profilePhotoName);
+			break;
+		case MED_PHOTOS:
+			out.append(medPhotosDir);
+			out.append(medPhotosName);
+			break;
+		default:
+			out.append(getField(field));
+		}
+		out.endField();
+	}
+
+	private void writeDate(int field, int date, RecordWriter out) {
+		if (date == NO_DATE || date == BLANK_DATE || date == IRREGULAR) {
+			out.append(loadDate(field, date));
+		} else {
+			PatientDate.write(date, out);
+		}
+	}
+
+	/**
+	 * a short description of the patient for logs and debugging. Records are written by
+	 * RecordWriter.
+	 * @return String
+	 */
+	@Override
+	public String toString() {
+		return "Patient[" + getPatientID() + ", " + getTitle() + " " + getFirstName() + " " + getLastName() + "]";
 	}
 }
@@ -0,0 +1,99 @@
+package org.ucl.medicaldb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * builds a Patient straight from the field slices of a RecordParser. Each field is decoded
+ * once and passed to the matching setter as soon as it is parsed, so the validators run just
+ * as they do for arrayToPatient(), without a String[] per record in between, and what they
+ * found is kept apart from the patient for the caller. A builder is reused for record after
+ * record by one thread.
+ *
+ * A builder made to restore records skips the setters, and with them the validators, as
+ * restoreField() does for a snapshot: a record this program has already validated and written
+ * comes back exactly as it was, even where a check such as the next appointment being in the
+ * future would no longer pass.
+ */
+class PatientBuilder implements RecordParser.FieldSink {
+	private final RecordParser parser = new RecordParser();
+	private byte[] bytes = new byte[256];
+	/* a duplicate of the buffer being parsed, for bulk copies that leave its position alone */
+	private ByteBuffer source;
+	private ByteBuffer view;
+	private Patient patient;
+	private ValidationResult validation = ValidationResult.VALID;
+	private final boolean validating;
+
+	/** a builder that runs each field through its setter */
+	PatientBuilder() {
+		this(true);
+	}
+
+	/**
+	 * @param boolean validating false to restore the fields without validating them
+	 */
+	PatientBuilder(boolean validating) {
+		this.validating = validating;
+	}
+
+	/**
+	 * parses the next record of the buffer into a new patient
+	 * @param ByteBuffer buffer
+	 * @return Patient, or null if the record was a blank line
+	 * @throws IOException if the record is malformed or has the wrong number of fields
+	 */
+	Patient build(ByteBuffer buffer) throws IOException {
+		patient = new Patient();
+		int fields = parser.parse(buffer, this);
+		Patient built = patient;
+		patient = null;
+		validation = built.validation();
+		if (fields <= 0) {
+			return null;
+		}
+		if (fields != Patient.FIELD_COUNT) {
+			throw new IOException("expected " + Patient.FIELD_COUNT + " fields, found " + fields);
+		}
+		return built;
+	}
+
+	/**
+	 * @return ValidationResult the problems found with the record last built
+	 */
+	ValidationResult validation() {
+		return validation;
+	}
+
+	@Override
+	public void field(int index, ByteBuffer buffer, int offset, int length) throws IOException {
+		if (index >= Patient.FIELD_COUNT) {
+			return;
+		}
+		if (validating) {
+			patient.applyField(index, decode(buffer, offset, length));
+		} else {
+			patient.restoreField(index, decode(buffer, offset, length));
+		}
+	}
+
+	private String decode(ByteBuffer buffer, int offset, int length) {
+		if (length == 0) {
+			return "";
+		}
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+		}
+		if (length > bytes.length) {
+			bytes = new byte[Math.max(length, bytes.length * 2)];
+		}
+		if (buffer != source) {
+			source = buffer;
+			view = buffer.duplicate();
+		}
+		view.limit(offset + length).position(offset);
+		view.get(bytes, 0, length);
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+}
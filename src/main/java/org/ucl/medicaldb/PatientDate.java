@@ -0,0 +1,137 @@
+package org.ucl.medicaldb;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * conversions between the d/M/yyyy dates of a patient record and epoch days, the number of
+ * days since 1/1/1970, which sort and compare as plain numbers. A date is parsed once, with
+ * no objects made, and every check on it after that is a comparison of two longs, today()
+ * included.
+ */
+public final class PatientDate {
+	/** the epoch day of a missing or unreadable date */
+	public static final long NONE = Long.MIN_VALUE;
+	/* the days before the first of each month in a year that is not a leap year */
+	private static final int[] DAYS_BEFORE = { 0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334, 365 };
+	private static volatile Today today = new Today();
+
+	/* the epoch day of today, and the moment it ends */
+	private static final class Today {
+		final long epochDay;
+		final long endsAt;
+
+		Today() {
+			LocalDate date = LocalDate.now();
+			epochDay = date.toEpochDay();
+			endsAt = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+	}
+
+	private PatientDate() {
+	}
+
+	/**
+	 * @param String date in the form d/M/yyyy, as stored in db.txt
+	 * @return long the epoch day, or NONE if the string is not a date
+	 */
+	public static long toEpochDay(String date) {
+		int first = date.indexOf('/');
+		int second = first < 0 ? -1 : date.indexOf('/', first + 1);
+		if (second < 0) {
+			return NONE;
+		}
+		int day = digits(date, 0, first);
+		int month = digits(date, first + 1, second);
+		int year = digits(date, second + 1, date.length());
+		if (day < 1 || month < 1 || month > 12 || year < 0) {
+			return NONE;
+		}
+		boolean leap = isLeapYear(year);
+		int monthLength = DAYS_BEFORE[month] - DAYS_BEFORE[month - 1] + (leap && month == 2 ? 1 : 0);
+		if (day > monthLength) {
+			return NONE;
+		}
+		/* whole years since 1/1/0000, less those since 1/1/1970, as 719528 days */
+		long before = year - 1L;
+		long days = year == 0 ? 0 : 365L * year + before / 4 - before / 100 + before / 400 + 1;
+		return days + DAYS_BEFORE[month - 1] + (leap && month > 2 ? 1 : 0) + day - 1 - 719528;
+	}
+
+	/**
+	 * @param long year
+	 * @return boolean true if February of the year has 29 days
+	 */
+	public static boolean isLeapYear(long year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * today's epoch day in the local time zone. Worked out once a day: until midnight it costs
+	 * a read of the clock.
+	 * @return long
+	 */
+	public static long today() {
+		Today current = today;
+		if (System.currentTimeMillis() >= current.endsAt) {
+			current = new Today();
+			today = current;
+		}
+		return current.epochDay;
+	}
+
+	/**
+	 * @param long epochDay
+	 * @return String the date in the form d/M/yyyy
+	 */
+	public static String format(long epochDay) {
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		return date.getDayOfMonth() + "/" + date.getMonthValue() + "/" + date.getYear();
+	}
+
+	/**
+	 * writes a date in the form d/M/yyyy without building a String or a LocalDate, using the
+	 * days to civil date conversion of LocalDate.ofEpochDay()
+	 * @param long epochDay
+	 * @param RecordWriter out
+	 */
+	static void write(long epochDay, RecordWriter out) {
+		/* shift the epoch to 1/3/0000, so the leap day ends each 400 year era */
+		long zeroDay = epochDay + 719468;
+		long era = (zeroDay >= 0 ? zeroDay : zeroDay - 146096) / 146097;
+		long dayOfEra = zeroDay - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long marchMonth = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * marchMonth + 2) / 5 + 1;
+		long month = marchMonth < 10 ? marchMonth + 3 : marchMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		out.appendNumber(day, 1);
+		out.append('/');
+		out.appendNumber(month, 1);
+		out.append('/');
+		out.appendNumber(year, 1);
+	}
+
+	/* the value of a run of at most nine digits, ignoring spaces around it, or -1 */
+	private static int digits(String text, int start, int end) {
+		while (start < end && text.charAt(start) == ' ') {
+			start++;
+		}
+		while (end > start && text.charAt(end - 1) == ' ') {
+			end--;
+		}
+		if (start == end || end - start > 9) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+}
@@ -1,16 +1,25 @@
 package org.ucl.medicaldb;
 
-import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 
+/**
+ * the checks made on each field of a patient as it is set. A handler keeps no state: the
+ * patterns are compiled once and shared, and the messages for whatever fails are collected by
+ * the caller into a ValidationResult of its own, so any number of records can be validated on
+ * any number of threads at once.
+ */
 public final class PatientHandler {
 	/* logger */
 	private static final Logger log = Logger.getLogger(Class.class.getName());
-	public static ArrayList<String> errors = new ArrayList<String>();
+	private static final Pattern ID = Pattern.compile("[a-z]{2}[0-9]+");
+	private static final Pattern BAD_NAME = Pattern.compile("[0-9<>!\"$%\\+&][{}]");
+	private static final Pattern DATE = Pattern.compile("[1-9][0-9]?/[1-9][0-2]?/[1-9][0-9]{3}");
+	private static final Pattern BARE_SCHEME = Pattern.compile("http[s]?://");
+	private static final Pattern POSTCODE = Pattern
+			.compile(".*[A-Z&&[^QVX]][A-Z&&[^IJZ]]?[1-9][0-9]? ?[1-9][A-Z&&[^CIKMOV]]{2}");
 
 	/**
 	 * checks that a compulsory field contains some text, not just whitespace
@@ -35,12 +44,7 @@ public final class PatientHandler {
 	 * @return boolean
 	 */
 	boolean isValid(String input) {
-		Pattern pattern = Pattern.compile("[a-z]{2}[0-9]+");
-		if (pattern.matcher(input).matches()) {
-			return true;
-		}
-		setErrors("Problem with name");
-		return false;
+		return ID.matcher(input).matches();
 	}
 
 	/**
@@ -57,67 +61,44 @@ public final class PatientHandler {
 		 * very simple regex, but names are extremely variable, so anything more
 		 * sophisticated might exclude a legitimate, but unusual, name
 		 */
-		Pattern pattern = Pattern.compile("[0-9<>!\"$%\\+&][{}]");
-		try {
-			if (pattern.matcher(input).matches()) {
-				throw new IllegalArgumentException();
-			}
-		} catch (IllegalArgumentException e) {
+		if (BAD_NAME.matcher(input).matches()) {
 			log.log(Level.INFO, "incorrect name string entered by user");
-			setErrors("Incorrect name format");
 			return false;
 		}
 		return true;
 	}
 
-	boolean isValidDate(String DOB) {
-		Pattern pattern = Pattern.compile("[1-9][0-9]?/[1-9][0-2]?/[1-9][0-9]{3}");
-		try {
-			if (pattern.matcher(DOB).matches()) {
-				throw new IllegalArgumentException();
-			}
-		} catch (IllegalArgumentException e) {
+	/**
+	 * checks that a date is written d/M/yyyy and is a day of the calendar, 29/2 only in a leap
+	 * year
+	 * @param String date
+	 * @return boolean
+	 */
+	boolean isValidDate(String date) {
+		if (!DATE.matcher(date).matches() || PatientDate.toEpochDay(date) == PatientDate.NONE) {
 			log.log(Level.INFO, "incorrect date format");
-			setErrors("Incorrect date format");
 			return false;
 		}
-
-		String[] tempDate = DOB.split("/");
-		if (tempDate[1].equals("4") || tempDate[1].equals("6") || tempDate[1].equals("9") || tempDate[1].equals("11")) {
-			if (Integer.parseInt(tempDate[0]) > 30) {
-				setErrors("Date problem");
-				return false;
-			} else if (tempDate[1].equals("2")) {
-				// this is not smart enough to test for a leap year, so let's
-				// set the limit
-				// to 29
-				if (Integer.parseInt(tempDate[0]) > 29) {
-					setErrors("Date problem");
-					return false;
-				}
-			}
-		}
 		return true;
 	}
 
+	/**
+	 * checks that no patient in the database has this id yet. The id is only claimed when the
+	 * patient is added to the database, not here.
+	 * @param String id
+	 * @return boolean
+	 */
 	boolean isUniqueID(String id) {
-		if (Database.idNumbers.add(id)) {
+		if (!Database.primaryKey.contains(id)) {
 			return true;
 		}
 		log.log(Level.INFO, "user entered used id number");
-		setErrors("Id number duplicated");
 		return false;
 	}
 
 	boolean isValidURI(String uri) {
-		Pattern pattern = Pattern.compile("http[s]?://");
-		try {
-			if (pattern.matcher(uri).matches()) {
-				throw new IllegalArgumentException();
-			}
-		} catch (IllegalArgumentException e) {
+		if (BARE_SCHEME.matcher(uri).matches()) {
 			log.log(Level.INFO, "incorrect uri string entered by user");
-			setErrors("uri incorrect");
 			return false;
 		}
 		return true;
@@ -134,68 +115,40 @@ public final class PatientHandler {
 	 * @return boolean
 	 */
 	boolean hasValidPostCode(String address) {
-		Pattern pattern = Pattern.compile(".*[A-Z&&[^QVX]][A-Z&&[^IJZ]]?[1-9][0-9]? ?[1-9][A-Z&&[^CIKMOV]]{2}");
-		if (pattern.matcher(address.toUpperCase()).matches()) {
+		if (POSTCODE.matcher(address.toUpperCase()).matches()) {
 			return true;
 		} else {
 			log.log(Level.INFO, "incorrect postcode format");
-			setErrors("incorrect postcode");
 			return false;
 		}
 	}
 
 	/**
 	 * if the date is before the present day, then this cannot be the next
-	 * appointment. We will accept next appointment as today, as it could be an
-	 * emergency
+	 * appointment. A date of today is not in the future either.
 	 * 
-	 * @param date
+	 * @param String date
 	 * @return boolean
 	 */
 	boolean isDateinFuture(String date) {
-		try {
-			String[] now = LocalDate.now().toString().split("-");
-			String[] d = date.split("/");
-			/* is the year in the past? */
-			if (Integer.parseInt(now[0]) < Integer.parseInt(d[2])) {
-				return true;
-				/* is the month past in the present year? */
-			} else if ((Integer.parseInt(now[1]) < Integer.parseInt(d[1]))
-					&& (Integer.parseInt(now[0]) == Integer.parseInt(d[2]))) {
-				return true;
-				/* is the day in the past? */
-			} else if ((Integer.parseInt(now[2]) < Integer.parseInt(d[0]))
-					&& (Integer.parseInt(now[0]) == Integer.parseInt(d[2]))
-					&& (Integer.parseInt(now[1]) == Integer.parseInt(d[1]))) {
-				return true;
-			} 
-		} catch (NumberFormatException nfe) {
-			log.log(Level.WARNING, "no date to parse");
-		} catch (ArrayIndexOutOfBoundsException ofb) {
-			log.log(Level.INFO, "date string is empty");
-			/* seems strange to return true, but if we are here, it means the string was empty, signifying that
-			 * there is no next appointment.
-			 */
-			return true;
-		} catch (Exception e) {
-			log.log(Level.WARNING, e.getMessage());
-		};
-		return false;
-	}
-
-	public void setErrors(String err) {
-		errors.add(err + "\n");
+		return isDateinFuture(PatientDate.toEpochDay(date), date);
 	}
 
-	public ArrayList<String> getErrors() {
-		return errors;
-	}
-
-	public static String[] prettyPrintErrors() {
-		String[] errorMessages = new String[errors.size()];
-		for (int i = 0; i < errorMessages.length; i++) {
-			errorMessages[i] = errors.get(i);
+	/**
+	 * as isDateinFuture(String), for a date already parsed, so it is compared with today as a
+	 * plain number
+	 * @param long epochDay the day of the date, or PatientDate.NONE if it is not one
+	 * @param String date as it was written
+	 * @return boolean
+	 */
+	boolean isDateinFuture(long epochDay, String date) {
+		if (epochDay != PatientDate.NONE) {
+			return epochDay > PatientDate.today();
 		}
-		return errorMessages;
+		/* seems strange to return true, but fewer than three parts means there is no date at
+		 * all, such as an empty string, signifying that there is no next appointment. A
+		 * malformed date is not in the future. */
+		int first = date.indexOf('/');
+		return first < 0 || date.indexOf('/', first + 1) < 0;
 	}
 }
@@ -0,0 +1,78 @@
+package org.ucl.medicaldb;
+
+/**
+ * packs a patient id of the form two lower case letters and then digits, such as ab1234, into
+ * a long. The letters take five bits each, then four bits give the number of digits, so that
+ * leading zeros survive, and the low 48 bits hold the number. Ids of up to 14 digits fit.
+ * The empty id packs to 0; every other packed id has a letter and so is never 0.
+ */
+public final class PatientId {
+	/** returned for an id that does not fit the packing */
+	public static final long NONE = -1;
+	private static final int MAX_DIGITS = 14;
+
+	private PatientId() {
+	}
+
+	/**
+	 * @param String id
+	 * @return long the packed id, or NONE if it is not of the usual form
+	 */
+	public static long pack(String id) {
+		if (id.isEmpty()) {
+			return 0;
+		}
+		int digits = id.length() - 2;
+		if (digits < 1 || digits > MAX_DIGITS) {
+			return NONE;
+		}
+		char first = id.charAt(0);
+		char second = id.charAt(1);
+		if (first < 'a' || first > 'z' || second < 'a' || second > 'z') {
+			return NONE;
+		}
+		long number = 0;
+		for (int i = 2; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return NONE;
+			}
+			number = number * 10 + (c - '0');
+		}
+		return (long) (first - 'a' + 1) << 57 | (long) (second - 'a' + 1) << 52 | (long) digits << 48 | number;
+	}
+
+	/**
+	 * writes a packed id, as unpack() would give it, without building the String
+	 * @param long packed an id made by pack()
+	 * @param RecordWriter out
+	 */
+	static void write(long packed, RecordWriter out) {
+		if (packed == 0) {
+			return;
+		}
+		out.append((char) ('a' - 1 + ((packed >>> 57) & 0x1F)));
+		out.append((char) ('a' - 1 + ((packed >>> 52) & 0x1F)));
+		out.appendNumber(packed & 0xFFFFFFFFFFFFL, (int) (packed >>> 48) & 0xF);
+	}
+
+	/**
+	 * @param long packed an id made by pack()
+	 * @return String
+	 */
+	public static String unpack(long packed) {
+		if (packed == 0) {
+			return "";
+		}
+		int digits = (int) (packed >>> 48) & 0xF;
+		char[] id = new char[digits + 2];
+		id[0] = (char) ('a' - 1 + ((packed >>> 57) & 0x1F));
+		id[1] = (char) ('a' - 1 + ((packed >>> 52) & 0x1F));
+		long number = packed & 0xFFFFFFFFFFFFL;
+		for (int i = id.length - 1; i >= 2; i--) {
+			id[i] = (char) ('0' + number % 10);
+			number /= 10;
+		}
+		return new String(id);
+	}
+}
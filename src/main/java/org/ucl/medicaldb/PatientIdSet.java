@@ -0,0 +1,170 @@
+package org.ucl.medicaldb;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * a set of patient ids, packed into longs by PatientId and kept in an open addressing table,
+ * eleven to twenty two bytes an id, depending on how full the table is, against some ninety
+ * for a HashSet of Strings. Looking an id up packs it without building anything, and reads
+ * the table under an optimistic stamp, so it neither allocates nor blocks unless a change is
+ * being made at the same moment. The odd id which cannot be packed is kept in an ordinary set
+ * beside the table.
+ */
+public class PatientIdSet {
+	/* slot values; packed ids are never 0 (the empty id is not stored) and never negative */
+	private static final long EMPTY = 0;
+	private static final long REMOVED = Long.MIN_VALUE;
+	private static final int MIN_CAPACITY = 16;
+
+	private final StampedLock lock = new StampedLock();
+	private long[] slots = new long[MIN_CAPACITY];
+	private int size;
+	/* live ids plus removed markers, which both lengthen probes */
+	private int used;
+	private final Set<String> unpacked = new HashSet<String>();
+
+	/**
+	 * @param String id
+	 * @return boolean false if the id was already in the set, or is empty
+	 */
+	public boolean add(String id) {
+		long packed = PatientId.pack(id);
+		if (packed == EMPTY) {
+			return false;
+		}
+		long stamp = lock.writeLock();
+		try {
+			if (packed == PatientId.NONE) {
+				return unpacked.add(id);
+			}
+			if (find(slots, packed) >= 0) {
+				return false;
+			}
+			if ((used + 1) * 4L > slots.length * 3L) {
+				/* double only if live ids fill half the table, otherwise just sweep the removed */
+				rehash(size * 2 >= slots.length ? slots.length * 2 : slots.length);
+			}
+			int slot = home(slots, packed);
+			while (slots[slot] != EMPTY && slots[slot] != REMOVED) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			if (slots[slot] == EMPTY) {
+				used++;
+			}
+			slots[slot] = packed;
+			size++;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param String id
+	 * @return boolean false if the id was not in the set
+	 */
+	public boolean remove(String id) {
+		long packed = PatientId.pack(id);
+		if (packed == EMPTY) {
+			return false;
+		}
+		long stamp = lock.writeLock();
+		try {
+			if (packed == PatientId.NONE) {
+				return unpacked.remove(id);
+			}
+			int slot = find(slots, packed);
+			if (slot < 0) {
+				return false;
+			}
+			slots[slot] = REMOVED;
+			size--;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * @param String id
+	 * @return boolean
+	 */
+	public boolean contains(String id) {
+		long packed = PatientId.pack(id);
+		if (packed == EMPTY) {
+			return false;
+		}
+		if (packed == PatientId.NONE) {
+			long stamp = lock.readLock();
+			try {
+				return unpacked.contains(id);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			boolean found = find(slots, packed) >= 0;
+			if (lock.validate(stamp)) {
+				return found;
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return find(slots, packed) >= 0;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int size() {
+		long stamp = lock.readLock();
+		try {
+			return size + unpacked.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/* fibonacci hashing onto a power of two table */
+	private static int home(long[] table, long packed) {
+		return (int) ((packed * 0x9E3779B97F4A7C15L) >>> 32) & (table.length - 1);
+	}
+
+	/*
+	 * the slot holding the id, or -1. The probe stops after one pass of the table, so it ends
+	 * even if an optimistic read sees the table half way through a change.
+	 */
+	private static int find(long[] table, long packed) {
+		int slot = home(table, packed);
+		for (int probes = 0; probes < table.length; probes++) {
+			long value = table[slot];
+			if (value == packed) {
+				return slot;
+			}
+			if (value == EMPTY) {
+				return -1;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = slots;
+		long[] table = new long[Math.max(capacity, MIN_CAPACITY)];
+		for (long value : old) {
+			if (value != EMPTY && value != REMOVED) {
+				int slot = home(table, value);
+				while (table[slot] != EMPTY) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				table[slot] = value;
+			}
+		}
+		slots = table;
+		used = size;
+	}
+}
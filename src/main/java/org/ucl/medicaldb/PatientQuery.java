@@ -0,0 +1,275 @@
+package org.ucl.medicaldb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a search over the patient fields, either built up in code or parsed from the search box.
+ * Every term must match. The query language is a list of terms separated by spaces:
+ *
+ * <pre>
+ * condition:asthma        the condition is asthma (ignoring case)
+ * lastName:smi*           the last name starts with smi
+ * address:*london*        the address contains london
+ * thromb                  some field contains thromb
+ * "long street"           quotes keep spaces inside one term, also after a field name
+ * </pre>
+ *
+ * A term whose name before the colon is not a field, such as a web address, is searched for
+ * in every field.
+ */
+public class PatientQuery {
+
+	/** the fields a query can name, with the name used for them in the query language */
+	public enum Field {
+		FIRST_NAME("firstName", Patient.FIRST_NAME),
+		LAST_NAME("lastName", Patient.LAST_NAME),
+		PATIENT_ID("id", Patient.PATIENT_ID),
+		TITLE("title", Patient.TITLE),
+		SEX("sex", Patient.SEX),
+		DOB("dob", Patient.DOB_FIELD),
+		ADDRESS("address", Patient.ADDRESS),
+		CONDITION("condition", Patient.CONDITION),
+		NEXT_APPOINTMENT("nextAppointment", Patient.NEXT_APPOINTMENT),
+		COMMENTS("comments", Patient.COMMENTS),
+		URI("uri", Patient.URI);
+
+		private final String queryName;
+		final int index;
+
+		private Field(String queryName, int index) {
+			this.queryName = queryName;
+			this.index = index;
+		}
+
+		public String getQueryName() {
+			return queryName;
+		}
+
+		/**
+		 * @param String name a query name, ignoring case; patientID is accepted for id
+		 * @return Field, or null if there is no such field
+		 */
+		public static Field forName(String name) {
+			if (name.equalsIgnoreCase("patientID")) {
+				return PATIENT_ID;
+			}
+			for (Field field : values()) {
+				if (field.queryName.equalsIgnoreCase(name)) {
+					return field;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** how a term compares its value with a field */
+	enum Match {
+		EQUALS, PREFIX, CONTAINS
+	}
+
+	/** the field values of one patient, whether built or still in the snapshot */
+	interface Fields {
+		String get(int field);
+	}
+
+	/** one condition of a query. The value is lower cased, as all matching ignores case. */
+	static final class Term {
+		/* null for a term that may match any searchable field */
+		final Field field;
+		final Match match;
+		final String value;
+
+		Term(Field field, Match match, String value) {
+			this.field = field;
+			this.match = match;
+			this.value = value.toLowerCase();
+		}
+
+		/**
+		 * @param String fieldValue the value of the term's field, or the search text of the
+		 *        whole patient for a term on any field, already lower cased
+		 * @return boolean
+		 */
+		boolean matches(String fieldValue) {
+			switch (match) {
+			case EQUALS:
+				return fieldValue.equals(value);
+			case PREFIX:
+				return fieldValue.startsWith(value);
+			default:
+				return fieldValue.contains(value);
+			}
+		}
+
+		@Override
+		public String toString() {
+			String text = match == Match.PREFIX ? value + "*" : match == Match.CONTAINS && field != null ? "*" + value
+					+ "*" : value;
+			if (text.indexOf(' ') >= 0) {
+				text = '"' + text + '"';
+			}
+			return field == null ? text : field.getQueryName() + ":" + text;
+		}
+	}
+
+	private final List<Term> terms = new ArrayList<Term>();
+
+	/**
+	 * @param Field field
+	 * @param String value
+	 * @return PatientQuery this query, for chaining
+	 */
+	public PatientQuery is(Field field, String value) {
+		terms.add(new Term(field, Match.EQUALS, value));
+		return this;
+	}
+
+	public PatientQuery startsWith(Field field, String prefix) {
+		terms.add(new Term(field, Match.PREFIX, prefix));
+		return this;
+	}
+
+	public PatientQuery contains(Field field, String text) {
+		terms.add(new Term(field, Match.CONTAINS, text));
+		return this;
+	}
+
+	/**
+	 * @param String text to be found in any searchable field
+	 * @return PatientQuery this query, for chaining
+	 */
+	public PatientQuery contains(String text) {
+		terms.add(new Term(null, Match.CONTAINS, text));
+		return this;
+	}
+
+	List<Term> getTerms() {
+		return Collections.unmodifiableList(terms);
+	}
+
+	public boolean isEmpty() {
+		return terms.isEmpty();
+	}
+
+	/**
+	 * ranks a patient which matches this query. Each term on any field scores two if it is the
+	 * whole of some field, such as an id typed in full, and one if a name starts with it, so
+	 * the patients a search most likely means come first.
+	 * @param Patient patient
+	 * @return int higher for a better match
+	 */
+	public int score(Patient patient) {
+		return score(patient::getField);
+	}
+
+	int score(Fields patient) {
+		int score = 0;
+		for (Term term : terms) {
+			if (term.field != null) {
+				continue;
+			}
+			for (int field : Patient.SEARCHABLE_FIELDS) {
+				if (patient.get(field).equalsIgnoreCase(term.value)) {
+					score += 2;
+					break;
+				}
+			}
+			if (patient.get(Patient.LAST_NAME).toLowerCase().startsWith(term.value)
+					|| patient.get(Patient.FIRST_NAME).toLowerCase().startsWith(term.value)) {
+				score++;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @return boolean false if every match scores the same, so that the matches come out of
+	 *         the database already in order and a search can stop after the first few
+	 */
+	boolean isRanked() {
+		for (Term term : terms) {
+			if (term.field == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * parses the text of the search box into a query
+	 * @param String text
+	 * @return PatientQuery
+	 */
+	public static PatientQuery parse(String text) {
+		PatientQuery query = new PatientQuery();
+		int i = 0;
+		while (i < text.length()) {
+			if (Character.isWhitespace(text.charAt(i))) {
+				i++;
+				continue;
+			}
+			StringBuilder term = new StringBuilder();
+			int colon = -1;
+			boolean quoted = false;
+			for (; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"') {
+					quoted = !quoted;
+				} else if (!quoted && Character.isWhitespace(c)) {
+					break;
+				} else {
+					if (c == ':' && colon < 0 && !quoted) {
+						colon = term.length();
+					}
+					term.append(c);
+				}
+			}
+			query.addTerm(term.toString(), colon);
+		}
+		return query;
+	}
+
+	private void addTerm(String term, int colon) {
+		Field field = colon > 0 ? Field.forName(term.substring(0, colon)) : null;
+		if (field == null) {
+			terms.add(new Term(null, Match.CONTAINS, trimStars(term)));
+			return;
+		}
+		String value = term.substring(colon + 1);
+		if (value.length() > 1 && value.startsWith("*") && value.endsWith("*")) {
+			contains(field, value.substring(1, value.length() - 1));
+		} else if (value.endsWith("*")) {
+			startsWith(field, value.substring(0, value.length() - 1));
+		} else {
+			is(field, value);
+		}
+	}
+
+	/* a term on any field is already a substring match, so wildcards around it add nothing */
+	private static String trimStars(String value) {
+		int start = 0;
+		int end = value.length();
+		while (start < end && value.charAt(start) == '*') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) == '*') {
+			end--;
+		}
+		return value.substring(start, end);
+	}
+
+	/** the query in the query language */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (Term term : terms) {
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(term);
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,351 @@
+package org.ucl.medicaldb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * read-only view of a binary snapshot of the database, mapped into memory. The layout is
+ *
+ * <pre>
+ * header:       int magic | int version | int fieldCount | int recordCount
+ * offset table: recordCount + 1 ints, the file offset of each record and of the end of the data
+ * records:      fieldCount fields, each an int byte length followed by that many bytes of UTF-8
+ * id index:     int count, then count pairs of long packed id | int ordinal, sorted by id;
+ *               int count, then count ids that cannot be packed, each int ordinal | int byte
+ *               length | UTF-8
+ * </pre>
+ *
+ * Opening a snapshot only reads the header; fields are decoded from the mapping when they are
+ * asked for, so a patient costs nothing until something looks at it. The id index is searched
+ * where it is mapped, so the primary key does not have to be built from every record either.
+ * Snapshots of version 1 have no id index.
+ */
+public class PatientSnapshot {
+	private static final int MAGIC = 0x4D444253; // "MDBS"
+	static final int VERSION = 2;
+	/* the version before the id index, which is still read */
+	private static final int VERSION_WITHOUT_IDS = 1;
+	private static final int HEADER = 16;
+	/* a packed id and its ordinal */
+	private static final int ID_ENTRY = 12;
+	private final MappedByteBuffer buffer;
+	private final int recordCount;
+	/* the position of the packed ids, or -1 if the snapshot has no id index */
+	private final int packedIds;
+	private final int packedCount;
+	/* the position of the count of ids that cannot be packed */
+	private final int otherIds;
+
+	private PatientSnapshot(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a patient snapshot");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION && version != VERSION_WITHOUT_IDS) {
+			throw new IOException("unsupported snapshot version " + version);
+		}
+		if (buffer.getInt(8) != Patient.FIELD_COUNT) {
+			throw new IOException("snapshot has " + buffer.getInt(8) + " fields, expected " + Patient.FIELD_COUNT);
+		}
+		this.recordCount = buffer.getInt(12);
+		/* a snapshot cut short, by a full disk or a copy, ends before the data it indexes */
+		if (recordCount < 0 || HEADER + (recordCount + 1L) * 4 > buffer.limit()
+				|| buffer.getInt(HEADER + recordCount * 4) > buffer.limit()) {
+			throw new IOException("snapshot is truncated");
+		}
+		if (version == VERSION_WITHOUT_IDS) {
+			packedIds = -1;
+			packedCount = 0;
+			otherIds = -1;
+			return;
+		}
+		int end = buffer.getInt(HEADER + recordCount * 4);
+		if (end < HEADER || end + 4L > buffer.limit()) {
+			throw new IOException("snapshot id index is truncated");
+		}
+		packedIds = end + 4;
+		packedCount = buffer.getInt(end);
+		long others = packedIds + packedCount * (long) ID_ENTRY;
+		if (packedCount < 0 || others + 4 > buffer.limit()) {
+			throw new IOException("snapshot id index is truncated");
+		}
+		otherIds = (int) others;
+		long position = others + 4;
+		for (int i = buffer.getInt(otherIds); i > 0; i--) {
+			int length = position + 8 > buffer.limit() ? -1 : buffer.getInt((int) position + 4);
+			position += 8L + length;
+			if (length < 0 || position > buffer.limit()) {
+				throw new IOException("snapshot id index is truncated");
+			}
+		}
+	}
+
+	/**
+	 * maps an existing snapshot file. The mapping stays valid after the channel is closed, and
+	 * even after a newer snapshot has been moved over the same file name.
+	 * @param String fileLocation
+	 * @return PatientSnapshot
+	 * @throws IOException
+	 */
+	public static PatientSnapshot open(String fileLocation) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileLocation), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("snapshot larger than 2GB");
+			}
+			return new PatientSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return int the number of records in the snapshot
+	 */
+	public int size() {
+		return recordCount;
+	}
+
+	/**
+	 * builds the patient at the given position. The snapshot only ever holds validated patients,
+	 * so the fields are restored directly rather than through the setters.
+	 * @param int ordinal
+	 * @return Patient
+	 */
+	Patient read(int ordinal) {
+		Patient patient = new Patient();
+		int position = recordOffset(ordinal);
+		for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+			int length = buffer.getInt(position);
+			patient.restoreField(field, decode(position + 4, length));
+			position += 4 + length;
+		}
+		return patient;
+	}
+
+	/**
+	 * decodes a single field of a record without building the whole patient
+	 * @param int ordinal
+	 * @param int field
+	 * @return String
+	 */
+	String field(int ordinal, int field) {
+		int position = recordOffset(ordinal);
+		for (int i = 0; i < field; i++) {
+			position += 4 + buffer.getInt(position);
+		}
+		return decode(position + 4, buffer.getInt(position));
+	}
+
+	/**
+	 * @return boolean false for a snapshot written before snapshots had an id index
+	 */
+	boolean hasIdIndex() {
+		return packedIds >= 0;
+	}
+
+	/**
+	 * @param long packed an id packed by PatientId
+	 * @return int the ordinal of the record with the id, found by a binary search of the id
+	 *         index, or -1
+	 */
+	int ordinalOfId(long packed) {
+		int low = 0;
+		int high = packedCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long id = buffer.getLong(packedIds + mid * ID_ENTRY);
+			if (id < packed) {
+				low = mid + 1;
+			} else if (id > packed) {
+				high = mid - 1;
+			} else {
+				return buffer.getInt(packedIds + mid * ID_ENTRY + 8);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Map the ids of the id index that cannot be packed, with their ordinals. There are
+	 *         few, so they are read into memory.
+	 */
+	Map<String, Integer> unpackedIds() {
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		if (otherIds < 0) {
+			return ids;
+		}
+		int position = otherIds + 4;
+		for (int i = buffer.getInt(otherIds); i > 0; i--) {
+			int length = buffer.getInt(position + 4);
+			ids.put(decode(position + 8, length), buffer.getInt(position));
+			position += 8 + length;
+		}
+		return ids;
+	}
+
+	/**
+	 * @param int ordinal
+	 * @return ByteBuffer the raw bytes of a record, for copying into a new snapshot unchanged
+	 */
+	ByteBuffer record(int ordinal) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(recordOffset(ordinal + 1));
+		slice.position(recordOffset(ordinal));
+		return slice;
+	}
+
+	private int recordOffset(int ordinal) {
+		if (ordinal < 0 || ordinal > recordCount) {
+			throw new IndexOutOfBoundsException("no snapshot record " + ordinal);
+		}
+		return buffer.getInt(HEADER + ordinal * 4);
+	}
+
+	private String decode(int position, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(position);
+		slice.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * writes every live patient in the table to a new snapshot. The file is written under a
+	 * temporary name, forced to disk and then moved over the old snapshot, so a crash leaves
+	 * either the old or the new snapshot, never half of one. Patients that were never loaded
+	 * out of the previous snapshot are copied across byte for byte.
+	 * @param String fileLocation
+	 * @param PatientTable table
+	 * @throws IOException
+	 */
+	static void write(String fileLocation, PatientTable table) throws IOException {
+		Path target = Paths.get(fileLocation);
+		Path temp = Paths.get(fileLocation + ".tmp");
+		int count = table.liveCount();
+		int[] offsets = new int[count + 1];
+		long position = HEADER + (count + 1) * 4L;
+
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			channel.position(position);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+			byte[] scratch = new byte[1024];
+			RecordWriter fieldWriter = new RecordWriter(false);
+			long[] packed = new long[count];
+			int[] packedOrdinals = new int[count];
+			int packedCount = 0;
+			List<String> others = new ArrayList<String>();
+			List<Integer> otherOrdinals = new ArrayList<Integer>();
+			int record = 0;
+			for (int ordinal = 0; ordinal < table.size(); ordinal++) {
+				if (!table.isLive(ordinal)) {
+					continue;
+				}
+				String id = table.field(ordinal, Patient.PATIENT_ID);
+				long packedId = PatientId.pack(id);
+				if (packedId == PatientId.NONE) {
+					others.add(id);
+					otherOrdinals.add(record);
+				} else if (!id.isEmpty()) {
+					packed[packedCount] = packedId;
+					packedOrdinals[packedCount++] = record;
+				}
+				offsets[record++] = (int) position;
+				ByteBuffer raw = table.rawRecord(ordinal);
+				if (raw != null) {
+					int length = raw.remaining();
+					if (length > scratch.length) {
+						scratch = new byte[length];
+					}
+					raw.get(scratch, 0, length);
+					out.write(scratch, 0, length);
+					position += length;
+				} else {
+					Patient patient = table.get(ordinal);
+					for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+						fieldWriter.reset();
+						patient.writeField(field, fieldWriter);
+						out.writeInt(fieldWriter.length());
+						out.write(fieldWriter.array(), 0, fieldWriter.length());
+						position += 4 + fieldWriter.length();
+					}
+				}
+				if (position > Integer.MAX_VALUE) {
+					throw new IOException("snapshot larger than 2GB");
+				}
+			}
+			offsets[count] = (int) position;
+
+			sortIds(packed, packedOrdinals, packedCount);
+			out.writeInt(packedCount);
+			for (int i = 0; i < packedCount; i++) {
+				out.writeLong(packed[i]);
+				out.writeInt(packedOrdinals[i]);
+			}
+			position += 4 + packedCount * (long) ID_ENTRY;
+			out.writeInt(others.size());
+			position += 4;
+			for (int i = 0; i < others.size(); i++) {
+				byte[] id = others.get(i).getBytes(StandardCharsets.UTF_8);
+				out.writeInt(otherOrdinals.get(i));
+				out.writeInt(id.length);
+				out.write(id);
+				position += 8 + id.length;
+			}
+			if (position > Integer.MAX_VALUE) {
+				throw new IOException("snapshot larger than 2GB");
+			}
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER + offsets.length * 4);
+			header.putInt(MAGIC).putInt(VERSION).putInt(Patient.FIELD_COUNT).putInt(count);
+			for (int offset : offsets) {
+				header.putInt(offset);
+			}
+			header.flip();
+			long headerPosition = 0;
+			while (header.hasRemaining()) {
+				headerPosition += channel.write(header, headerPosition);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* sorts the first count packed ids, moving each ordinal with its id */
+	private static void sortIds(long[] ids, int[] ordinals, int count) {
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+		long[] sortedIds = new long[count];
+		int[] sortedOrdinals = new int[count];
+		for (int i = 0; i < count; i++) {
+			sortedIds[i] = ids[order[i]];
+			sortedOrdinals[i] = ordinals[order[i]];
+		}
+		System.arraycopy(sortedIds, 0, ids, 0, count);
+		System.arraycopy(sortedOrdinals, 0, ordinals, 0, count);
+	}
+}
@@ -0,0 +1,296 @@
+package org.ucl.medicaldb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * the in-memory table of patients. Every patient is identified by an ordinal, its row number,
+ * which never changes while the program runs: removing a patient only marks its row as
+ * deleted. Rows that came from a snapshot stay as bytes in the mapped file until they are
+ * first asked for, at which point the Patient object is built and kept.
+ *
+ * A table is one version of the registry and never changes once published, so a search can
+ * read it without a lock while changes carry on. A change is made on an edit() of the latest
+ * version: the rows are held in chunks, and the edit copies only the chunks it writes to, so a
+ * version costs a few kilobytes more than the one before it and shares the rest. Nothing keeps
+ * a list of versions; an old one is garbage collected once the last search reading it is done.
+ *
+ * A row that is still as it was in the snapshot is null in its chunk. Patients built from the
+ * snapshot are kept in an array shared by every version, and put there with a compare and set,
+ * so every version and every reader is given the same Patient object for an unchanged row.
+ */
+class PatientTable implements Iterable<Patient> {
+	private static final int SHIFT = 10;
+	private static final int CHUNK = 1 << SHIFT;
+	/* marks a deleted row in its chunk */
+	private static final Patient REMOVED = new Patient();
+	private final PatientSnapshot snapshot;
+	private final int snapshotSize;
+	private final AtomicReferenceArray<Patient> built;
+	/* the same object for every version edited from one opened table */
+	private final Object lineage;
+	private Patient[][] chunks;
+	private int size;
+	private int live;
+	/* the chunks an edit has already copied, or null once the table is published */
+	private boolean[] owned;
+
+	/** an empty table */
+	PatientTable() {
+		this((PatientSnapshot) null);
+	}
+
+	/**
+	 * a table whose first rows are the records of a snapshot, built lazily
+	 * @param PatientSnapshot snapshot
+	 */
+	PatientTable(PatientSnapshot snapshot) {
+		this.snapshot = snapshot;
+		this.snapshotSize = snapshot == null ? 0 : snapshot.size();
+		this.built = new AtomicReferenceArray<Patient>(snapshotSize);
+		this.lineage = new Object();
+		this.chunks = new Patient[Math.max(1, (snapshotSize + CHUNK - 1) >> SHIFT)][];
+		this.size = snapshotSize;
+		this.live = snapshotSize;
+	}
+
+	private PatientTable(PatientTable version) {
+		this.snapshot = version.snapshot;
+		this.snapshotSize = version.snapshotSize;
+		this.built = version.built;
+		this.lineage = version.lineage;
+		this.chunks = version.chunks.clone();
+		this.size = version.size;
+		this.live = version.live;
+		this.owned = new boolean[chunks.length];
+	}
+
+	/**
+	 * @return PatientTable a copy of this version which add(), set() and remove() may change,
+	 *         until it is published
+	 */
+	PatientTable edit() {
+		return new PatientTable(this);
+	}
+
+	/**
+	 * ends an edit. The table must not be changed again.
+	 * @return PatientTable this table
+	 */
+	PatientTable publish() {
+		owned = null;
+		return this;
+	}
+
+	/**
+	 * @return int one more than the highest ordinal handed out, including deleted rows
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return int the number of patients which have not been deleted
+	 */
+	int liveCount() {
+		return live;
+	}
+
+	boolean isLive(int ordinal) {
+		return ordinal >= 0 && ordinal < size && slot(ordinal) != REMOVED;
+	}
+
+	/**
+	 * returns the patient in a row, building it from the snapshot on first access
+	 * @param int ordinal
+	 * @return Patient, or null if the row has been deleted
+	 */
+	Patient get(int ordinal) {
+		if (!isLive(ordinal)) {
+			return null;
+		}
+		Patient patient = slot(ordinal);
+		if (patient == null) {
+			patient = built.get(ordinal);
+			if (patient == null) {
+				patient = snapshot.read(ordinal);
+				if (!built.compareAndSet(ordinal, null, patient)) {
+					patient = built.get(ordinal);
+				}
+			}
+		}
+		return patient;
+	}
+
+	/**
+	 * reads a single field of a row without building the patient, if it is still only in the
+	 * snapshot
+	 * @param int ordinal
+	 * @param int field
+	 * @return String, or null if the row has been deleted
+	 */
+	String field(int ordinal, int field) {
+		if (!isLive(ordinal)) {
+			return null;
+		}
+		Patient patient = slot(ordinal);
+		if (patient == null) {
+			patient = built.get(ordinal);
+		}
+		return patient == null ? snapshot.field(ordinal, field) : patient.getField(field);
+	}
+
+	/**
+	 * @param int ordinal
+	 * @return ByteBuffer the snapshot bytes of a row that has not changed since the snapshot,
+	 *         otherwise null
+	 */
+	ByteBuffer rawRecord(int ordinal) {
+		if (ordinal < snapshotSize && slot(ordinal) == null) {
+			return snapshot.record(ordinal);
+		}
+		return null;
+	}
+
+	/**
+	 * appends a patient in a new row
+	 * @param Patient patient
+	 * @return int the ordinal of the new row
+	 */
+	int add(Patient patient) {
+		if (size == chunks.length << SHIFT) {
+			chunks = Arrays.copyOf(chunks, chunks.length + (chunks.length >> 1) + 1);
+		}
+		write(size, patient);
+		live++;
+		return size++;
+	}
+
+	/**
+	 * replaces the patient in an existing row
+	 * @param int ordinal
+	 * @param Patient patient
+	 */
+	void set(int ordinal, Patient patient) {
+		if (!isLive(ordinal)) {
+			throw new IndexOutOfBoundsException("no live row " + ordinal);
+		}
+		write(ordinal, patient);
+	}
+
+	/**
+	 * marks a row as deleted. Its ordinal is never reused.
+	 * @param int ordinal
+	 */
+	void remove(int ordinal) {
+		if (isLive(ordinal)) {
+			write(ordinal, REMOVED);
+			live--;
+		}
+	}
+
+	/**
+	 * finds the row holding this exact Patient object
+	 * @param Patient patient
+	 * @return int the ordinal, or -1
+	 */
+	int indexOf(Patient patient) {
+		for (int i = 0; i < size; i++) {
+			Patient row = slot(i);
+			if (row == patient || (row == null && i < snapshotSize && built.get(i) == patient)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * the rows that differ between an older version and this one. Chunks the two versions
+	 * share are skipped whole, so the cost follows the number of changes.
+	 * @param PatientTable older an earlier version of this table
+	 * @return int[] the ordinals added, replaced or deleted since, in order, or null if the
+	 *         older table is not an earlier version of this one
+	 */
+	int[] changedSince(PatientTable older) {
+		if (older.lineage != lineage || older.size > size) {
+			return null;
+		}
+		int[] changed = new int[16];
+		int count = 0;
+		for (int c = 0; c << SHIFT < size; c++) {
+			Patient[] chunk = chunks[c];
+			Patient[] old = c < older.chunks.length ? older.chunks[c] : null;
+			if (chunk == old) {
+				continue;
+			}
+			int end = Math.min(size, (c + 1) << SHIFT);
+			for (int i = c << SHIFT; i < end; i++) {
+				Patient before = i < older.size ? slot(old, i) : REMOVED;
+				if (slot(chunk, i) != before) {
+					if (count == changed.length) {
+						changed = Arrays.copyOf(changed, count * 2);
+					}
+					changed[count++] = i;
+				}
+			}
+		}
+		return Arrays.copyOf(changed, count);
+	}
+
+	private Patient slot(int ordinal) {
+		return slot(chunks[ordinal >> SHIFT], ordinal);
+	}
+
+	private static Patient slot(Patient[] chunk, int ordinal) {
+		return chunk == null ? null : chunk[ordinal & (CHUNK - 1)];
+	}
+
+	/* writes a row of an edit, copying its chunk the first time the edit writes to it */
+	private void write(int ordinal, Patient patient) {
+		if (owned == null) {
+			throw new IllegalStateException("a published table cannot be changed");
+		}
+		int c = ordinal >> SHIFT;
+		if (c >= owned.length) {
+			owned = Arrays.copyOf(owned, chunks.length);
+		}
+		if (!owned[c]) {
+			chunks[c] = chunks[c] == null ? new Patient[CHUNK] : chunks[c].clone();
+			owned[c] = true;
+		}
+		chunks[c][ordinal & (CHUNK - 1)] = patient;
+	}
+
+	/** iterates over the live patients in ordinal order */
+	@Override
+	public Iterator<Patient> iterator() {
+		return new Iterator<Patient>() {
+			private int next = nextLive(0);
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Patient next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Patient patient = get(next);
+				next = nextLive(next + 1);
+				return patient;
+			}
+		};
+	}
+
+	private int nextLive(int from) {
+		while (from < size && !isLive(from)) {
+			from++;
+		}
+		return from;
+	}
+}
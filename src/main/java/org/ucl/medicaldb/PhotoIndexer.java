@@ -0,0 +1,336 @@
+package org.ucl.medicaldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * keeps the photo listing of each patient shown so far in memory, so showing a patient's
+ * photos touches no file at all. The first time a patient is watched, the files in their photo
+ * directory are moved into the PhotoStore in the background and the directory is registered
+ * with a WatchService; from then on only the files named by its watch events are looked at,
+ * and the directory is not listed. A listener is told whenever a listing changes.
+ *
+ * Some file systems, network shares among them, do not report every change, so the watched
+ * directories are also synced every few minutes, and whenever the watch service reports that
+ * it dropped events. At most MAX_WATCHED patients are kept, the least recently watched going
+ * first.
+ */
+public class PhotoIndexer {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	static final int MAX_WATCHED = 512;
+	private static final long RESCAN_MINUTES = 10;
+	/* events for a directory that arrive this close together are handled as one */
+	private static final long SETTLE_MS = 200;
+	/* in place of the names of a directory's changes, when the whole directory must be synced */
+	private static final Set<String> EVERYTHING = new HashSet<String>();
+	private final PhotoStore store;
+	private final ConcurrentHashMap<String, List<PhotoStore.Photo>> listings = new ConcurrentHashMap<String, List<PhotoStore.Photo>>();
+	/* syncs run one at a time on this, so the store is never synced twice over */
+	private final ScheduledExecutorService indexer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "photo-indexer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/* the rest are guarded by this */
+	private WatchService watcher;
+	/* the directory of each patient watched, least recently watched first; null for none */
+	private final LinkedHashMap<String, Path> directories = new LinkedHashMap<String, Path>(16, 0.75f, true);
+	private final Map<Path, Set<String>> patients = new HashMap<Path, Set<String>>();
+	private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+	/* the names changed in each directory since it was last synced */
+	private final Map<Path, Set<String>> pending = new HashMap<Path, Set<String>>();
+	private Listener listener;
+
+	/** told on the indexer thread when the listing of a patient has changed */
+	public interface Listener {
+		void listingChanged(String patientId);
+	}
+
+	/**
+	 * @param PhotoStore store
+	 */
+	public PhotoIndexer(PhotoStore store) {
+		this.store = store;
+		indexer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				rescan();
+			}
+		}, RESCAN_MINUTES, RESCAN_MINUTES, TimeUnit.MINUTES);
+	}
+
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param String patientId
+	 * @return List the patient's photos as last indexed, or null if they have not been indexed
+	 *         yet; reads no file
+	 */
+	public List<PhotoStore.Photo> listing(String patientId) {
+		return listings.get(patientId);
+	}
+
+	/**
+	 * makes sure a patient's photo directory is indexed and watched. Costs nothing if it
+	 * already is; otherwise the directory is synced in the background and the listener told.
+	 * @param String patientId
+	 * @param String directory the patient's photo directory, or empty for none
+	 */
+	public synchronized void watch(final String patientId, String directory) {
+		final Path path = directory.isEmpty() ? null : new File(directory).getAbsoluteFile().toPath();
+		if (directories.containsKey(patientId)) {
+			Path watched = directories.get(patientId);
+			if (path == null ? watched == null : path.equals(watched)) {
+				return;
+			}
+			forget(patientId);
+		}
+		directories.put(patientId, path);
+		if (path != null) {
+			Set<String> sharing = patients.get(path);
+			if (sharing == null) {
+				sharing = new HashSet<String>();
+				patients.put(path, sharing);
+			}
+			sharing.add(patientId);
+		}
+		while (directories.size() > MAX_WATCHED) {
+			forget(directories.keySet().iterator().next());
+		}
+		indexer.execute(new Runnable() {
+			public void run() {
+				index(patientId, path);
+			}
+		});
+	}
+
+	/**
+	 * moves files into a patient's photos in the background, telling the listener once they
+	 * are stored
+	 * @param String patientId
+	 * @param List files
+	 */
+	public void add(final String patientId, final List<File> files) {
+		indexer.execute(new Runnable() {
+			public void run() {
+				try {
+					publish(patientId, store.add(patientId, files));
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to store the photos of " + patientId, ioe.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * takes a photo off a patient's photos in the background
+	 * @param String patientId
+	 * @param String name
+	 */
+	public void remove(final String patientId, final String name) {
+		indexer.execute(new Runnable() {
+			public void run() {
+				try {
+					publish(patientId, store.remove(patientId, name));
+				} catch (IOException ioe) {
+					log.log(Level.WARNING, "unable to remove a photo of " + patientId, ioe.getMessage());
+				}
+			}
+		});
+	}
+
+	/* indexes a patient newly watched: their manifest first, so their photos show at once,
+	 * then the files in their directory */
+	private void index(String patientId, Path path) {
+		try {
+			publish(patientId, store.list(patientId));
+			if (path != null && register(path)) {
+				publish(patientId, store.sync(patientId, path.toFile()));
+			}
+		} catch (IOException ioe) {
+			log.log(Level.WARNING, "unable to index the photos of " + patientId, ioe.getMessage());
+		}
+	}
+
+	/* drops a patient, and stops watching their directory if no one else shares it */
+	private void forget(String patientId) {
+		Path path = directories.remove(patientId);
+		listings.remove(patientId);
+		Set<String> sharing = path == null ? null : patients.get(path);
+		if (sharing != null && sharing.remove(patientId) && sharing.isEmpty()) {
+			patients.remove(path);
+			WatchKey key = keys.remove(path);
+			if (key != null) {
+				key.cancel();
+			}
+		}
+	}
+
+	/**
+	 * registers a directory with the watch service, starting the service on first use
+	 * @param Path path
+	 * @return boolean false if the directory is no longer watched for anyone
+	 */
+	private synchronized boolean register(Path path) {
+		if (!patients.containsKey(path)) {
+			return false;
+		}
+		if (keys.containsKey(path)) {
+			return true;
+		}
+		try {
+			if (watcher == null) {
+				watcher = FileSystems.getDefault().newWatchService();
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						watchEvents();
+					}
+				}, "photo-watcher");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			keys.put(path, path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+		} catch (IOException ioe) {
+			/* still synced by rescan() */
+			log.log(Level.WARNING, "unable to watch " + path, ioe.getMessage());
+		}
+		return true;
+	}
+
+	/* runs on the watcher thread, collecting the names changed in each directory */
+	private void watchEvents() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path path = (Path) key.watchable();
+				Set<String> names = new TreeSet<String>();
+				boolean overflow = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						overflow = true;
+					} else {
+						names.add(event.context().toString());
+					}
+				}
+				key.reset();
+				changed(path, overflow ? EVERYTHING : names);
+			}
+		} catch (ClosedWatchServiceException cwse) {
+			return;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* notes changes to a directory, and syncs it once the events have settled */
+	private synchronized void changed(final Path path, Set<String> names) {
+		Set<String> waiting = pending.get(path);
+		if (waiting == null) {
+			pending.put(path, names == EVERYTHING ? EVERYTHING : new TreeSet<String>(names));
+			indexer.schedule(new Runnable() {
+				public void run() {
+					refresh(path);
+				}
+			}, SETTLE_MS, TimeUnit.MILLISECONDS);
+		} else if (names == EVERYTHING) {
+			pending.put(path, EVERYTHING);
+		} else if (waiting != EVERYTHING) {
+			waiting.addAll(names);
+		}
+	}
+
+	/* brings the listings of every patient of a directory up to date with its changes */
+	private void refresh(Path path) {
+		Set<String> names;
+		List<String> sharing;
+		synchronized (this) {
+			names = pending.remove(path);
+			Set<String> ids = patients.get(path);
+			if (names == null || ids == null) {
+				return;
+			}
+			sharing = new ArrayList<String>(ids);
+		}
+		for (String patientId : sharing) {
+			try {
+				File directory = path.toFile();
+				publish(patientId, names == EVERYTHING ? store.sync(patientId, directory)
+						: store.refresh(patientId, directory, names));
+			} catch (IOException ioe) {
+				log.log(Level.WARNING, "unable to refresh the photos of " + patientId, ioe.getMessage());
+			}
+		}
+	}
+
+	/* syncs every watched directory, for the changes the watch service did not report */
+	private void rescan() {
+		List<Path> watched;
+		synchronized (this) {
+			watched = new ArrayList<Path>(patients.keySet());
+		}
+		for (Path path : watched) {
+			changed(path, EVERYTHING);
+		}
+	}
+
+	/* keeps a listing if the patient is still watched, telling the listener if it changed */
+	private void publish(String patientId, List<PhotoStore.Photo> photos) {
+		Listener told;
+		synchronized (this) {
+			if (!directories.containsKey(patientId)) {
+				return;
+			}
+			List<PhotoStore.Photo> old = listings.put(patientId, photos);
+			if (photos.equals(old)) {
+				return;
+			}
+			told = listener;
+		}
+		if (told != null) {
+			told.listingChanged(patientId);
+		}
+	}
+
+	/** stops watching every directory */
+	public synchronized void close() {
+		for (Iterator<WatchKey> it = keys.values().iterator(); it.hasNext();) {
+			it.next().cancel();
+			it.remove();
+		}
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException ioe) {
+				log.log(Level.WARNING, ioe.getMessage());
+			}
+		}
+		indexer.shutdownNow();
+	}
+}
@@ -0,0 +1,358 @@
+package org.ucl.medicaldb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * the medical photos of every patient, each stored once however many patients share it. A
+ * photo is kept in the blobs directory under the SHA-256 of its bytes, so adding a scan that
+ * is already stored, for the same patient or another, costs only a line in a manifest. Each
+ * patient has a manifest listing the hash, original name, length and date of their photos in
+ * the order they were added, in the '|' separated record format of db.txt, so listing a
+ * patient's photos is one small file read rather than a directory scan.
+ *
+ * The store holds the only copy of a photo: a file added to it, whether chosen in the editor
+ * or put in the patient's photo directory, is deleted once stored, and the manifest, not the
+ * directory, is the patient's list of photos.
+ *
+ * Blobs and manifests are written to a temporary file and moved into place, so neither is ever
+ * seen half written; a blob, once there, never changes.
+ */
+public class PhotoStore {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	/** the store in the working directory */
+	public static final String DIRECTORY = "photo store";
+	private final File blobs;
+	private final File manifests;
+
+	/** one photo of a patient */
+	public static final class Photo {
+		/** the hex SHA-256 of the photo's bytes */
+		public final String hash;
+		/** the file name it was added under */
+		public final String name;
+		/** where its bytes are stored */
+		public final File file;
+		/* the length and date of the file it was added from, or -1 if not known */
+		final long length;
+		final long modified;
+
+		Photo(String hash, String name, File file, long length, long modified) {
+			this.hash = hash;
+			this.name = name;
+			this.file = file;
+			this.length = length;
+			this.modified = modified;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Photo)) {
+				return false;
+			}
+			Photo other = (Photo) o;
+			return hash.equals(other.hash) && name.equals(other.name) && length == other.length
+					&& modified == other.modified;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash.hashCode() * 31 + name.hashCode();
+		}
+	}
+
+	/** the store in the working directory */
+	public PhotoStore() {
+		this(new File(DIRECTORY));
+	}
+
+	/**
+	 * @param File root the directory of the store, made when the first photo is added
+	 */
+	public PhotoStore(File root) {
+		this.blobs = new File(root, "blobs");
+		this.manifests = new File(root, "manifests");
+	}
+
+	/**
+	 * @param String patientId
+	 * @return boolean true if the patient has a manifest, even an empty one
+	 */
+	public boolean hasManifest(String patientId) {
+		return manifest(patientId).exists();
+	}
+
+	/**
+	 * @param String patientId
+	 * @return List the patient's photos in the order they were added, empty if they have none
+	 * @throws IOException if the manifest cannot be read
+	 */
+	public List<Photo> list(String patientId) throws IOException {
+		File manifest = manifest(patientId);
+		if (!manifest.exists()) {
+			return Collections.emptyList();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(manifest.toPath()));
+		final String[] entry = new String[4];
+		final List<Photo> photos = new ArrayList<Photo>();
+		RecordParser parser = new RecordParser();
+		RecordParser.FieldSink sink = new RecordParser.FieldSink() {
+			@Override
+			public void field(int index, ByteBuffer bytes, int offset, int length) {
+				if (index < entry.length) {
+					byte[] text = new byte[length];
+					for (int i = 0; i < length; i++) {
+						text[i] = bytes.get(offset + i);
+					}
+					entry[index] = new String(text, StandardCharsets.UTF_8);
+				}
+			}
+		};
+		int fields;
+		while ((fields = parser.parse(buffer, sink)) >= 0) {
+			if (fields >= 2) {
+				long length = fields >= 4 ? number(entry[2]) : -1;
+				long modified = fields >= 4 ? number(entry[3]) : -1;
+				photos.add(new Photo(entry[0], entry[1], blob(entry[0]), length, modified));
+			} else if (fields > 0) {
+				log.log(Level.WARNING, "skipping a malformed line of " + manifest);
+			}
+		}
+		return photos;
+	}
+
+	/**
+	 * moves every file of a directory into the store, skipping hidden files. Files new to the
+	 * manifest are added in name order after the rest.
+	 * @param String patientId
+	 * @param File directory
+	 * @return List the patient's photos
+	 * @throws IOException if the directory cannot be listed
+	 */
+	public synchronized List<Photo> sync(String patientId, File directory) throws IOException {
+		File[] listing = directory.listFiles();
+		if (listing == null) {
+			throw new IOException("unable to list " + directory);
+		}
+		Set<String> names = new TreeSet<String>();
+		for (File file : listing) {
+			names.add(file.getName());
+		}
+		return refresh(patientId, directory, names);
+	}
+
+	/**
+	 * moves the files of some names in a directory into the store, each replacing the photo
+	 * of the patient of the same name. A name with no file in the directory is left as
+	 * listed, since the files of listed photos have been moved out of it.
+	 * @param String patientId
+	 * @param File directory
+	 * @param Collection names the files to look at
+	 * @return List the patient's photos
+	 * @throws IOException
+	 */
+	public synchronized List<Photo> refresh(String patientId, File directory, Collection<String> names)
+			throws IOException {
+		List<File> files = new ArrayList<File>();
+		for (String name : names) {
+			File file = new File(directory, name);
+			if (file.isFile() && !file.isHidden() && !name.startsWith(".")) {
+				files.add(file);
+			}
+		}
+		return add(patientId, files);
+	}
+
+	/**
+	 * adds files to a patient's photos, each replacing the photo of the same name, and then
+	 * deletes them, so the store holds the only copy of every photo. A file is deleted only
+	 * once its bytes are stored and the manifest listing it has been written.
+	 * @param String patientId
+	 * @param Collection files
+	 * @return List the patient's photos
+	 * @throws IOException if a file cannot be stored, in which case none is deleted
+	 */
+	public synchronized List<Photo> add(String patientId, Collection<File> files) throws IOException {
+		Map<String, Photo> photos = new LinkedHashMap<String, Photo>();
+		for (Photo photo : list(patientId)) {
+			photos.put(photo.name, photo);
+		}
+		boolean changed = !hasManifest(patientId);
+		for (File file : files) {
+			Photo known = photos.get(file.getName());
+			/* a file stored before whose delete failed is not read again */
+			if (known == null || known.length != file.length() || known.modified != file.lastModified()) {
+				photos.put(file.getName(), store(file));
+				changed = true;
+			}
+		}
+		List<Photo> listing = new ArrayList<Photo>(photos.values());
+		if (changed) {
+			writeManifest(patientId, listing);
+		}
+		for (File file : files) {
+			if (!file.delete() && file.exists()) {
+				log.log(Level.WARNING, "unable to delete " + file + " once stored");
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * takes a photo off a patient's manifest. Its blob stays in the store, as another patient
+	 * may list the same bytes.
+	 * @param String patientId
+	 * @param String name
+	 * @return List the patient's photos
+	 * @throws IOException
+	 */
+	public synchronized List<Photo> remove(String patientId, String name) throws IOException {
+		List<Photo> listing = new ArrayList<Photo>(list(patientId));
+		for (int i = 0; i < listing.size(); i++) {
+			if (listing.get(i).name.equals(name)) {
+				listing.remove(i);
+				writeManifest(patientId, listing);
+				break;
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * copies a file into the blobs directory under its hash, unless it is already there
+	 * @param File file
+	 * @return Photo
+	 * @throws IOException
+	 */
+	private Photo store(File file) throws IOException {
+		if (!blobs.isDirectory() && !blobs.mkdirs()) {
+			throw new IOException("unable to create " + blobs);
+		}
+		MessageDigest digest = sha256();
+		/* taken first, so a file changed while it is copied is seen as changed next time */
+		long length = file.length();
+		long modified = file.lastModified();
+		/* hashed while it is copied, so the photo is read once */
+		File temporary = File.createTempFile("blob", ".tmp", blobs);
+		try {
+			byte[] buffer = new byte[1 << 16];
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = new FileOutputStream(temporary);
+				try {
+					int read;
+					while ((read = in.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			String hash = hex(digest.digest());
+			File blob = blob(hash);
+			if (!blob.exists()) {
+				File fan = blob.getParentFile();
+				if (!fan.isDirectory() && !fan.mkdirs()) {
+					throw new IOException("unable to create " + fan);
+				}
+				Files.move(temporary.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			return new Photo(hash, file.getName(), blob, length, modified);
+		} finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	private void writeManifest(String patientId, List<Photo> photos) throws IOException {
+		if (!manifests.isDirectory() && !manifests.mkdirs()) {
+			throw new IOException("unable to create " + manifests);
+		}
+		RecordWriter writer = new RecordWriter(true);
+		for (Photo photo : photos) {
+			writer.field(photo.hash);
+			writer.field(photo.name);
+			writer.field(String.valueOf(photo.length));
+			writer.field(String.valueOf(photo.modified));
+			writer.endRecord();
+		}
+		File temporary = File.createTempFile("manifest", ".tmp", manifests);
+		try {
+			OutputStream out = new FileOutputStream(temporary);
+			try {
+				out.write(writer.array(), 0, writer.length());
+			} finally {
+				out.close();
+			}
+			Files.move(temporary.toPath(), manifest(patientId).toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	private static long number(String text) {
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/* blobs are spread over directories named by the first two digits of their hash */
+	private File blob(String hash) {
+		return new File(new File(blobs, hash.substring(0, 2)), hash);
+	}
+
+	/* the manifest of a patient; any character of the id that is not a letter or digit is
+	 * written as %XX so an id can never name a path outside the store */
+	private File manifest(String patientId) {
+		StringBuilder name = new StringBuilder();
+		for (byte b : patientId.getBytes(StandardCharsets.UTF_8)) {
+			if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+				name.append((char) b);
+			} else {
+				name.append('%').append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+		}
+		return new File(manifests, name.append(".txt").toString());
+	}
+
+	private static MessageDigest sha256() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IOException(nsae);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,289 @@
+package org.ucl.medicaldb;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * a sorted, duplicate free list of patient ordinals, as stored against each key of an index.
+ * The ordinals are held in blocks of at most BLOCK, each sorted and each starting after the
+ * last ordinal of the block before it, so an add or remove only shifts the ordinals of one
+ * block however long the list is. A trigram such as "htt" is in nearly every patient's list,
+ * and as one array every edit of a patient had to shift the rest of it.
+ *
+ * New patients always get the highest ordinal so far, which makes the common add an append.
+ * An append fills the last block before it starts another, so a list built in order is made
+ * of full blocks.
+ */
+class PostingList {
+	/* the most ordinals in one block. A full block that has to take another is split in two. */
+	static final int BLOCK = 128;
+
+	private int[][] blocks = new int[1][];
+	private int[] counts = new int[1];
+	private int blockCount;
+	private int size;
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int ordinal) {
+		int b = block(ordinal);
+		return b >= 0 && Arrays.binarySearch(blocks[b], 0, counts[b], ordinal) >= 0;
+	}
+
+	/**
+	 * @param int ordinal
+	 * @return boolean false if the ordinal was already in the list
+	 */
+	boolean add(int ordinal) {
+		if (blockCount == 0 || counts[blockCount - 1] == BLOCK && last(blockCount - 1) < ordinal) {
+			insertBlock(blockCount, new int[] { ordinal, 0, 0, 0 }, 1);
+			size++;
+			return true;
+		}
+		int b = Math.max(block(ordinal), 0);
+		int at = Arrays.binarySearch(blocks[b], 0, counts[b], ordinal);
+		if (at >= 0) {
+			return false;
+		}
+		at = -at - 1;
+		if (counts[b] == BLOCK) {
+			int half = BLOCK / 2;
+			insertBlock(b + 1, Arrays.copyOfRange(blocks[b], half, BLOCK), half);
+			counts[b] = half;
+			if (at > half) {
+				b++;
+				at -= half;
+			}
+		}
+		int[] block = blocks[b];
+		if (counts[b] == block.length) {
+			block = blocks[b] = Arrays.copyOf(block, Math.min(BLOCK, block.length + (block.length >> 1) + 1));
+		}
+		System.arraycopy(block, at, block, at + 1, counts[b] - at);
+		block[at] = ordinal;
+		counts[b]++;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param int ordinal
+	 * @return boolean false if the ordinal was not in the list
+	 */
+	boolean remove(int ordinal) {
+		int b = block(ordinal);
+		if (b < 0) {
+			return false;
+		}
+		int at = Arrays.binarySearch(blocks[b], 0, counts[b], ordinal);
+		if (at < 0) {
+			return false;
+		}
+		System.arraycopy(blocks[b], at + 1, blocks[b], at, counts[b] - at - 1);
+		counts[b]--;
+		size--;
+		/* blocks emptied by removes are joined to a neighbour, so they stay at least half full */
+		if (counts[b] == 0) {
+			removeBlock(b);
+		} else if (b + 1 < blockCount && counts[b] + counts[b + 1] <= BLOCK / 2) {
+			join(b);
+		} else if (b > 0 && counts[b - 1] + counts[b] <= BLOCK / 2) {
+			join(b - 1);
+		}
+		return true;
+	}
+
+	/**
+	 * @return int[] a copy of the ordinals
+	 */
+	int[] toArray() {
+		int[] ordinals = new int[size];
+		copyInto(ordinals, 0);
+		return ordinals;
+	}
+
+	/**
+	 * @param int[] into
+	 * @param int at where in into the first ordinal goes
+	 * @return int the position after the last ordinal copied
+	 */
+	int copyInto(int[] into, int at) {
+		for (int b = 0; b < blockCount; b++) {
+			System.arraycopy(blocks[b], 0, into, at, counts[b]);
+			at += counts[b];
+		}
+		return at;
+	}
+
+	/**
+	 * @param IntPredicate visitor given each ordinal in order, false to stop
+	 * @return boolean false if the visitor stopped
+	 */
+	boolean visit(IntPredicate visitor) {
+		for (int b = 0; b < blockCount; b++) {
+			for (int i = 0; i < counts[b]; i++) {
+				if (!visitor.test(blocks[b][i])) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * intersects sorted ordinal arrays. The lists are walked shortest first, and each ordinal of
+	 * the shortest is looked up in the others with a galloping search, so the cost follows the
+	 * size of the smallest list rather than the largest.
+	 * @param PostingList[] lists
+	 * @return int[] the ordinals found in every list, in order
+	 */
+	static int[] intersect(PostingList[] lists) {
+		if (lists.length == 0) {
+			return new int[0];
+		}
+		PostingList[] sorted = lists.clone();
+		Arrays.sort(sorted, (a, b) -> Integer.compare(a.size, b.size));
+		PostingList smallest = sorted[0];
+		int[] result = new int[smallest.size];
+		int count = 0;
+		Cursor[] cursors = new Cursor[sorted.length];
+		for (int l = 1; l < sorted.length; l++) {
+			cursors[l] = new Cursor(sorted[l]);
+		}
+		for (int b = 0; b < smallest.blockCount; b++) {
+			outer: for (int i = 0; i < smallest.counts[b]; i++) {
+				int ordinal = smallest.blocks[b][i];
+				for (int l = 1; l < sorted.length; l++) {
+					if (!cursors[l].seek(ordinal)) {
+						if (cursors[l].block == sorted[l].blockCount) {
+							return Arrays.copyOf(result, count);
+						}
+						continue outer;
+					}
+				}
+				result[count++] = ordinal;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @param int[] a sorted ordinals
+	 * @param int[] b sorted ordinals
+	 * @return int[] the ordinals in both, in order
+	 */
+	static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/** a position in a list, which only moves forward */
+	private static final class Cursor {
+		private final PostingList list;
+		private int block;
+		private int at;
+
+		Cursor(PostingList list) {
+			this.list = list;
+		}
+
+		/**
+		 * moves to the first ordinal no smaller than the one given, galloping over the blocks
+		 * that end before it
+		 * @return boolean true if the list holds the ordinal
+		 */
+		boolean seek(int ordinal) {
+			int step = 1;
+			int low = block;
+			int high = block;
+			while (high < list.blockCount && list.last(high) < ordinal) {
+				low = high + 1;
+				high += step;
+				step <<= 1;
+			}
+			high = Math.min(high, list.blockCount);
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (list.last(mid) < ordinal) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			if (low != block) {
+				block = low;
+				at = 0;
+			}
+			if (block == list.blockCount) {
+				return false;
+			}
+			int found = Arrays.binarySearch(list.blocks[block], at, list.counts[block], ordinal);
+			at = found >= 0 ? found : -found - 1;
+			return found >= 0;
+		}
+	}
+
+	private int last(int b) {
+		return blocks[b][counts[b] - 1];
+	}
+
+	/* the last block starting at or before the ordinal, or -1 if it comes before every block */
+	private int block(int ordinal) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (blocks[mid][0] <= ordinal) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	private void insertBlock(int b, int[] block, int count) {
+		if (blockCount == blocks.length) {
+			int grown = blockCount + (blockCount >> 1) + 1;
+			blocks = Arrays.copyOf(blocks, grown);
+			counts = Arrays.copyOf(counts, grown);
+		}
+		System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+		System.arraycopy(counts, b, counts, b + 1, blockCount - b);
+		blocks[b] = block;
+		counts[b] = count;
+		blockCount++;
+	}
+
+	private void removeBlock(int b) {
+		System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+		System.arraycopy(counts, b + 1, counts, b, blockCount - b - 1);
+		blockCount--;
+		blocks[blockCount] = null;
+	}
+
+	/* moves the ordinals of block b + 1 onto the end of block b */
+	private void join(int b) {
+		int count = counts[b] + counts[b + 1];
+		if (blocks[b].length < count) {
+			blocks[b] = Arrays.copyOf(blocks[b], count);
+		}
+		System.arraycopy(blocks[b + 1], 0, blocks[b], counts[b], counts[b + 1]);
+		counts[b] = count;
+		removeBlock(b + 1);
+	}
+}
@@ -0,0 +1,100 @@
+package org.ucl.medicaldb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the primary key of the registry, from patient id to the ordinal of its row. The ids of the
+ * snapshot are looked up in its id index where it is mapped, so opening a snapshot reads no
+ * id at all; only the ids given to a row, or taken from one, since the snapshot was saved are
+ * held in memory, with the few ids that cannot be packed. A patient with no id has no key.
+ *
+ * Changes are made under the database's write lock, but the key is also read by validation
+ * outside it, so every method is synchronized.
+ */
+class PrimaryKey {
+	/* null for a database with no snapshot, or one whose snapshot has no id index */
+	private final PatientSnapshot snapshot;
+	private final Map<String, Integer> unpacked;
+	/* ids whose row is not the one the snapshot gives them, or that it does not hold */
+	private final Map<String, Integer> changed = new HashMap<String, Integer>();
+	/* ids of the snapshot that no row has any more */
+	private final PatientIdSet dropped = new PatientIdSet();
+
+	/** an empty key */
+	PrimaryKey() {
+		this(null);
+	}
+
+	/**
+	 * @param PatientSnapshot snapshot whose id index holds the keys to start with, or null
+	 */
+	PrimaryKey(PatientSnapshot snapshot) {
+		this.snapshot = snapshot != null && snapshot.hasIdIndex() ? snapshot : null;
+		this.unpacked = this.snapshot == null ? new HashMap<String, Integer>() : this.snapshot.unpackedIds();
+	}
+
+	/**
+	 * @param String id
+	 * @return int the ordinal of the row with the id, or -1
+	 */
+	synchronized int get(String id) {
+		Integer ordinal = changed.get(id);
+		if (ordinal != null) {
+			return ordinal;
+		}
+		return dropped.contains(id) ? -1 : saved(id);
+	}
+
+	/**
+	 * @param String id
+	 * @return boolean true if a row has the id
+	 */
+	boolean contains(String id) {
+		return get(id) >= 0;
+	}
+
+	/**
+	 * gives the id to a row
+	 * @param String id
+	 * @param int ordinal
+	 */
+	synchronized void put(String id, int ordinal) {
+		if (id.isEmpty()) {
+			return;
+		}
+		if (saved(id) == ordinal) {
+			changed.remove(id);
+			dropped.remove(id);
+		} else {
+			changed.put(id, ordinal);
+		}
+	}
+
+	/**
+	 * takes the id from a row, if that row has it
+	 * @param String id
+	 * @param int ordinal
+	 * @return boolean false if the id is not the row's
+	 */
+	synchronized boolean remove(String id, int ordinal) {
+		if (id.isEmpty() || get(id) != ordinal) {
+			return false;
+		}
+		changed.remove(id);
+		if (saved(id) >= 0) {
+			dropped.add(id);
+		}
+		return true;
+	}
+
+	/* the ordinal the snapshot's id index gives the id, or -1 */
+	private int saved(String id) {
+		long packed = PatientId.pack(id);
+		if (packed == PatientId.NONE) {
+			Integer ordinal = unpacked.get(id);
+			return ordinal == null ? -1 : ordinal;
+		}
+		return snapshot == null || packed == 0 ? -1 : snapshot.ordinalOfId(packed);
+	}
+}
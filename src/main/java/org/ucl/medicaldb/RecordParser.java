@@ -0,0 +1,168 @@
+package org.ucl.medicaldb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * parser for the '|' separated record format of db.txt, working directly on the bytes of a
+ * buffer. Each record is one line. A field is either written as it is, or, if it starts with a
+ * double quote, runs up to the closing quote, and inside the quotes
+ *
+ * <pre>
+ * ""  or  \"   a double quote
+ * \\           a backslash
+ * \n  \r       a line break, so a record never spans more than one line
+ * </pre>
+ *
+ * Fields are handed to a FieldSink as slices of the buffer being parsed; only fields which
+ * actually contain escapes are copied, into a scratch buffer owned by the parser. Nothing is
+ * allocated per record, so one parser should be used by one thread at a time.
+ */
+class RecordParser {
+	private static final byte QUOTE = '"';
+	private static final byte ESCAPE = '\\';
+	private final byte delimiter;
+	private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+	/**
+	 * receives the fields of a record, in order. The bytes are only valid until the call returns.
+	 */
+	interface FieldSink {
+		void field(int index, ByteBuffer bytes, int offset, int length) throws IOException;
+	}
+
+	RecordParser() {
+		this(Database.DELIM);
+	}
+
+	RecordParser(char delimiter) {
+		this.delimiter = (byte) delimiter;
+	}
+
+	/**
+	 * parses the record starting at the buffer's position and moves the position past its line
+	 * break. Blank lines give a record of no fields.
+	 * @param ByteBuffer buffer
+	 * @param FieldSink sink
+	 * @return int the number of fields in the record, or -1 if the buffer has no more records
+	 * @throws IOException if a quoted field is not closed on the same line
+	 */
+	int parse(ByteBuffer buffer, FieldSink sink) throws IOException {
+		int position = buffer.position();
+		int limit = buffer.limit();
+		if (position >= limit) {
+			return -1;
+		}
+		int lineEnd = position;
+		while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+			lineEnd++;
+		}
+		buffer.position(lineEnd < limit ? lineEnd + 1 : limit);
+		if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+			lineEnd--;
+		}
+		if (lineEnd == position) {
+			return 0;
+		}
+
+		int index = 0;
+		while (true) {
+			int end;
+			if (buffer.get(position) == QUOTE) {
+				end = parseQuoted(buffer, position + 1, lineEnd, index, sink);
+			} else {
+				end = position;
+				while (end < lineEnd && buffer.get(end) != delimiter) {
+					end++;
+				}
+				sink.field(index, buffer, position, end - position);
+			}
+			index++;
+			if (end >= lineEnd) {
+				return index;
+			}
+			position = end + 1;
+			if (position == lineEnd) {
+				/* a trailing delimiter ends with an empty field */
+				sink.field(index, buffer, position, 0);
+				return index + 1;
+			}
+		}
+	}
+
+	/**
+	 * handles a field that opened with a quote. If it holds no escapes it is passed on as a
+	 * slice of the buffer, otherwise it is unescaped into the scratch buffer first.
+	 * @return int the position just past the field, the delimiter or the end of the line
+	 */
+	private int parseQuoted(ByteBuffer buffer, int start, int lineEnd, int index, FieldSink sink)
+			throws IOException {
+		int i = start;
+		while (i < lineEnd) {
+			byte b = buffer.get(i);
+			if (b == ESCAPE || (b == QUOTE && i + 1 < lineEnd && buffer.get(i + 1) == QUOTE)) {
+				return unescape(buffer, start, i, lineEnd, index, sink);
+			}
+			if (b == QUOTE) {
+				sink.field(index, buffer, start, i - start);
+				return skipToDelimiter(buffer, i + 1, lineEnd);
+			}
+			i++;
+		}
+		throw new IOException("unterminated quoted field " + index);
+	}
+
+	private int unescape(ByteBuffer buffer, int start, int escapeAt, int lineEnd, int index, FieldSink sink)
+			throws IOException {
+		scratch.clear();
+		for (int i = start; i < escapeAt; i++) {
+			put(buffer.get(i));
+		}
+		int i = escapeAt;
+		while (i < lineEnd) {
+			byte b = buffer.get(i);
+			if (b == ESCAPE && i + 1 < lineEnd) {
+				byte next = buffer.get(i + 1);
+				if (next == 'n') {
+					put((byte) '\n');
+				} else if (next == 'r') {
+					put((byte) '\r');
+				} else if (next == QUOTE || next == ESCAPE) {
+					put(next);
+				} else {
+					put(b);
+					put(next);
+				}
+				i += 2;
+			} else if (b == QUOTE && i + 1 < lineEnd && buffer.get(i + 1) == QUOTE) {
+				put(QUOTE);
+				i += 2;
+			} else if (b == QUOTE) {
+				sink.field(index, scratch, 0, scratch.position());
+				return skipToDelimiter(buffer, i + 1, lineEnd);
+			} else {
+				put(b);
+				i++;
+			}
+		}
+		throw new IOException("unterminated quoted field " + index);
+	}
+
+	/* anything between a closing quote and the next delimiter is ignored */
+	private int skipToDelimiter(ByteBuffer buffer, int position, int lineEnd) {
+		while (position < lineEnd && buffer.get(position) != delimiter) {
+			position++;
+		}
+		return position;
+	}
+
+	private void put(byte b) {
+		if (!scratch.hasRemaining()) {
+			ByteBuffer grown = ByteBuffer.allocate(scratch.capacity() * 2);
+			scratch.flip();
+			grown.put(scratch);
+			scratch = grown;
+		}
+		scratch.put(b);
+	}
+}
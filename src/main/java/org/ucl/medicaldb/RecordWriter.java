@@ -0,0 +1,198 @@
+package org.ucl.medicaldb;
+
+import java.util.Arrays;
+
+/**
+ * writes patient fields as UTF-8 straight into a reusable byte array, the counterpart of
+ * RecordParser. A record writer separates fields with the delimiter and quotes a field only if
+ * it needs it: if it holds the delimiter or a line break, or starts with a quote. A field is
+ * written unquoted until such a character turns up, and only then is the opening quote put in
+ * and the part already written escaped, so no field is scanned twice and nothing is allocated
+ * per field. A plain writer just encodes, for the length prefixed fields of a snapshot.
+ *
+ * A field is written between beginField() and endField(), in as many appends as it takes.
+ */
+class RecordWriter {
+	private static final byte QUOTE = '"';
+	private static final byte ESCAPE = '\\';
+	private final boolean escaping;
+	private byte[] bytes = new byte[512];
+	private int length;
+	private int fields;
+	private int fieldStart;
+	private boolean quoted;
+
+	/**
+	 * @param boolean escaping true for db.txt record lines, false for plain UTF-8
+	 */
+	RecordWriter(boolean escaping) {
+		this.escaping = escaping;
+	}
+
+	/** empties the buffer, ready for the next record */
+	void reset() {
+		length = 0;
+		fields = 0;
+	}
+
+	byte[] array() {
+		return bytes;
+	}
+
+	int length() {
+		return length;
+	}
+
+	/**
+	 * writes every field of a patient, in record order
+	 * @param Patient patient
+	 */
+	void write(Patient patient) {
+		for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+			patient.writeField(field, this);
+		}
+	}
+
+	/**
+	 * writes a whole field
+	 * @param String value
+	 */
+	void field(String value) {
+		beginField();
+		append(value);
+		endField();
+	}
+
+	void beginField() {
+		if (escaping && fields > 0) {
+			put((byte) Database.DELIM);
+		}
+		fields++;
+		fieldStart = length;
+		quoted = false;
+	}
+
+	void endField() {
+		if (quoted) {
+			put(QUOTE);
+		}
+	}
+
+	/** ends a record line */
+	void endRecord() {
+		put((byte) '\n');
+		fields = 0;
+	}
+
+	void append(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				append(c);
+			} else if (c < 0x800) {
+				put((byte) (0xC0 | c >> 6));
+				put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				put((byte) (0xF0 | codePoint >> 18));
+				put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				put((byte) (0x80 | codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				/* an unpaired surrogate, replaced as String.getBytes() does */
+				put((byte) '?');
+			} else {
+				put((byte) (0xE0 | c >> 12));
+				put((byte) (0x80 | c >> 6 & 0x3F));
+				put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * appends one ASCII character, escaping it if need be
+	 * @param char c
+	 */
+	void append(char c) {
+		if (!escaping) {
+			put((byte) c);
+			return;
+		}
+		if (!quoted && (c == Database.DELIM || c == '\n' || c == '\r' || (c == QUOTE && length == fieldStart))) {
+			quote();
+		}
+		if (!quoted) {
+			put((byte) c);
+		} else if (c == '\n') {
+			put(ESCAPE);
+			put((byte) 'n');
+		} else if (c == '\r') {
+			put(ESCAPE);
+			put((byte) 'r');
+		} else if (c == QUOTE || c == ESCAPE) {
+			put(ESCAPE);
+			put((byte) c);
+		} else {
+			put((byte) c);
+		}
+	}
+
+	/**
+	 * appends a number in decimal
+	 * @param long value, not negative
+	 * @param int width the least number of digits, padded with leading zeros
+	 */
+	void appendNumber(long value, int width) {
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		digits = Math.max(digits, width);
+		ensure(digits);
+		for (int i = length + digits - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length += digits;
+	}
+
+	/*
+	 * switches the current field to quoted: puts the opening quote at its start and escapes the
+	 * quotes and backslashes already written, which unquoted were plain characters
+	 */
+	private void quote() {
+		int extra = 1;
+		for (int i = fieldStart; i < length; i++) {
+			if (bytes[i] == QUOTE || bytes[i] == ESCAPE) {
+				extra++;
+			}
+		}
+		ensure(extra);
+		int from = length - 1;
+		int to = length - 1 + extra;
+		while (from >= fieldStart) {
+			byte b = bytes[from--];
+			bytes[to--] = b;
+			if (b == QUOTE || b == ESCAPE) {
+				bytes[to--] = ESCAPE;
+			}
+		}
+		bytes[fieldStart] = QUOTE;
+		length += extra;
+		quoted = true;
+	}
+
+	private void put(byte b) {
+		if (length == bytes.length) {
+			ensure(1);
+		}
+		bytes[length++] = b;
+	}
+
+	private void ensure(int more) {
+		if (length + more > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.ucl.medicaldb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the ranked matches of a query, held as patient ordinals only, four bytes a match, so that a
+ * search matching the whole registry costs no more than an int array. The fields of a row are
+ * read when the row is asked for, which for a list on screen means only the rows in view. They
+ * are read from the version of the registry the search ran against, so a result stays as it
+ * was found while patients are edited, and never has a gap where one was removed.
+ *
+ * Matches are kept in one array of ordinals per score. The database finds them in ordinal order,
+ * so each array stays sorted as it grows and the result is always in its final order: highest
+ * score first, then the order of the registry. A result can be read while a background search
+ * is still filling it.
+ *
+ * A ranked result that only wants its first few matches, for one page, keeps just the best of
+ * them so far in a bounded heap, so its memory follows the page wanted rather than the number
+ * of matches. The heap is sorted into the buckets once the search is complete, and only then
+ * can such a result be read.
+ */
+public class SearchResult {
+	private final PatientQuery query;
+	/* the version searched, set before the first match is added */
+	private PatientTable table;
+	/* for a query whose matches all score the same, the number of matches worth finding */
+	private final int limit;
+	/* buckets[score], the ordinals of that score in order, created as scores turn up */
+	private int[][] buckets = new int[0][];
+	private int[] bucketSizes = new int[0];
+	private int size;
+	/* for a ranked query with a limit, the best matches so far as keys, the worst at the top */
+	private long[] heap;
+	private volatile boolean cancelled;
+	private volatile boolean complete;
+
+	/**
+	 * @param PatientQuery query
+	 * @param int limit the number of leading matches wanted, or Integer.MAX_VALUE for all
+	 */
+	SearchResult(PatientQuery query, int limit) {
+		this.query = query;
+		this.limit = limit;
+	}
+
+	public PatientQuery getQuery() {
+		return query;
+	}
+
+	synchronized void pin(PatientTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param int ordinal
+	 * @param int score
+	 * @return boolean false if the search should stop
+	 */
+	synchronized boolean add(int ordinal, int score) {
+		if (cancelled) {
+			return false;
+		}
+		if (query.isRanked() && limit != Integer.MAX_VALUE) {
+			offer(ordinal, score);
+			return true;
+		}
+		bucket(ordinal, score);
+		return query.isRanked() || size < limit;
+	}
+
+	private void bucket(int ordinal, int score) {
+		if (score >= buckets.length) {
+			buckets = Arrays.copyOf(buckets, score + 1);
+			bucketSizes = Arrays.copyOf(bucketSizes, score + 1);
+		}
+		int[] bucket = buckets[score];
+		if (bucket == null || bucketSizes[score] == bucket.length) {
+			bucket = buckets[score] = Arrays.copyOf(bucket == null ? new int[0] : bucket, bucketSizes[score] * 2 + 4);
+		}
+		bucket[bucketSizes[score]++] = ordinal;
+		size++;
+	}
+
+	/*
+	 * a key orders matches as the result does: by score, then the earlier ordinal first. As
+	 * matches are found in ordinal order, one that only ties with the worst kept is never better.
+	 */
+	private void offer(int ordinal, int score) {
+		long key = (long) score << 32 | (~ordinal & 0xFFFFFFFFL);
+		if (size < limit) {
+			if (heap == null || size == heap.length) {
+				heap = Arrays.copyOf(heap == null ? new long[0] : heap, (int) Math.min(limit, size * 2L + 16));
+			}
+			int i = size++;
+			while (i > 0 && heap[(i - 1) >> 1] > key) {
+				heap[i] = heap[(i - 1) >> 1];
+				i = (i - 1) >> 1;
+			}
+			heap[i] = key;
+		} else if (size > 0 && key > heap[0]) {
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && heap[child + 1] < heap[child]) {
+					child++;
+				}
+				if (heap[child] >= key) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = key;
+		}
+	}
+
+	synchronized void markComplete() {
+		if (heap != null) {
+			long[] keys = Arrays.copyOf(heap, size);
+			heap = null;
+			size = 0;
+			Arrays.sort(keys);
+			for (int i = keys.length - 1; i >= 0; i--) {
+				bucket(~(int) keys[i], (int) (keys[i] >>> 32));
+			}
+		}
+		complete = true;
+	}
+
+	/** stops the search filling this result */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** @return boolean true once the search has found every match */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/** @return int the number of matches found so far */
+	public synchronized int size() {
+		return size;
+	}
+
+	private synchronized PatientTable table() {
+		return table;
+	}
+
+	/**
+	 * @param int i the rank of a match
+	 * @return int its ordinal
+	 */
+	private synchronized int ordinal(int i) {
+		for (int score = buckets.length - 1; score >= 0; score--) {
+			if (i < bucketSizes[score]) {
+				return buckets[score][i];
+			}
+			i -= bucketSizes[score];
+		}
+		throw new IndexOutOfBoundsException("no match " + i);
+	}
+
+	/**
+	 * @param int i the rank of a match
+	 * @param PatientQuery.Field field
+	 * @return String the value of the field when the search ran
+	 */
+	public String field(int i, PatientQuery.Field field) {
+		int ordinal = ordinal(i);
+		return table().field(ordinal, field.index);
+	}
+
+	/**
+	 * @param int i
+	 * @return Patient the patient as it was when the search ran
+	 */
+	public Patient get(int i) {
+		int ordinal = ordinal(i);
+		return table().get(ordinal);
+	}
+
+	/**
+	 * @param int offset the rank of the first patient wanted
+	 * @param int limit the most patients wanted
+	 * @return List the patients in that range of ranks
+	 */
+	public List<Patient> page(int offset, int limit) {
+		List<Patient> page = new ArrayList<Patient>();
+		int end = (int) Math.min(size(), (long) offset + limit);
+		for (int i = offset; i < end; i++) {
+			page.add(get(i));
+		}
+		return page;
+	}
+}
@@ -0,0 +1,140 @@
+package org.ucl.medicaldb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * index of every three character sequence in the search text of each patient. A patient can
+ * only contain a query as a substring if it contains every trigram of the query, so the
+ * intersection of the query's posting lists is a small superset of the matches, which the
+ * caller then checks with String.contains(). Queries shorter than three characters cannot be
+ * narrowed down this way.
+ */
+class TrigramIndex {
+	private final Map<Long, PostingList> postings = new HashMap<Long, PostingList>();
+
+	/* three chars packed into one key */
+	private static long trigram(String text, int i) {
+		return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+	}
+
+	/* the distinct trigrams of a text, sorted */
+	private static long[] trigrams(String text) {
+		if (text.length() < 3) {
+			return new long[0];
+		}
+		long[] keys = new long[text.length() - 2];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = trigram(text, i);
+		}
+		Arrays.sort(keys);
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (count == 0 || keys[count - 1] != keys[i]) {
+				keys[count++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(keys, count);
+	}
+
+	/**
+	 * @param int ordinal
+	 * @param String text the lower cased search text of the patient
+	 */
+	void add(int ordinal, String text) {
+		for (long key : trigrams(text)) {
+			add(ordinal, key);
+		}
+	}
+
+	/**
+	 * @param int ordinal
+	 * @param String text the search text the patient was added with
+	 */
+	void remove(int ordinal, String text) {
+		for (long key : trigrams(text)) {
+			remove(ordinal, key);
+		}
+	}
+
+	/**
+	 * moves an edited patient from the trigrams of its old text to those of its new one. Only
+	 * the trigrams the edit added or took away are touched, so changing one field leaves the
+	 * long lists of the trigrams every patient has, such as "htt" of every web address, alone.
+	 * @param int ordinal
+	 * @param String before the search text the patient was added with
+	 * @param String after the lower cased search text of the edited patient
+	 */
+	void replace(int ordinal, String before, String after) {
+		long[] removed = trigrams(before);
+		long[] added = trigrams(after);
+		int i = 0;
+		int j = 0;
+		while (i < removed.length || j < added.length) {
+			if (j == added.length || i < removed.length && removed[i] < added[j]) {
+				remove(ordinal, removed[i++]);
+			} else if (i == removed.length || added[j] < removed[i]) {
+				add(ordinal, added[j++]);
+			} else {
+				i++;
+				j++;
+			}
+		}
+	}
+
+	private void add(int ordinal, long key) {
+		PostingList list = postings.get(key);
+		if (list == null) {
+			list = new PostingList();
+			postings.put(key, list);
+		}
+		list.add(ordinal);
+	}
+
+	private void remove(int ordinal, long key) {
+		PostingList list = postings.get(key);
+		if (list != null && list.remove(ordinal) && list.size() == 0) {
+			postings.remove(key);
+		}
+	}
+
+	/**
+	 * @param String query lower cased
+	 * @return int an upper bound on the number of candidates, the size of the shortest posting
+	 *         list of the query, or -1 if the query is too short to have any trigrams
+	 */
+	int estimate(String query) {
+		if (query.length() < 3) {
+			return -1;
+		}
+		int smallest = Integer.MAX_VALUE;
+		for (int i = 0; i + 3 <= query.length(); i++) {
+			PostingList list = postings.get(trigram(query, i));
+			if (list == null) {
+				return 0;
+			}
+			smallest = Math.min(smallest, list.size());
+		}
+		return smallest;
+	}
+
+	/**
+	 * @param String query lower cased
+	 * @return int[] the ordinals of patients containing every trigram of the query, or null if
+	 *         the query is too short to have any
+	 */
+	int[] candidates(String query) {
+		if (query.length() < 3) {
+			return null;
+		}
+		PostingList[] lists = new PostingList[query.length() - 2];
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = postings.get(trigram(query, i));
+			if (lists[i] == null) {
+				return new int[0];
+			}
+		}
+		return PostingList.intersect(lists);
+	}
+}
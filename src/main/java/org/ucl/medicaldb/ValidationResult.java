@@ -0,0 +1,84 @@
+package org.ucl.medicaldb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * the problems the validators found with one record, in the order its fields were set. A
+ * result never changes once made, so it can be handed between threads freely, while the
+ * problems are collected on the one thread setting the record's fields.
+ */
+public final class ValidationResult {
+	/** the result of a record with no problems */
+	public static final ValidationResult VALID = new ValidationResult(Collections.<String>emptyList());
+	private static final Pattern MARKUP = Pattern.compile("<[^>]*>");
+	/* the results of a single problem, shared as most rejected records have just one and the
+	 * messages are the few constants of the setters */
+	private static final ConcurrentHashMap<String, ValidationResult> single = new ConcurrentHashMap<String, ValidationResult>();
+	private final List<String> messages;
+	/* the plain text of the messages, made the first time it is asked for */
+	private volatile String text;
+
+	private ValidationResult(List<String> messages) {
+		this.messages = messages;
+	}
+
+	/** collects the problems with a record as its fields are set, on one thread */
+	static final class Builder {
+		private final List<String> messages = new ArrayList<String>(2);
+
+		void add(String message) {
+			messages.add(message);
+		}
+
+		ValidationResult build() {
+			if (messages.isEmpty()) {
+				return VALID;
+			}
+			if (messages.size() == 1) {
+				ValidationResult result = single.get(messages.get(0));
+				if (result == null) {
+					result = new ValidationResult(Collections.singletonList(messages.get(0)));
+					single.putIfAbsent(messages.get(0), result);
+				}
+				return result;
+			}
+			return new ValidationResult(Collections.unmodifiableList(new ArrayList<String>(messages)));
+		}
+	}
+
+	/** @return boolean true if the record has no problems */
+	public boolean isValid() {
+		return messages.isEmpty();
+	}
+
+	/** @return List the messages, some of them html for the dialogs of the editor */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	/** @return String[] the messages, one to a line in a JOptionPane */
+	public String[] toArray() {
+		return messages.toArray(new String[messages.size()]);
+	}
+
+	/** @return String the messages as plain text, separated by "; " */
+	@Override
+	public String toString() {
+		if (text != null) {
+			return text;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String message : messages) {
+			if (sb.length() > 0) {
+				sb.append("; ");
+			}
+			sb.append(MARKUP.matcher(message).replaceAll(""));
+		}
+		text = sb.toString();
+		return text;
+	}
+}
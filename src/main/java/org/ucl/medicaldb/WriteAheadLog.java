@@ -0,0 +1,309 @@
+package org.ucl.medicaldb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * append-only log of the changes made to the database since the last snapshot. Every insert,
+ * update and delete is written as one framed record:
+ *
+ * <pre>
+ * int length | int crc32 | byte operation | length bytes of UTF-8 payload
+ * </pre>
+ *
+ * Writers which arrive while another thread is inside fsync are group committed: the next
+ * fsync covers all of their records at once, so concurrent edits share the cost of a single
+ * disk flush.
+ *
+ * A save rotates the log: the records so far are moved aside to a ".old" file, which is deleted
+ * once the snapshot holding them is safely written, while new changes go to a fresh log. Until
+ * then replay reads the old file first, so a save that fails part way loses nothing.
+ */
+public class WriteAheadLog implements Closeable {
+	private static final Logger log = Logger.getLogger(Class.class.getName());
+	static final byte INSERT = 1;
+	static final byte UPDATE = 2;
+	static final byte DELETE = 3;
+	/* length + crc + operation */
+	private static final int HEADER = 9;
+	/* deferred records are written out once this many bytes of them are waiting */
+	private static final int BATCH = 1 << 20;
+	private final String fileLocation;
+	private final Path rotated;
+	/* guarded by this; replaced when the log is rotated */
+	private FileChannel channel;
+	private final Object syncLock = new Object();
+	/* guarded by this, reused for every record */
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer frame = ByteBuffer.allocate(1024);
+	/* guarded by this */
+	private long written;
+	/* guarded by syncLock */
+	private long synced;
+
+	/**
+	 * callback used by replay() to hand each complete log record back to the database
+	 */
+	interface Replayer {
+		void apply(byte operation, String payload);
+	}
+
+	public WriteAheadLog(String fileLocation) throws IOException {
+		this.fileLocation = fileLocation;
+		this.rotated = Paths.get(fileLocation + ".old");
+		this.channel = open();
+		channel.position(channel.size());
+	}
+
+	private FileChannel open() throws IOException {
+		return FileChannel.open(Paths.get(fileLocation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * appends one record to the log and returns once it is durable on disk.
+	 * @param byte operation
+	 * @param String payload
+	 * @throws IOException
+	 */
+	public void append(byte operation, String payload) throws IOException {
+		commit(write(operation, payload));
+	}
+
+	/**
+	 * writes one record to the end of the log without waiting for it to reach the disk. The
+	 * database calls this while it still holds its own lock, so records land in the log in the
+	 * same order as the changes were made in memory, and calls commit() after releasing it.
+	 * @param byte operation
+	 * @param String payload
+	 * @return long the sequence number to pass to commit()
+	 * @throws IOException
+	 */
+	long write(byte operation, String payload) throws IOException {
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		return write(operation, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * as write(byte, String), for a payload already encoded, such as the buffer of a
+	 * RecordWriter. The frame is built in a buffer kept for the purpose, so nothing is
+	 * allocated per record.
+	 * @param byte operation
+	 * @param byte[] payload
+	 * @param int offset
+	 * @param int length
+	 * @return long the sequence number to pass to commit()
+	 * @throws IOException
+	 */
+	synchronized long write(byte operation, byte[] payload, int offset, int length) throws IOException {
+		long sequence = frame(operation, payload, offset, length);
+		drain();
+		return sequence;
+	}
+
+	/**
+	 * as write(byte, byte[], int, int), but the record may wait in memory, behind the others
+	 * written this way, until BATCH bytes of them have built up or the log is committed. A bulk
+	 * change such as an import then costs a few large writes rather than one per record.
+	 * @param byte operation
+	 * @param byte[] payload
+	 * @param int offset
+	 * @param int length
+	 * @return long the sequence number to pass to commit()
+	 * @throws IOException
+	 */
+	synchronized long writeDeferred(byte operation, byte[] payload, int offset, int length) throws IOException {
+		long sequence = frame(operation, payload, offset, length);
+		if (frame.position() >= BATCH) {
+			drain();
+		}
+		return sequence;
+	}
+
+	/* adds a record to those waiting in the frame buffer; called holding this */
+	private long frame(byte operation, byte[] payload, int offset, int length) {
+		crc.reset();
+		crc.update(operation);
+		crc.update(payload, offset, length);
+		if (frame.remaining() < HEADER + length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + HEADER + length));
+			frame.flip();
+			frame = larger.put(frame);
+		}
+		frame.putInt(length).putInt((int) crc.getValue()).put(operation).put(payload, offset, length);
+		return ++written;
+	}
+
+	/* writes out the records waiting in the frame buffer; called holding this */
+	private void drain() throws IOException {
+		frame.flip();
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+		frame.clear();
+	}
+
+	/**
+	 * forces the log to disk, unless an fsync that started after our record was written has
+	 * already done so. Whoever holds syncLock flushes every record written so far, so threads
+	 * queued behind it usually find their record already committed.
+	 * @param long sequence
+	 * @throws IOException
+	 */
+	void commit(long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (synced >= sequence) {
+				return;
+			}
+			long target;
+			FileChannel current;
+			synchronized (this) {
+				drain();
+				target = written;
+				current = channel;
+			}
+			current.force(false);
+			synced = target;
+		}
+	}
+
+	/**
+	 * reads the log from the start, the rotated records of an unfinished save first, and
+	 * passes every intact record to the replayer. A torn or corrupt record at the tail (from a
+	 * crash mid-write) ends the replay and is cut off, so new records are appended after the
+	 * last good one.
+	 * @param Replayer replayer
+	 * @return int the number of records replayed
+	 * @throws IOException
+	 */
+	int replay(Replayer replayer) throws IOException {
+		int count = 0;
+		long[] goodLength = new long[1];
+		if (Files.exists(rotated)) {
+			count += replay(rotated.toString(), replayer, goodLength);
+		}
+		count += replay(fileLocation, replayer, goodLength);
+		synchronized (this) {
+			if (goodLength[0] < channel.size()) {
+				log.log(Level.WARNING, "discarding incomplete tail of " + fileLocation);
+				channel.truncate(goodLength[0]);
+				channel.force(true);
+			}
+			channel.position(goodLength[0]);
+		}
+		return count;
+	}
+
+	/*
+	 * replays one file, leaving the length of its intact records in goodLength[0]
+	 */
+	private int replay(String location, Replayer replayer, long[] goodLength) throws IOException {
+		int count = 0;
+		long fileLength = new File(location).length();
+		goodLength[0] = 0;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(location)));
+			while (true) {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				byte operation = in.readByte();
+				if (length < 0 || length > fileLength) {
+					log.log(Level.WARNING, "corrupt record length in " + location);
+					break;
+				}
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				CRC32 crc = new CRC32();
+				crc.update(operation);
+				crc.update(bytes);
+				if ((int) crc.getValue() != checksum) {
+					log.log(Level.WARNING, "checksum mismatch in " + location);
+					break;
+				}
+				replayer.apply(operation, new String(bytes, StandardCharsets.UTF_8));
+				goodLength[0] += HEADER + length;
+				count++;
+			}
+		} catch (EOFException eof) {
+			/* normal end of the log, or a record torn by a crash */
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * moves the records written so far aside, to be dropped once a snapshot holding them has
+	 * been written, and starts a fresh log for the changes after it. If an earlier save never
+	 * got as far as dropping its records, these are added after them.
+	 * @throws IOException
+	 */
+	void rotate() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				drain();
+				channel.force(false);
+				synced = written;
+				if (Files.exists(rotated)) {
+					FileChannel older = FileChannel.open(rotated, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+					try {
+						long position = 0;
+						while (position < channel.size()) {
+							position += channel.transferTo(position, channel.size() - position, older);
+						}
+						older.force(true);
+					} finally {
+						older.close();
+					}
+					channel.truncate(0);
+					channel.position(0);
+					channel.force(true);
+				} else {
+					channel.close();
+					Files.move(Paths.get(fileLocation), rotated, StandardCopyOption.ATOMIC_MOVE);
+					channel = open();
+				}
+			}
+		}
+	}
+
+	/**
+	 * deletes the records set aside by rotate(). Only called once a snapshot containing every
+	 * one of them has been safely written.
+	 * @throws IOException
+	 */
+	void dropRotated() throws IOException {
+		Files.deleteIfExists(rotated);
+	}
+
+	/**
+	 * @return long the current size of the log in bytes
+	 * @throws IOException
+	 */
+	synchronized long size() throws IOException {
+		drain();
+		return channel.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+}
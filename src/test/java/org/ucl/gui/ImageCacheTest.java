@@ -0,0 +1,129 @@
+package org.ucl.gui;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageCacheTest {
+	/* a 100 by 100 image of ints is 40000 bytes */
+	private static final int IMAGE_BYTES = 100 * 100 * 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/* a cache whose budget holds two images but not three */
+	private static ImageCache cache() {
+		return new ImageCache(IMAGE_BYTES * 2.5 / Runtime.getRuntime().maxMemory());
+	}
+
+	private static BufferedImage image() {
+		return new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+	}
+
+	private File file(String name) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), name.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(1000000000000L);
+		return file;
+	}
+
+	/* the least recently used image is pushed out, and a spilled one taken back on a hit */
+	@Test
+	public void testEvictionAndSpill() throws IOException {
+		ImageCache cache = cache();
+		File a = file("a"), b = file("b"), c = file("c");
+		BufferedImage imageA = image(), imageB = image(), imageC = image();
+		cache.put(a, 0, imageA);
+		cache.put(b, 0, imageB);
+		assertEquals(2 * IMAGE_BYTES, cache.bytes());
+		/* a is used again, so b is the least recently used when c comes in */
+		assertSame(imageA, cache.get(a, 0));
+		cache.put(c, 0, imageC);
+		assertEquals(2 * IMAGE_BYTES, cache.bytes());
+		assertTrue(cache.holds(a, 0));
+		assertFalse(cache.holds(b, 0));
+		assertTrue(cache.holds(c, 0));
+
+		/* b is still softly reachable, so it comes back without a decode and pushes out a */
+		assertSame(imageB, cache.get(b, 0));
+		assertTrue(cache.holds(b, 0));
+		assertFalse(cache.holds(a, 0));
+		assertTrue(cache.holds(c, 0));
+		assertEquals(2 * IMAGE_BYTES, cache.bytes());
+		assertEquals(2, cache.hits());
+		assertEquals(0, cache.misses());
+
+		/* the same file at another size is another image */
+		assertNull(cache.get(b, 50));
+		assertEquals(1, cache.misses());
+
+		/* shrinking the budget spills everything */
+		cache.setMaxHeapShare(0);
+		assertEquals(0, cache.bytes());
+		assertFalse(cache.holds(b, 0));
+		assertSame(imageC, cache.get(c, 0));
+	}
+
+	/* an image is not given out once its file has changed, whether held or spilled */
+	@Test
+	public void testInvalidation() throws IOException {
+		ImageCache cache = cache();
+		File a = file("a"), b = file("b");
+		cache.put(a, 0, image());
+		cache.put(b, 0, image());
+		a.setLastModified(2000000000000L);
+		assertNull(cache.get(a, 0));
+		Files.write(b.toPath(), "longer".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		b.setLastModified(1000000000000L);
+		assertNull(cache.get(b, 0));
+		assertEquals(0, cache.hits());
+		assertEquals(2, cache.misses());
+
+		BufferedImage spilled = image();
+		cache.put(a, 0, spilled);
+		cache.setMaxHeapShare(0);
+		a.setLastModified(3000000000000L);
+		assertNull(cache.get(a, 0));
+		assertEquals(3, cache.misses());
+	}
+
+	/* a load decodes once, then counts hits until the file changes */
+	@Test
+	public void testCounters() throws IOException {
+		ImageCache cache = cache();
+		File png = folder.newFile("photo.png");
+		ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", png);
+		BufferedImage thumbnail = cache.load(png, 100);
+		assertEquals(100, thumbnail.getWidth());
+		assertEquals(1, cache.misses());
+		assertEquals(0, cache.hits());
+		assertSame(thumbnail, cache.load(png, 100));
+		assertSame(thumbnail, cache.load(png, 100));
+		assertEquals(2, cache.hits());
+		assertEquals(300, cache.load(png, 0).getWidth());
+		assertEquals(2, cache.misses());
+
+		png.setLastModified(png.lastModified() - 10000);
+		assertNotSame(thumbnail, cache.load(png, 100));
+		assertEquals(3, cache.misses());
+		assertEquals(2, cache.hits());
+
+		try {
+			cache.load(file("not.png"), 100);
+			fail("loaded a file that is not an image");
+		} catch (IOException expected) {
+		}
+		assertEquals(4, cache.misses());
+	}
+}
@@ -0,0 +1,112 @@
+package org.ucl.gui;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.swing.JButton;
+import javax.swing.SwingUtilities;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ThumbnailCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File photo(String name, int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, width / 2, height / 2);
+		g.dispose();
+		File file = new File(folder.getRoot(), name);
+		ImageIO.write(image, "png", file);
+		return file;
+	}
+
+	private static String[] thumbnails(File directory) {
+		String[] names = directory.list();
+		return names == null ? new String[0] : names;
+	}
+
+	/* a large photo is read subsampled and comes out fitting the thumbnail, keeping its shape */
+	@Test
+	public void testDecodeFits() throws IOException {
+		BufferedImage wide = ThumbnailCache.decode(photo("wide.png", 3000, 2000), ThumbnailCache.SIZE);
+		assertEquals(100, wide.getWidth());
+		assertEquals(67, wide.getHeight());
+		BufferedImage tall = ThumbnailCache.decode(photo("tall.png", 500, 2500), ThumbnailCache.SIZE);
+		assertEquals(20, tall.getWidth());
+		assertEquals(100, tall.getHeight());
+		/* a photo already smaller than a thumbnail is not scaled up */
+		BufferedImage small = ThumbnailCache.decode(photo("small.png", 40, 30), ThumbnailCache.SIZE);
+		assertEquals(40, small.getWidth());
+		assertEquals(30, small.getHeight());
+		try {
+			File text = folder.newFile("notes.png");
+			Files.write(text.toPath(), "not an image".getBytes(StandardCharsets.UTF_8));
+			ThumbnailCache.decode(text, ThumbnailCache.SIZE);
+			fail("decoded a file that is not an image");
+		} catch (IOException expected) {
+		}
+	}
+
+	/* photos of the same bytes under different names share one thumbnail file */
+	@Test
+	public void testSameBytesShareThumbnail() throws IOException {
+		File directory = new File(folder.getRoot(), "thumbnails");
+		ThumbnailCache cache = new ThumbnailCache(directory);
+		File a = photo("a.png", 800, 600);
+		File b = folder.newFile("copy of a.png");
+		Files.copy(a.toPath(), b.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		assertEquals(100, cache.thumbnail(a).getWidth());
+		assertEquals(100, cache.thumbnail(b).getWidth());
+		assertEquals(1, thumbnails(directory).length);
+		assertTrue(thumbnails(directory)[0].endsWith(".png"));
+
+		/* once b is changed it has a thumbnail of its own */
+		ImageIO.write(new BufferedImage(300, 600, BufferedImage.TYPE_INT_RGB), "png", b);
+		b.setLastModified(a.lastModified() + 10000);
+		assertEquals(50, cache.thumbnail(b).getWidth());
+		assertEquals(2, thumbnails(directory).length);
+	}
+
+	/* requests still queued when clear() is called are dropped without reading their photo */
+	@Test
+	public void testClearDropsQueued() throws IOException, InterruptedException, InvocationTargetException {
+		File directory = new File(folder.getRoot(), "thumbnails");
+		final List<Runnable> queued = new ArrayList<Runnable>();
+		ThumbnailCache cache = new ThumbnailCache(directory, queued::add);
+		JButton dropped = new JButton();
+		JButton shown = new JButton();
+		cache.request(photo("earlier.png", 400, 300), dropped);
+		cache.clear();
+		cache.request(photo("later.png", 300, 400), shown);
+		assertEquals(2, queued.size());
+		for (Runnable request : queued) {
+			request.run();
+		}
+		/* waits for the icons the requests passed to the event thread */
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		assertNull(dropped.getIcon());
+		assertEquals("", dropped.getText());
+		assertEquals(75, shown.getIcon().getIconWidth());
+		assertEquals(1, thumbnails(directory).length);
+	}
+}
@@ -0,0 +1,108 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AppointmentIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static long day(String date) {
+		return PatientDate.toEpochDay(date);
+	}
+
+	private static List<Integer> range(AppointmentIndex index, String from, String to) {
+		final List<Integer> ordinals = new ArrayList<Integer>();
+		index.visit(day(from), day(to), (day, ordinal) -> ordinals.add(ordinal));
+		return ordinals;
+	}
+
+	private static List<Integer> next(AppointmentIndex index, String from, final int count) {
+		final List<Integer> ordinals = new ArrayList<Integer>();
+		index.visit(day(from), Long.MAX_VALUE, (day, ordinal) -> {
+			ordinals.add(ordinal);
+			return ordinals.size() < count;
+		});
+		return ordinals;
+	}
+
+	private static AppointmentIndex index() {
+		AppointmentIndex index = new AppointmentIndex();
+		index.add(0, "3/4/2040");
+		index.add(1, "1/4/2040");
+		index.add(2, "");
+		index.add(3, "3/4/2040");
+		index.add(4, "31/12/2039");
+		index.add(5, "not a date");
+		index.add(6, "1/4/2040");
+		return index;
+	}
+
+	@Test
+	public void testRange() {
+		AppointmentIndex index = index();
+		/* by date, then in registry order */
+		assertEquals(Arrays.asList(4, 1, 6, 0, 3), range(index, "1/1/2000", "1/1/2100"));
+		assertEquals(Arrays.asList(1, 6, 0, 3), range(index, "1/4/2040", "3/4/2040"));
+		/* a range of one day */
+		assertEquals(Arrays.asList(0, 3), range(index, "3/4/2040", "3/4/2040"));
+		/* a range with no appointments in it, and one ending before it starts */
+		assertEquals(Arrays.<Integer>asList(), range(index, "2/4/2040", "2/4/2040"));
+		assertEquals(Arrays.<Integer>asList(), range(index, "3/4/2040", "1/4/2040"));
+
+		index.remove(0, "3/4/2040");
+		index.remove(6, "1/4/2040");
+		index.remove(4, "31/12/2039");
+		assertEquals(Arrays.asList(1, 3), range(index, "1/1/2000", "1/1/2100"));
+	}
+
+	@Test
+	public void testNext() {
+		AppointmentIndex index = index();
+		assertEquals(Arrays.asList(4, 1), next(index, "1/1/2039", 2));
+		/* the count ends part way through a day */
+		assertEquals(Arrays.asList(4, 1, 6, 0), next(index, "1/1/2039", 4));
+		/* the day asked from is included */
+		assertEquals(Arrays.asList(0, 3), next(index, "3/4/2040", 10));
+		assertEquals(Arrays.<Integer>asList(), next(index, "4/4/2040", 10));
+	}
+
+	@Test
+	public void testDatabaseQueries() {
+		Database db = new Database(folder.getRoot());
+		String[] appointments = { "3/4/2040", "1/4/2040", "", "3/4/2040" };
+		for (int i = 0; i < appointments.length; i++) {
+			Patient patient = new Patient();
+			patient.restoreField(Patient.PATIENT_ID, "ap10" + i);
+			patient.restoreField(Patient.NEXT_APPOINTMENT, appointments[i]);
+			db.appendPatientToDB(patient);
+		}
+		LocalDate first = LocalDate.of(2040, 4, 1);
+		LocalDate third = LocalDate.of(2040, 4, 3);
+		assertEquals(3, db.appointmentsBetween(first, third).size());
+		assertEquals("ap101", db.appointmentsBetween(first, first).get(0).getPatientID());
+		assertTrue(db.appointmentsBetween(third, first).isEmpty());
+		assertTrue(db.appointmentsBetween(first.plusDays(1), first.plusDays(1)).isEmpty());
+
+		assertEquals(2, db.nextAppointments(first, 2).size());
+		assertEquals("ap100", db.nextAppointments(first.plusDays(1), 1).get(0).getPatientID());
+		assertTrue(db.nextAppointments(first, 0).isEmpty());
+		assertTrue(db.nextAppointments(third.plusDays(1), 5).isEmpty());
+
+		/* an appointment changed after the index was built moves with it */
+		Patient moved = db.returnPatientFromId("ap103");
+		Patient edited = new Patient(moved);
+		edited.restoreField(Patient.NEXT_APPOINTMENT, "2/4/2040");
+		assertTrue(db.updatePatient(moved, edited));
+		assertEquals("ap103", db.appointmentsBetween(first.plusDays(1), first.plusDays(1)).get(0).getPatientID());
+		assertEquals(1, db.appointmentsBetween(third, third).size());
+	}
+}
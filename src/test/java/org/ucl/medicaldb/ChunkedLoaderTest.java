@@ -0,0 +1,164 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChunkedLoaderTest {
+	/* enough rows for the file to be cut into several chunks */
+	private static final int ROWS = 24000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@After
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static String row(int i) {
+		String postcode = i % 97 == 0 ? "nowhere" : "London NW10 7NX";
+		return "Jane" + i + "|Doe|ab" + (100000 + i) + "|Dr|Female|1/2/1960|" + i + " Long Street, " + postcode
+				+ "|asthma|1/1/2040|comments on row " + i + "|https://en.wikipedia.org/wiki/Asthma|/srv/profile photos/"
+				+ i + ".png|/srv/med photos/" + i + "\n";
+	}
+
+	/* rows with a malformed line every so often, whose line numbers are added to malformed */
+	private File file(List<Integer> malformed) throws IOException {
+		StringBuilder text = new StringBuilder();
+		int line = 0;
+		for (int i = 0; i < ROWS; i++) {
+			line++;
+			if (i % 1999 == 0) {
+				text.append("not|a|row\n");
+				malformed.add(line);
+			} else {
+				text.append(row(i));
+			}
+		}
+		File file = folder.newFile("db.txt");
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/* reads every line in turn with one builder, as a load did before it was split into chunks */
+	private static ChunkedLoader.Chunk sequential(File file) throws IOException {
+		ChunkedLoader.Chunk all = new ChunkedLoader.Chunk(0, 0, file.length());
+		all.firstLine = 1;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			PatientBuilder builder = new PatientBuilder();
+			while (buffer.hasRemaining()) {
+				all.lines++;
+				try {
+					Patient patient = builder.build(buffer);
+					if (patient != null) {
+						all.patients.add(patient);
+						if (!builder.validation().isValid()) {
+							all.invalidLines.add(all.lines);
+							all.invalid.add(builder.validation());
+						}
+					}
+				} catch (IOException ioe) {
+					all.failedLines.add(all.lines);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return all;
+	}
+
+	@Test
+	public void testOrderAcrossChunks() throws IOException {
+		List<Integer> malformed = new ArrayList<Integer>();
+		File file = file(malformed);
+		List<ChunkedLoader.Chunk> chunks = new ChunkedLoader(pool).load(file.getPath(), null);
+		assertTrue(chunks.size() > 1);
+
+		int line = 1;
+		long start = 0;
+		int previous = -1;
+		for (ChunkedLoader.Chunk chunk : chunks) {
+			assertEquals(start, chunk.start);
+			assertEquals(line, chunk.firstLine);
+			for (int i = 0; i < chunk.patients.size(); i++) {
+				int id = Integer.parseInt(chunk.patients.get(i).getPatientID().substring(2)) - 100000;
+				assertTrue(id > previous);
+				/* every row is on the line after its number */
+				assertEquals(id + 1, chunk.lineOf(i));
+				previous = id;
+			}
+			start = chunk.end;
+			line += chunk.lines;
+		}
+		assertEquals(file.length(), start);
+		assertEquals(ROWS + 1, line);
+	}
+
+	@Test
+	public void testMalformedLinesPerChunk() throws IOException {
+		List<Integer> malformed = new ArrayList<Integer>();
+		File file = file(malformed);
+		List<ChunkedLoader.Chunk> chunks = new ChunkedLoader(pool).load(file.getPath(), null);
+		List<Integer> failed = new ArrayList<Integer>();
+		for (ChunkedLoader.Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.failures.size(); i++) {
+				int line = chunk.failedLineOf(i);
+				assertTrue(line >= chunk.firstLine && line < chunk.firstLine + chunk.lines);
+				assertTrue(chunk.report().contains("line " + line + ": "));
+				failed.add(line);
+			}
+		}
+		assertEquals(malformed, failed);
+	}
+
+	@Test
+	public void testSameAsSequential() throws IOException {
+		File file = file(new ArrayList<Integer>());
+		ChunkedLoader.Chunk all = sequential(file);
+		List<Patient> patients = new ArrayList<Patient>();
+		List<Integer> failed = new ArrayList<Integer>();
+		List<Integer> invalid = new ArrayList<Integer>();
+		List<ValidationResult> validation = new ArrayList<ValidationResult>();
+		for (ChunkedLoader.Chunk chunk : new ChunkedLoader(pool).load(file.getPath(), null)) {
+			patients.addAll(chunk.patients);
+			for (int i = 0; i < chunk.failures.size(); i++) {
+				failed.add(chunk.failedLineOf(i));
+			}
+			for (int i = 0; i < chunk.invalid.size(); i++) {
+				invalid.add(chunk.invalidLineOf(i));
+				validation.add(chunk.invalid.get(i));
+			}
+		}
+		assertEquals(all.patients.size(), patients.size());
+		for (int i = 0; i < patients.size(); i++) {
+			for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+				assertEquals(all.patients.get(i).getField(field), patients.get(i).getField(field));
+			}
+		}
+		assertEquals(all.failedLines, failed);
+		assertFalse(invalid.isEmpty());
+		assertEquals(all.invalidLines, invalid);
+		for (int i = 0; i < validation.size(); i++) {
+			assertEquals(all.invalid.get(i).getMessages(), validation.get(i).getMessages());
+		}
+	}
+}
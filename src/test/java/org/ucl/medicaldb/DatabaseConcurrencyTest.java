@@ -0,0 +1,175 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseConcurrencyTest {
+	private static final int COUNTERS = 8;
+	private static final int WRITERS = 4;
+	private static final int INCREMENTS = 160;
+	private static final int READERS = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Patient patient(String id, String comments) {
+		Patient patient = new Patient();
+		patient.restoreField(Patient.FIRST_NAME, "First" + id);
+		patient.restoreField(Patient.LAST_NAME, "Last" + id);
+		patient.restoreField(Patient.PATIENT_ID, id);
+		patient.restoreField(Patient.COMMENTS, comments);
+		return patient;
+	}
+
+	private static int count(Patient patient) {
+		return Integer.parseInt(patient.getComments());
+	}
+
+	/*
+	 * writers increment shared counters, each increment a read, copy and update retried until
+	 * the update goes in, while readers search and saves run alongside. Every increment must
+	 * show in the end, and again once the database is reopened from its snapshot and log.
+	 */
+	@Test
+	public void testNoLostUpdates() throws Exception {
+		final Database db = new Database(folder.getRoot());
+		for (int i = 0; i < COUNTERS; i++) {
+			db.appendPatientToDB(patient("cc" + i, "0"));
+		}
+		/* not interrupt(), which would close the file channel of a save in progress */
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int w = 0; w < WRITERS; w++) {
+			final int writer = w;
+			writers.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < INCREMENTS; i++) {
+						String id = "cc" + (i % COUNTERS);
+						Patient current;
+						Patient edited;
+						do {
+							current = db.returnPatientFromId(id);
+							edited = new Patient(current);
+							edited.restoreField(Patient.COMMENTS, String.valueOf(count(current) + 1));
+						} while (!db.updatePatient(current, edited));
+						db.appendPatientToDB(patient("w" + (char) ('a' + writer) + i, "new"));
+					}
+				}
+			});
+		}
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < READERS; r++) {
+			final long seed = r;
+			readers.add(new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					int[] seen = new int[COUNTERS];
+					try {
+						while (!stop.get()) {
+							int counter = random.nextInt(COUNTERS);
+							String id = "cc" + counter;
+							List<Patient> found = db.query(new PatientQuery().is(PatientQuery.Field.PATIENT_ID, id));
+							assertEquals(1, found.size());
+							int value = count(found.get(0));
+							assertTrue("counter went backwards", value >= seen[counter]);
+							seen[counter] = value;
+							assertEquals(1, db.search(new PatientQuery().contains("first" + id), 0, 5).size());
+							assertNotNull(db.returnPatientFromId(id));
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			});
+		}
+		Thread saver = new Thread() {
+			@Override
+			public void run() {
+				while (!stop.get()) {
+					db.dumpDBtoFile();
+				}
+			}
+		};
+		for (Thread thread : readers) {
+			thread.start();
+		}
+		saver.start();
+		for (Thread thread : writers) {
+			thread.start();
+		}
+		for (Thread thread : writers) {
+			thread.join();
+		}
+		stop.set(true);
+		for (Thread thread : readers) {
+			thread.join();
+		}
+		saver.join();
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertCounts(db);
+		assertCounts(new Database(folder.getRoot()));
+	}
+
+	/*
+	 * a query holds no lock while it reads its matches, so the registry can be changed from
+	 * inside its sink; the query carries on seeing the version it started with
+	 */
+	@Test
+	public void testQuerySeesItsVersion() throws Exception {
+		final Database db = new Database(folder.getRoot());
+		for (int i = 0; i < 3000; i++) {
+			db.appendPatientToDB(patient("pv" + i, "before"));
+		}
+		final List<String> seen = new ArrayList<String>();
+		db.query(new PatientQuery().startsWith(PatientQuery.Field.PATIENT_ID, "pv"), new Database.ResultSink() {
+			@Override
+			public boolean accept(Patient patient) {
+				if (seen.isEmpty()) {
+					Patient last = db.returnPatientFromId("pv2999");
+					Patient edited = new Patient(last);
+					edited.restoreField(Patient.COMMENTS, "after");
+					assertTrue(db.updatePatient(last, edited));
+					db.removePatient(db.returnPatientFromId("pv1500"));
+					db.appendPatientToDB(patient("pv3000", "after"));
+				}
+				seen.add(patient.getPatientID() + " " + patient.getComments());
+				return true;
+			}
+		});
+		assertEquals(3000, seen.size());
+		assertEquals("pv1500 before", seen.get(1500));
+		assertEquals("pv2999 before", seen.get(2999));
+
+		SearchResult result = db.search(new PatientQuery().is(PatientQuery.Field.PATIENT_ID, "pv2999"));
+		db.removePatient(db.returnPatientFromId("pv2999"));
+		assertEquals("after", result.get(0).getComments());
+		assertNull(db.returnPatientFromId("pv2999"));
+		assertEquals(2999, db.query(new PatientQuery().startsWith(PatientQuery.Field.PATIENT_ID, "pv")).size());
+	}
+
+	private static void assertCounts(Database db) {
+		for (int i = 0; i < COUNTERS; i++) {
+			assertEquals(WRITERS * INCREMENTS / COUNTERS, count(db.returnPatientFromId("cc" + i)));
+		}
+		for (int w = 0; w < WRITERS; w++) {
+			for (int i = 0; i < INCREMENTS; i++) {
+				assertNotNull(db.returnPatientFromId("w" + (char) ('a' + w) + i));
+			}
+		}
+		assertEquals(COUNTERS + WRITERS * INCREMENTS, db.searchPatients("").size());
+	}
+}
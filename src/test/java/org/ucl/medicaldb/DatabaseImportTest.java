@@ -0,0 +1,102 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseImportTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String row(String id, String comments, String appointment) {
+		return "Jane|Doe|" + id + "|Dr|Female|1/2/1960|1 Long Street, London NW10 7NX|asthma|" + appointment + "|"
+				+ comments + "|https://en.wikipedia.org/wiki/Asthma|/srv/profile photos/" + id
+				+ ".png|/srv/med photos/" + id + "\n";
+	}
+
+	private Database registry() throws IOException {
+		Files.write(new File(folder.getRoot(), "db.txt").toPath(),
+				(row("ab100", "kept", "1/1/2040") + row("ab101", "old", "1/1/2040")).getBytes(StandardCharsets.UTF_8));
+		return new Database(folder.getRoot());
+	}
+
+	private File extract() throws IOException {
+		File file = folder.newFile("extract.txt");
+		String rows = row("ab100", "kept", "1/1/2040") + row("ab101", "new", "2/1/2040") + "not|a|row\n"
+				+ row("ab102", "added", "") + row("ab101", "earlier", "1/6/2039");
+		Files.write(file.toPath(), rows.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/* each chunk of a large import is published as it is merged, before the next is read */
+	@Test
+	public void testImportMergedByChunk() throws IOException {
+		Files.write(new File(folder.getRoot(), "db.txt").toPath(),
+				(row("ab100", "kept", "1/1/2040") + row("ab101", "old", "1/1/2040")).getBytes(StandardCharsets.UTF_8));
+		final List<Long> merged = new ArrayList<Long>();
+		Database db = new Database(folder.getRoot(), (stage, rows, fraction) -> {
+			if (stage.equals("merging")) {
+				/* what a search would see once the chunk is merged */
+				assertEquals(2 + rows, Database.currentPatients.liveCount());
+				merged.add(rows);
+			}
+		});
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < 30000; i++) {
+			rows.append(row("cd" + (100000 + i), "imported", ""));
+		}
+		File file = folder.newFile("large.txt");
+		Files.write(file.toPath(), rows.toString().getBytes(StandardCharsets.UTF_8));
+		assertEquals(30000, db.importFile(file.getPath(), Database.MergePolicy.SKIP).getAdded());
+		assertTrue(merged.size() > 1);
+		assertEquals(30000L, (long) merged.get(merged.size() - 1));
+	}
+
+	@Test
+	public void testSkip() throws IOException {
+		Database db = registry();
+		ImportReport report = db.importFile(extract().getPath(), Database.MergePolicy.SKIP);
+		assertEquals(1, report.getAdded());
+		assertEquals(1, report.getUnchanged());
+		assertEquals(2, report.getSkipped());
+		assertEquals(0, report.getReplaced());
+		assertEquals("old", db.returnPatientFromId("ab101").getComments());
+		assertEquals(1, report.getErrors().size());
+		assertEquals(3, report.getErrors().get(0).line);
+		ImportReport.Conflict conflict = report.getConflicts().get(0);
+		assertEquals(2, conflict.line);
+		assertEquals("ab101", conflict.patientId);
+		assertEquals(ImportReport.Outcome.SKIPPED, conflict.outcome);
+	}
+
+	@Test
+	public void testOverwriteSurvivesReopening() throws IOException {
+		Database db = registry();
+		ImportReport report = db.importFile(extract().getPath(), Database.MergePolicy.OVERWRITE);
+		assertEquals(2, report.getReplaced());
+		assertEquals("earlier", db.returnPatientFromId("ab101").getComments());
+
+		db = new Database(folder.getRoot());
+		assertEquals("earlier", db.returnPatientFromId("ab101").getComments());
+		assertEquals("added", db.returnPatientFromId("ab102").getComments());
+	}
+
+	@Test
+	public void testNewestWins() throws IOException {
+		Database db = registry();
+		ImportReport report = db.importFile(extract().getPath(), Database.MergePolicy.NEWEST_WINS);
+		assertEquals(1, report.getReplaced());
+		assertEquals(1, report.getSkipped());
+		assertEquals("new", db.returnPatientFromId("ab101").getComments());
+		assertEquals(ImportReport.Outcome.SKIPPED, report.getConflicts().get(1).outcome);
+	}
+}
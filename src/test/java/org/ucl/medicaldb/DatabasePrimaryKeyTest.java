@@ -0,0 +1,76 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabasePrimaryKeyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Patient patient(String id, String firstName) {
+		Patient patient = new Patient();
+		patient.restoreField(Patient.FIRST_NAME, firstName);
+		patient.restoreField(Patient.LAST_NAME, "Doe");
+		patient.restoreField(Patient.PATIENT_ID, id);
+		return patient;
+	}
+
+	private static Patient withId(Patient original, String id) {
+		Patient edited = new Patient(original);
+		edited.restoreField(Patient.PATIENT_ID, id);
+		return edited;
+	}
+
+	private static void assertKept(Database db) {
+		assertEquals(2, Database.currentPatients.liveCount());
+		assertEquals("First", db.returnPatientFromId("ab100").getFirstName());
+		assertEquals("Other", db.returnPatientFromId("ab102").getFirstName());
+		assertNull(db.returnPatientFromId("ab101"));
+		assertTrue(Database.primaryKey.contains("ab100"));
+		assertTrue(Database.primaryKey.contains("ab102"));
+		assertFalse(Database.primaryKey.contains("ab101"));
+	}
+
+	@Test
+	public void testDuplicateIds() throws IOException {
+		Database db = new Database(folder.getRoot());
+		assertTrue(db.appendPatientToDB(patient("ab100", "First")));
+		assertFalse(db.appendPatientToDB(patient("ab100", "Second")));
+		assertTrue(db.appendPatientToDB(patient("ab101", "Other")));
+
+		/* an edit may not take another patient's id, but may keep its own or take a free one */
+		Patient other = db.returnPatientFromId("ab101");
+		assertFalse(db.updatePatient(other, withId(other, "ab100")));
+		assertSame(other, db.returnPatientFromId("ab101"));
+		assertTrue(db.updatePatient(other, withId(other, "ab101")));
+		other = db.returnPatientFromId("ab101");
+		assertTrue(db.updatePatient(other, withId(other, "ab102")));
+		assertKept(db);
+
+		/* the change log, replayed by id, gives back the same patients */
+		assertKept(new Database(folder.getRoot()));
+		db = new Database(folder.getRoot());
+		db.dumpDBtoFile();
+		assertKept(new Database(folder.getRoot()));
+	}
+
+	/* of two rows of db.txt with one id, the first is loaded */
+	@Test
+	public void testDuplicateIdsInFile() throws IOException {
+		String rows = "First|Doe|ab100|Dr|Female|1/2/1960|||||||\n" + "Second|Doe|ab100|Dr|Female|1/2/1960|||||||\n"
+				+ "Other|Doe|ab102|Dr|Female|1/2/1960|||||||\n";
+		Files.write(new File(folder.getRoot(), "db.txt").toPath(), rows.getBytes(StandardCharsets.UTF_8));
+		Database db = new Database(folder.getRoot());
+		assertEquals(2, Database.currentPatients.liveCount());
+		assertEquals("First", db.returnPatientFromId("ab100").getFirstName());
+		assertEquals("Other", db.returnPatientFromId("ab102").getFirstName());
+	}
+}
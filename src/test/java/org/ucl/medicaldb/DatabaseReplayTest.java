@@ -0,0 +1,79 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseReplayTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Patient patient(String id, String appointment) {
+		Patient patient = new Patient();
+		patient.restoreField(Patient.FIRST_NAME, "First" + id);
+		patient.restoreField(Patient.LAST_NAME, "Last" + id);
+		patient.restoreField(Patient.PATIENT_ID, id);
+		patient.restoreField(Patient.NEXT_APPOINTMENT, appointment);
+		return patient;
+	}
+
+	private static Patient edit(Patient original, int field, String value) {
+		Patient edited = new Patient(original);
+		edited.restoreField(field, value);
+		return edited;
+	}
+
+	private static void assertEdited(Database db) {
+		assertEquals(2, Database.currentPatients.liveCount());
+		assertNull(db.returnPatientFromId("ab101"));
+		assertNull(db.returnPatientFromId("ab102"));
+		assertEquals("Firstab101", db.returnPatientFromId("ab201").getFirstName());
+		/* passed since it was made, which the validators would no longer let in */
+		assertEquals("1/1/2001", db.returnPatientFromId("ab100").getNextAppointment());
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		Database db = new Database(folder.getRoot());
+		db.appendPatientToDB(patient("ab100", "1/1/2040"));
+		db.appendPatientToDB(patient("ab101", "1/1/2040"));
+		db.appendPatientToDB(patient("ab102", "1/1/2040"));
+		Patient moved = db.returnPatientFromId("ab101");
+		assertTrue(db.updatePatient(moved, edit(moved, Patient.PATIENT_ID, "ab201")));
+		Patient seen = db.returnPatientFromId("ab100");
+		assertTrue(db.updatePatient(seen, edit(seen, Patient.NEXT_APPOINTMENT, "1/1/2001")));
+		db.removePatient(db.returnPatientFromId("ab102"));
+
+		assertEdited(new Database(folder.getRoot()));
+	}
+
+	/*
+	 * a crash after the snapshot is moved into place but before the rotated log is dropped
+	 * replays every change over a snapshot which already holds it, as many times as the
+	 * database is opened before the next save
+	 */
+	@Test
+	public void testReplayOverSnapshotTwice() throws IOException {
+		Database db = new Database(folder.getRoot());
+		db.appendPatientToDB(patient("ab100", "1/1/2040"));
+		db.appendPatientToDB(patient("ab101", "1/1/2040"));
+		db.appendPatientToDB(patient("ab102", "1/1/2040"));
+		Patient moved = db.returnPatientFromId("ab101");
+		assertTrue(db.updatePatient(moved, edit(moved, Patient.PATIENT_ID, "ab201")));
+		Patient seen = db.returnPatientFromId("ab100");
+		assertTrue(db.updatePatient(seen, edit(seen, Patient.NEXT_APPOINTMENT, "1/1/2001")));
+		db.removePatient(db.returnPatientFromId("ab102"));
+		byte[] changes = Files.readAllBytes(new File(folder.getRoot(), "db.log").toPath());
+		db.dumpDBtoFile();
+		Files.write(new File(folder.getRoot(), "db.log.old").toPath(), changes);
+
+		assertEdited(new Database(folder.getRoot()));
+		assertEdited(new Database(folder.getRoot()));
+	}
+}
@@ -0,0 +1,194 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatabaseSearchTest {
+	private static final String[] NAMES = { "Jane", "John", "Ayşe", "Zoë", "Mary-Ann", "O'Brien", "Smith", "Li" };
+	private static final String[] CONDITIONS = { "Asthma", "thrombosis", "", "Diabetes type 2", "asthma; mild" };
+	private static final int PATIENTS = 300;
+	private static final int QUERIES = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String pick(Random random, String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	private static Patient patient(Random random, int i) {
+		String id = "sr" + (100 + i);
+		Patient patient = new Patient();
+		patient.restoreField(Patient.FIRST_NAME, pick(random, NAMES));
+		patient.restoreField(Patient.LAST_NAME, pick(random, NAMES));
+		patient.restoreField(Patient.PATIENT_ID, id);
+		patient.restoreField(Patient.TITLE, random.nextBoolean() ? "Dr" : "Mrs");
+		patient.restoreField(Patient.SEX, random.nextBoolean() ? "Female" : "Male");
+		patient.restoreField(Patient.DOB_FIELD, (1 + random.nextInt(28)) + "/" + (1 + random.nextInt(12)) + "/19"
+				+ (10 + random.nextInt(90)));
+		patient.restoreField(Patient.ADDRESS, random.nextInt(90) + " Long Street, London NW10 7NX");
+		patient.restoreField(Patient.CONDITION, pick(random, CONDITIONS));
+		patient.restoreField(Patient.COMMENTS, random.nextInt(4) == 0 ? "" : "seen " + random.nextInt(50) + " times");
+		patient.restoreField(Patient.URI, "https://en.wikipedia.org/wiki/" + pick(random, CONDITIONS));
+		patient.restoreField(Patient.PROFILE_PHOTO, "/srv/Profile Photos/" + id + ".PNG");
+		patient.restoreField(Patient.MED_PHOTOS, "/srv/med photos/" + id + "/scans");
+		return patient;
+	}
+
+	/* the patient as a line of db.txt, which a search used to look through */
+	private static String line(Patient patient) {
+		StringBuilder line = new StringBuilder();
+		for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+			line.append(field == 0 ? "" : "|").append(patient.getField(field));
+		}
+		return line.toString();
+	}
+
+	private static String query(Random random, List<Patient> patients) {
+		if (random.nextInt(8) == 0) {
+			char[] noise = new char[1 + random.nextInt(4)];
+			for (int i = 0; i < noise.length; i++) {
+				noise[i] = "aeilnorst |/.0123".charAt(random.nextInt(17));
+			}
+			return new String(noise);
+		}
+		String text = line(patients.get(random.nextInt(patients.size())));
+		int start = random.nextInt(text.length());
+		String query = text.substring(start, Math.min(text.length(), start + 1 + random.nextInt(8)));
+		return random.nextBoolean() ? query.toUpperCase() : query;
+	}
+
+	/*
+	 * the indexed search must find exactly the patients whose record, as a line of db.txt,
+	 * contains the search text ignoring case, photo locations and separators included
+	 */
+	@Test
+	public void testSearchMatchesContains() {
+		Random random = new Random(7);
+		Database db = new Database(folder.getRoot());
+		List<Patient> patients = new ArrayList<Patient>();
+		for (int i = 0; i < PATIENTS; i++) {
+			patients.add(patient(random, i));
+			db.appendPatientToDB(patients.get(i));
+			if (i == PATIENTS / 2) {
+				/* builds the trigram index, which the rest of the patients are added to */
+				db.searchPatients("asthma");
+			}
+		}
+		/* edits move the patients within the built index */
+		for (int i = 0; i < PATIENTS / 3; i++) {
+			int edited = random.nextInt(PATIENTS);
+			Patient patient = patient(random, edited);
+			assertTrue(db.updatePatient(patients.get(edited), patient));
+			patients.set(edited, patient);
+		}
+		for (int i = 0; i < QUERIES; i++) {
+			String query = query(random, patients);
+			Set<Patient> expected = new HashSet<Patient>();
+			for (Patient patient : patients) {
+				if (line(patient).toLowerCase().contains(query.toLowerCase())) {
+					expected.add(patient);
+				}
+			}
+			assertEquals(query, expected, new HashSet<Patient>(db.searchPatients(query)));
+		}
+	}
+
+	/*
+	 * a query of several substrings, whose trigram candidates are intersected, must find
+	 * exactly the patients containing all of them
+	 */
+	@Test
+	public void testSeveralSubstrings() {
+		Random random = new Random(17);
+		Database db = new Database(folder.getRoot());
+		List<Patient> patients = new ArrayList<Patient>();
+		for (int i = 0; i < PATIENTS; i++) {
+			patients.add(patient(random, i));
+			db.appendPatientToDB(patients.get(i));
+		}
+		for (int i = 0; i < QUERIES / 4; i++) {
+			List<String> terms = new ArrayList<String>();
+			StringBuilder text = new StringBuilder();
+			for (int t = 2 + random.nextInt(2); t > 0; t--) {
+				String term = query(random, patients);
+				terms.add(term.toLowerCase());
+				text.append('"').append(term).append("\" ");
+			}
+			Set<Patient> expected = new HashSet<Patient>();
+			for (Patient patient : patients) {
+				boolean all = true;
+				for (String term : terms) {
+					all &= line(patient).toLowerCase().contains(term);
+				}
+				if (all) {
+					expected.add(patient);
+				}
+			}
+			assertEquals(text.toString(), expected, new HashSet<Patient>(db.query(PatientQuery.parse(text.toString()))));
+		}
+	}
+
+	/*
+	 * a cancelled search stops before it has read a row, but the index it asked for goes on
+	 * being built for the next search
+	 */
+	@Test
+	public void testCancelledSearch() throws InterruptedException {
+		Random random = new Random(11);
+		Database db = new Database(folder.getRoot());
+		for (int i = 0; i < PATIENTS; i++) {
+			db.appendPatientToDB(patient(random, i));
+		}
+		for (String text : new String[] { "sr1", "lastName:smith" }) {
+			SearchResult result = db.newSearch(PatientQuery.parse(text));
+			result.cancel();
+			db.search(result);
+			assertEquals(0, result.size());
+			assertFalse(result.isComplete());
+		}
+		for (int wait = 0; Database.trigramIndex == null && wait < 500; wait++) {
+			Thread.sleep(10);
+		}
+		assertNotNull(Database.trigramIndex);
+		SearchResult result = db.search(PatientQuery.parse("lastName:smith"));
+		assertTrue(result.isComplete());
+		assertTrue(result.size() > 0);
+	}
+
+	private static List<String> ids(List<Patient> patients) {
+		List<String> ids = new ArrayList<String>();
+		for (Patient patient : patients) {
+			ids.add(patient.getPatientID());
+		}
+		return ids;
+	}
+
+	/* a page kept in a bounded heap is the same as that page of every match ranked */
+	@Test
+	public void testRankedPages() {
+		Random random = new Random(13);
+		Database db = new Database(folder.getRoot());
+		for (int i = 0; i < PATIENTS; i++) {
+			db.appendPatientToDB(patient(random, i));
+		}
+		for (String text : new String[] { "li", "jane", "smith asthma", "sr1", "condition:asthma li", "nobody" }) {
+			SearchResult all = db.search(PatientQuery.parse(text));
+			for (int i = 0; i < 20; i++) {
+				int offset = random.nextInt(all.size() + 5);
+				int limit = random.nextInt(40);
+				assertEquals(text + " " + offset + " " + limit, ids(all.page(offset, limit)),
+						ids(db.search(PatientQuery.parse(text), offset, limit)));
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+
+import org.junit.Test;
+
+public class PatientDateTest {
+
+	@Test
+	public void testToEpochDay() {
+		assertEquals(LocalDate.of(2030, 10, 12).toEpochDay(), PatientDate.toEpochDay("12/10/2030"));
+		assertEquals(LocalDate.of(2016, 2, 29).toEpochDay(), PatientDate.toEpochDay("29/2/2016"));
+		assertEquals(0, PatientDate.toEpochDay("1/1/1970"));
+	}
+
+	@Test
+	public void testNotADate() {
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay(""));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay(" / / "));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay("31/2/2016"));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay("1/x/2016"));
+	}
+
+	@Test
+	public void testEveryDay() {
+		for (long day = LocalDate.of(1600, 1, 1).toEpochDay(); day < LocalDate.of(2500, 1, 1).toEpochDay(); day++) {
+			LocalDate date = LocalDate.ofEpochDay(day);
+			assertEquals(day, PatientDate.toEpochDay(date.getDayOfMonth() + "/" + date.getMonthValue() + "/" + date.getYear()));
+		}
+		assertEquals(LocalDate.of(0, 3, 1).toEpochDay(), PatientDate.toEpochDay("1/3/0"));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay("29/2/1900"));
+		assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), PatientDate.toEpochDay("29/2/2000"));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay("31/4/2020"));
+		assertEquals(PatientDate.NONE, PatientDate.toEpochDay("0/4/2020"));
+	}
+
+	@Test
+	public void testToday() {
+		assertEquals(LocalDate.now().toEpochDay(), PatientDate.today());
+	}
+
+	@Test
+	public void testFormat() {
+		assertEquals("3/7/2026", PatientDate.format(PatientDate.toEpochDay("03/07/2026")));
+	}
+}
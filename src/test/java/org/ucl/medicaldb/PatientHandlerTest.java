@@ -90,4 +90,48 @@ public class PatientHandlerTest {
 		assertFalse("25/12/2014", false);
 		assertFalse("2/12/2015", false);
 	}
+
+	@Test
+	public void testValidationPerRecord() throws InterruptedException {
+		Patient valid = new Patient();
+		valid.setPatientID("ab100");
+		valid.setAddress("1 Long Street, London NW10 7NX");
+		assertSame(ValidationResult.VALID, valid.validation());
+
+		Patient invalid = new Patient();
+		invalid.setPatientID("A100");
+		invalid.setAddress("nowhere");
+		ValidationResult result = invalid.validation();
+		assertEquals(2, result.getMessages().size());
+		assertEquals("Invalid patient id; incorrect postcode", result.toString());
+		assertTrue(invalid.validation().isValid());
+
+		/* records validated on other threads at the same time find only their own problems */
+		final ValidationResult[] results = new ValidationResult[4];
+		Thread[] threads = new Thread[results.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						Patient patient = new Patient();
+						patient.setPatientID(thread % 2 == 0 ? "cd" + i : "");
+						results[thread] = patient.validation();
+						if (thread % 2 == 0 != results[thread].isValid()) {
+							return;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(results[0].isValid());
+		assertEquals(1, results[1].getMessages().size());
+		assertTrue(results[2].isValid());
+		assertEquals(1, results[3].getMessages().size());
+	}
 }
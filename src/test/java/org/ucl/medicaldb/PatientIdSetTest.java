@@ -0,0 +1,43 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PatientIdSetTest {
+
+	@Test
+	public void testAgainstHashSet() {
+		PatientIdSet ids = new PatientIdSet();
+		Set<String> expected = new HashSet<String>();
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			String id = "ab" + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(id), ids.remove(id));
+			} else {
+				assertEquals(expected.add(id), ids.add(id));
+			}
+		}
+		assertEquals(expected.size(), ids.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(expected.contains("ab" + i), ids.contains("ab" + i));
+		}
+	}
+
+	@Test
+	public void testUnpackableIds() {
+		PatientIdSet ids = new PatientIdSet();
+		assertTrue(ids.add("AB12"));
+		assertFalse(ids.add("AB12"));
+		assertTrue(ids.contains("AB12"));
+		assertFalse(ids.add(""));
+		assertFalse(ids.contains(""));
+		assertTrue(ids.remove("AB12"));
+		assertEquals(0, ids.size());
+	}
+}
@@ -0,0 +1,25 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PatientIdTest {
+
+	@Test
+	public void testRoundTrip() {
+		for (String id : new String[] { "", "ab1", "ab007", "zz99999999999999", "mk1234" }) {
+			assertNotEquals(PatientId.NONE, PatientId.pack(id));
+			assertEquals(id, PatientId.unpack(PatientId.pack(id)));
+		}
+		assertNotEquals(PatientId.pack("ab07"), PatientId.pack("ab7"));
+	}
+
+	@Test
+	public void testUnusualIds() {
+		assertEquals(PatientId.NONE, PatientId.pack("AB12"));
+		assertEquals(PatientId.NONE, PatientId.pack("ab"));
+		assertEquals(PatientId.NONE, PatientId.pack("a123"));
+		assertEquals(PatientId.NONE, PatientId.pack("ab123456789012345"));
+	}
+}
@@ -0,0 +1,43 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class PatientQueryTest {
+
+	@Test
+	public void testFieldedTerms() {
+		List<PatientQuery.Term> terms = PatientQuery.parse("condition:Asthma  lastName:smi* address:*london*")
+				.getTerms();
+		assertEquals(3, terms.size());
+		assertEquals(PatientQuery.Field.CONDITION, terms.get(0).field);
+		assertEquals(PatientQuery.Match.EQUALS, terms.get(0).match);
+		assertEquals("asthma", terms.get(0).value);
+		assertEquals(PatientQuery.Match.PREFIX, terms.get(1).match);
+		assertEquals("smi", terms.get(1).value);
+		assertEquals(PatientQuery.Match.CONTAINS, terms.get(2).match);
+		assertEquals("london", terms.get(2).value);
+	}
+
+	@Test
+	public void testQuotedAndUnknownFields() {
+		List<PatientQuery.Term> terms = PatientQuery.parse("address:\"long street\" https://en.wikipedia.org *ab1*")
+				.getTerms();
+		assertEquals(3, terms.size());
+		assertEquals("long street", terms.get(0).value);
+		assertNull(terms.get(1).field);
+		assertEquals("https://en.wikipedia.org", terms.get(1).value);
+		assertNull(terms.get(2).field);
+		assertEquals("ab1", terms.get(2).value);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String text = "condition:asthma lastName:smi* address:\"*long street*\" thromb";
+		assertEquals(text, PatientQuery.parse(text).toString());
+		assertTrue(PatientQuery.parse("   ").isEmpty());
+	}
+}
@@ -0,0 +1,198 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PatientSnapshotTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String repeat(String text, int times) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			sb.append(text);
+		}
+		return sb.toString();
+	}
+
+	/* one patient per row, in field order */
+	private static final String[][] ROWS = {
+			/* every field as the editor saves it */
+			{ "Jane", "Doe", "ab123", "Dr", "Female", "1/2/1960", "1 Long Street, London NW10 7NX", "asthma", "1/1/2040",
+					"seen twice", "https://en.wikipedia.org/wiki/Asthma", "/srv/profile photos/ab123.png",
+					"/srv/med photos/ab123" },
+			/* every field empty */
+			{ "", "", "", "", "", "", "", "", "", "", "", "", "" },
+			/* values kept as they are rather than in their compact form */
+			{ "John", "Smith", "not an id", "Professor", "Unknown", "01/02/1960", "", "asthma", " / / ", "", "",
+					"photo.png", "/" },
+			{ "Ann", "Lee", "zz999", "-", "-", "31/2/2020", "", "", "29/2/2001", "a|b\nc \"quoted\"", "", "", "" },
+			/* text outside ASCII, including a character outside the basic plane */
+			{ "Zoë", "Ağaoğlu", "cd456", "Mrs", "Female", "29/2/2000", "Straße 1, München", "肺炎", "",
+					repeat("é😀ñ", 600), "https://ja.wikipedia.org/wiki/肺炎", "/srv/фото/cd456.jpg", "/srv/фото/cd456" } };
+
+	private static Patient patient(String[] row) {
+		Patient patient = new Patient();
+		for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+			patient.restoreField(field, row[field]);
+		}
+		return patient;
+	}
+
+	private static void assertSnapshot(List<String[]> rows, PatientSnapshot snapshot) {
+		assertEquals(rows.size(), snapshot.size());
+		for (int i = 0; i < rows.size(); i++) {
+			Patient read = snapshot.read(i);
+			for (int field = 0; field < Patient.FIELD_COUNT; field++) {
+				assertEquals(rows.get(i)[field], read.getField(field));
+				assertEquals(rows.get(i)[field], snapshot.field(i, field));
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		PatientTable table = new PatientTable().edit();
+		for (String[] row : ROWS) {
+			table.add(patient(row));
+		}
+		String location = new File(folder.getRoot(), "db.snapshot").getPath();
+		PatientSnapshot.write(location, table.publish());
+
+		PatientSnapshot snapshot = PatientSnapshot.open(location);
+		assertSnapshot(Arrays.asList(ROWS), snapshot);
+		/* shared values are shared again once read back */
+		assertSame(snapshot.read(0).getCondition(), snapshot.read(2).getCondition());
+	}
+
+	/* rows never read out of a snapshot are copied into the next one byte for byte */
+	@Test
+	public void testRewrite() throws IOException {
+		PatientTable table = new PatientTable().edit();
+		for (String[] row : ROWS) {
+			table.add(patient(row));
+		}
+		String first = new File(folder.getRoot(), "first.snapshot").getPath();
+		PatientSnapshot.write(first, table.publish());
+
+		table = new PatientTable(PatientSnapshot.open(first)).edit();
+		String[] edited = ROWS[0].clone();
+		edited[Patient.COMMENTS] = "seen three times, über";
+		table.set(0, patient(edited));
+		table.remove(1);
+		table.add(patient(ROWS[4]));
+		String second = new File(folder.getRoot(), "second.snapshot").getPath();
+		PatientSnapshot.write(second, table.publish());
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(edited);
+		rows.addAll(Arrays.asList(ROWS).subList(2, ROWS.length));
+		rows.add(ROWS[4]);
+		assertSnapshot(rows, PatientSnapshot.open(second));
+	}
+
+	/* the primary key of an opened snapshot comes from its id index, without reading a record */
+	@Test
+	public void testIdIndex() throws IOException {
+		File dir = folder.newFolder("db");
+		Database db = new Database(dir);
+		for (String[] row : ROWS) {
+			db.appendPatientToDB(patient(row));
+		}
+		db.dumpDBtoFile();
+		File snap = new File(dir, "db.snap");
+		PatientSnapshot snapshot = PatientSnapshot.open(snap.getPath());
+		assertTrue(snapshot.hasIdIndex());
+		assertEquals(0, snapshot.ordinalOfId(PatientId.pack("ab123")));
+		assertEquals(3, snapshot.ordinalOfId(PatientId.pack("zz999")));
+		assertEquals(4, snapshot.ordinalOfId(PatientId.pack("cd456")));
+		assertEquals(-1, snapshot.ordinalOfId(PatientId.pack("ab124")));
+		assertEquals(1, snapshot.unpackedIds().size());
+		assertEquals(2, (int) snapshot.unpackedIds().get("not an id"));
+
+		db = new Database(dir);
+		assertEquals("Zoë", db.returnPatientFromId("cd456").getFirstName());
+		assertEquals("John", db.returnPatientFromId("not an id").getFirstName());
+		assertNull(db.returnPatientFromId(""));
+		/* changes since the snapshot are looked up before its id index */
+		Patient moved = db.returnPatientFromId("ab123");
+		Patient edited = new Patient(moved);
+		edited.restoreField(Patient.PATIENT_ID, "ab124");
+		assertTrue(db.updatePatient(moved, edited));
+		assertNull(db.returnPatientFromId("ab123"));
+		assertFalse(Database.primaryKey.contains("ab123"));
+		assertEquals("Jane", db.returnPatientFromId("ab124").getFirstName());
+		edited = new Patient(db.returnPatientFromId("ab124"));
+		edited.restoreField(Patient.PATIENT_ID, "ab123");
+		assertTrue(db.updatePatient(db.returnPatientFromId("ab124"), edited));
+		assertEquals("Jane", db.returnPatientFromId("ab123").getFirstName());
+		assertFalse(db.appendPatientToDB(patient(ROWS[0])));
+
+		/* a snapshot from before the id index has its ids read from the records */
+		byte[] saved = Files.readAllBytes(snap.toPath());
+		byte[] old = saved.clone();
+		ByteBuffer.wrap(old).putInt(4, 1);
+		Files.write(snap.toPath(), old);
+		assertFalse(PatientSnapshot.open(snap.getPath()).hasIdIndex());
+		Files.write(new File(dir, "db.log").toPath(), new byte[0]);
+		db = new Database(dir);
+		assertEquals("Zoë", db.returnPatientFromId("cd456").getFirstName());
+		assertEquals("John", db.returnPatientFromId("not an id").getFirstName());
+	}
+
+	/* writes damaged bytes over the snapshot, which must stop the database opening and be left alone */
+	private void assertDamagedSnapshotFails(File dir, byte[] damaged) throws IOException {
+		File snap = new File(dir, "db.snap");
+		Files.write(snap.toPath(), damaged);
+		try {
+			new Database(dir);
+			fail("opened a damaged snapshot");
+		} catch (UncheckedIOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("db.snap"));
+		}
+		assertArrayEquals(damaged, Files.readAllBytes(snap.toPath()));
+	}
+
+	/*
+	 * once there is a snapshot, db.txt is out of date, so a snapshot that cannot be read stops
+	 * the database opening rather than the older patients of db.txt being opened in its place
+	 */
+	@Test
+	public void testDamagedSnapshot() throws IOException {
+		File dir = folder.newFolder("db");
+		Files.write(new File(dir, "db.txt").toPath(),
+				"Old|Patient|ab100|Dr|Male|1/2/1960|||||||\n".getBytes(StandardCharsets.UTF_8));
+		Database db = new Database(dir);
+		for (String[] row : ROWS) {
+			db.appendPatientToDB(patient(row));
+		}
+		db.dumpDBtoFile();
+		byte[] saved = Files.readAllBytes(new File(dir, "db.snap").toPath());
+
+		assertDamagedSnapshotFails(dir, Arrays.copyOf(saved, saved.length / 2));
+		assertDamagedSnapshotFails(dir, Arrays.copyOf(saved, 20));
+		byte[] version = saved.clone();
+		ByteBuffer.wrap(version).putInt(4, PatientSnapshot.VERSION + 1);
+		assertDamagedSnapshotFails(dir, version);
+		assertDamagedSnapshotFails(dir, "not a snapshot".getBytes(StandardCharsets.UTF_8));
+		/* cut inside the id index, after the last record */
+		assertDamagedSnapshotFails(dir, Arrays.copyOf(saved, saved.length - 6));
+
+		Files.write(new File(dir, "db.snap").toPath(), saved);
+		new Database(dir);
+		assertEquals(ROWS.length + 1, Database.currentPatients.liveCount());
+	}
+}
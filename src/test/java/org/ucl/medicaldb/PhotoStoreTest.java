@@ -0,0 +1,117 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PhotoStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File photo(String directory, String name, String content) throws IOException {
+		File dir = new File(folder.getRoot(), directory);
+		dir.mkdirs();
+		File file = new File(dir, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private File directory(String name) {
+		return new File(folder.getRoot(), name);
+	}
+
+	private static int blobCount(File root) {
+		int count = 0;
+		for (File fan : new File(root, "blobs").listFiles()) {
+			if (fan.isDirectory()) {
+				count += fan.list().length;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testIdenticalPhotosStoredOnce() throws IOException {
+		File root = new File(folder.getRoot(), "store");
+		PhotoStore store = new PhotoStore(root);
+		photo("cc100", "Thrombosis.png", "clot");
+		photo("cc100", "a|b \"scan\".jpg", "other");
+		photo("cd144", "Thrombosis.png", "clot");
+
+		assertEquals(2, store.sync("cc100", directory("cc100")).size());
+		assertEquals(1, store.sync("cd144", directory("cd144")).size());
+		assertEquals(2, blobCount(root));
+		assertEquals(0, directory("cc100").list().length);
+
+		List<PhotoStore.Photo> photos = new PhotoStore(root).list("cc100");
+		assertEquals(2, photos.size());
+		assertEquals("Thrombosis.png", photos.get(0).name);
+		assertEquals("a|b \"scan\".jpg", photos.get(1).name);
+		assertEquals(photos.get(0).hash, store.list("cd144").get(0).hash);
+		assertEquals("clot", new String(Files.readAllBytes(photos.get(0).file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	/* the store keeps the only copy: files are deleted once stored, and the manifest lists them */
+	@Test
+	public void testSourcesMovedIntoStore() throws IOException {
+		PhotoStore store = new PhotoStore(new File(folder.getRoot(), "store"));
+		File b = photo("ab100", "b.jpg", "b");
+		File hidden = photo("ab100", ".hidden", "h");
+		List<PhotoStore.Photo> first = store.sync("ab100", directory("ab100"));
+		assertEquals(1, first.size());
+		assertFalse(b.exists());
+		assertTrue(hidden.exists());
+		assertEquals(first, store.sync("ab100", directory("ab100")));
+
+		File a = photo("ab100", "a.jpg", "a");
+		List<PhotoStore.Photo> refreshed = store.refresh("ab100", directory("ab100"), Arrays.asList("b.jpg", "a.jpg"));
+		assertEquals(2, refreshed.size());
+		assertEquals("a.jpg", refreshed.get(1).name);
+		assertFalse(a.exists());
+
+		/* a file of a name already listed replaces that photo */
+		String before = refreshed.get(1).hash;
+		photo("ab100", "a.jpg", "changed");
+		assertNotEquals(before, store.sync("ab100", directory("ab100")).get(1).hash);
+		assertEquals(store.list("ab100"), store.sync("ab100", directory("ab100")));
+
+		/* chosen files from anywhere are added the same way */
+		File chosen = photo("downloads", "scan.png", "b");
+		List<PhotoStore.Photo> added = store.add("ab100", Arrays.asList(chosen));
+		assertEquals(3, added.size());
+		assertFalse(chosen.exists());
+		assertEquals(added.get(0).hash, added.get(2).hash);
+		assertEquals("b", new String(Files.readAllBytes(added.get(2).file.toPath()), StandardCharsets.UTF_8));
+
+		List<PhotoStore.Photo> removed = store.remove("ab100", "b.jpg");
+		assertEquals(2, removed.size());
+		assertEquals(removed, store.list("ab100"));
+		/* the bytes are still stored for scan.png */
+		assertTrue(removed.get(1).file.exists());
+	}
+
+	@Test
+	public void testManifests() throws IOException {
+		PhotoStore store = new PhotoStore(new File(folder.getRoot(), "store"));
+		assertTrue(store.list("ab100").isEmpty());
+		assertFalse(store.hasManifest("ab100"));
+		directory("empty").mkdirs();
+		store.sync("ab100", directory("empty"));
+		assertTrue(store.hasManifest("ab100"));
+		assertFalse(store.hasManifest("../ab100"));
+
+		photo("x", "one.jpg", "1");
+		store.sync("../ab100", directory("x"));
+		assertEquals(1, store.list("../ab100").size());
+		assertTrue(store.list("ab100").isEmpty());
+	}
+}
@@ -0,0 +1,89 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class PostingListTest {
+	private static int[] array(TreeSet<Integer> set) {
+		int[] ordinals = new int[set.size()];
+		int i = 0;
+		for (int ordinal : set) {
+			ordinals[i++] = ordinal;
+		}
+		return ordinals;
+	}
+
+	/* adds and removes anywhere in lists of many blocks, checked against a sorted set */
+	@Test
+	public void testAddRemove() {
+		Random random = new Random(3);
+		PostingList list = new PostingList();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int ordinal = random.nextInt(4000);
+			/* mostly adds at first, then mostly removes, so blocks are split and joined */
+			if (random.nextInt(20000) > i) {
+				assertEquals(expected.add(ordinal), list.add(ordinal));
+			} else {
+				assertEquals(expected.remove(ordinal), list.remove(ordinal));
+			}
+			assertEquals(expected.contains(ordinal), list.contains(ordinal));
+			assertEquals(expected.size(), list.size());
+			if (i % 500 == 0) {
+				assertArrayEquals(array(expected), list.toArray());
+			}
+		}
+		assertArrayEquals(array(expected), list.toArray());
+		/* appends fill each block before starting the next */
+		for (int ordinal = 5000; ordinal < 5000 + 3 * PostingList.BLOCK; ordinal++) {
+			assertTrue(list.add(ordinal));
+			expected.add(ordinal);
+		}
+		assertArrayEquals(array(expected), list.toArray());
+	}
+
+	@Test
+	public void testIntersect() {
+		Random random = new Random(5);
+		for (int round = 0; round < 50; round++) {
+			int lists = 1 + random.nextInt(4);
+			PostingList[] postings = new PostingList[lists];
+			TreeSet<Integer> expected = null;
+			for (int l = 0; l < lists; l++) {
+				postings[l] = new PostingList();
+				TreeSet<Integer> set = new TreeSet<Integer>();
+				int count = random.nextInt(l == 0 ? 50 : 2000);
+				for (int i = 0; i < count; i++) {
+					int ordinal = random.nextInt(3000);
+					postings[l].add(ordinal);
+					set.add(ordinal);
+				}
+				if (expected == null) {
+					expected = set;
+				} else {
+					expected.retainAll(set);
+				}
+			}
+			assertArrayEquals(array(expected), PostingList.intersect(postings));
+		}
+		assertArrayEquals(new int[0], PostingList.intersect(new PostingList[0]));
+	}
+
+	@Test
+	public void testVisit() {
+		PostingList list = new PostingList();
+		for (int ordinal = 0; ordinal < 1000; ordinal += 3) {
+			list.add(ordinal);
+		}
+		final List<Integer> visited = new ArrayList<Integer>();
+		assertFalse(list.visit(ordinal -> visited.add(ordinal) && ordinal < 300));
+		assertEquals(101, visited.size());
+		assertEquals(300, (int) visited.get(100));
+	}
+}
@@ -0,0 +1,124 @@
+package org.ucl.medicaldb;
+
+import com.opencsv.CSVReader;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * throughput comparison of the opencsv path (CSVReader + arrayToPatient) against RecordParser
+ * and PatientBuilder on the same in-memory records. Not a unit test; run it by hand after
+ * mvn test-compile with
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;opencsv, commons-lang3 jars&gt; \
+ *     org.ucl.medicaldb.RecordParserBenchmark [records] [rounds]
+ * </pre>
+ *
+ * Each path is timed twice: parsing only, and parsing plus building validated patients.
+ */
+public class RecordParserBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		/* the validators log every rejected field, which would swamp the parse times */
+		Logger.getLogger(Class.class.getName()).setLevel(Level.OFF);
+
+		byte[] data = generate(records);
+		System.out.println(records + " records, " + data.length / 1024 + " KB");
+		for (int round = 1; round <= rounds; round++) {
+			System.out.println("round " + round);
+			report("  opencsv parse       ", records, data.length, opencsvParse(data));
+			report("  RecordParser parse  ", records, data.length, recordParserParse(data));
+			report("  opencsv + patients  ", records, data.length, opencsvBuild(data));
+			report("  PatientBuilder      ", records, data.length, builderBuild(data));
+		}
+	}
+
+	private static byte[] generate(int records) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < records; i++) {
+			sb.append("Firstname").append(i % 977).append("|Lastname").append(i % 313).append("|ab").append(100 + i)
+					.append("|Dr|Female|").append(1 + i % 28).append('/').append(1 + i % 12).append('/')
+					.append(1930 + i % 80).append("|").append(i % 90).append(" Long Street, London NW10 7NX|asthma|")
+					.append("12/10/2030|some comments about patient ").append(i)
+					.append("|https://en.wikipedia.org/wiki/Asthma|/srv/medicaldb/profile photos/ab").append(100 + i)
+					.append(".png|/srv/medicaldb/med photos/ab").append(100 + i).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static long opencsvParse(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		CSVReader reader = new CSVReader(
+				new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Database.DELIM);
+		long fields = 0;
+		String[] row;
+		while ((row = reader.readNext()) != null) {
+			fields += row.length;
+		}
+		reader.close();
+		return check(fields, System.nanoTime() - start);
+	}
+
+	private static long recordParserParse(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		final long[] fields = new long[1];
+		RecordParser parser = new RecordParser();
+		RecordParser.FieldSink counter = new RecordParser.FieldSink() {
+			@Override
+			public void field(int index, ByteBuffer bytes, int offset, int length) {
+				fields[0]++;
+			}
+		};
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		while (parser.parse(buffer, counter) >= 0) {
+		}
+		return check(fields[0], System.nanoTime() - start);
+	}
+
+	private static long opencsvBuild(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		CSVReader reader = new CSVReader(
+				new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8), Database.DELIM);
+		long built = 0;
+		String[] row;
+		while ((row = reader.readNext()) != null) {
+			if (Database.arrayToPatient(row) != null) {
+				built++;
+			}
+		}
+		reader.close();
+		return check(built, System.nanoTime() - start);
+	}
+
+	private static long builderBuild(byte[] data) throws IOException {
+		long start = System.nanoTime();
+		PatientBuilder builder = new PatientBuilder();
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long built = 0;
+		while (buffer.hasRemaining()) {
+			if (builder.build(buffer) != null) {
+				built++;
+			}
+		}
+		return check(built, System.nanoTime() - start);
+	}
+
+	/* keeps the result alive so the JIT cannot drop the work */
+	private static long check(long result, long nanos) {
+		if (result == 0) {
+			throw new IllegalStateException("nothing parsed");
+		}
+		return nanos;
+	}
+
+	private static void report(String label, int records, int bytes, long nanos) {
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%s %8.0f ms %12.0f records/s %8.1f MB/s", label, nanos / 1e6,
+				records / seconds, bytes / seconds / (1024 * 1024)));
+	}
+}
@@ -0,0 +1,96 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RecordParserTest {
+
+	private static List<String> parse(RecordParser parser, ByteBuffer buffer) throws IOException {
+		final List<String> fields = new ArrayList<String>();
+		int count = parser.parse(buffer, new RecordParser.FieldSink() {
+			@Override
+			public void field(int index, ByteBuffer bytes, int offset, int length) {
+				assertEquals(fields.size(), index);
+				byte[] copy = new byte[length];
+				for (int i = 0; i < length; i++) {
+					copy[i] = bytes.get(offset + i);
+				}
+				fields.add(new String(copy, StandardCharsets.UTF_8));
+			}
+		});
+		if (count < 0) {
+			return null;
+		}
+		assertEquals(count, fields.size());
+		return fields;
+	}
+
+	private static ByteBuffer bytes(String s) {
+		return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPlainFields() throws IOException {
+		List<String> fields = parse(new RecordParser(), bytes("a|bc||d\n"));
+		assertEquals(4, fields.size());
+		assertEquals("a", fields.get(0));
+		assertEquals("bc", fields.get(1));
+		assertEquals("", fields.get(2));
+		assertEquals("d", fields.get(3));
+	}
+
+	@Test
+	public void testTrailingDelimiterGivesEmptyField() throws IOException {
+		List<String> fields = parse(new RecordParser(), bytes("a|b|\r\n"));
+		assertEquals(3, fields.size());
+		assertEquals("", fields.get(2));
+	}
+
+	@Test
+	public void testQuotedAndEscapedFields() throws IOException {
+		List<String> fields = parse(new RecordParser(),
+				bytes("\"a|b\"|\"say \"\"hi\"\"\"|\"back\\\\slash \\\"q\\\"\"|\"two\\nlines\"|café\n"));
+		assertEquals("a|b", fields.get(0));
+		assertEquals("say \"hi\"", fields.get(1));
+		assertEquals("back\\slash \"q\"", fields.get(2));
+		assertEquals("two\nlines", fields.get(3));
+		assertEquals("café", fields.get(4));
+	}
+
+	@Test
+	public void testRecordsAreLines() throws IOException {
+		RecordParser parser = new RecordParser();
+		ByteBuffer buffer = bytes("a|b\n\nc");
+		assertEquals(2, parse(parser, buffer).size());
+		assertEquals(0, parse(parser, buffer).size());
+		assertEquals("c", parse(parser, buffer).get(0));
+		assertNull(parse(parser, buffer));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnterminatedQuote() throws IOException {
+		parse(new RecordParser(), bytes("\"open|b\nc|d\n"));
+	}
+
+	@Test
+	public void testBuilderChecksFieldCount() throws IOException {
+		PatientBuilder builder = new PatientBuilder();
+		ByteBuffer buffer = bytes("Ann|Smith|ab100|Ms|Female|1/2/1980|1 Road, NW10 7NX|asthma||c|http://x|/p.png|\n"
+				+ "too|few\n");
+		Patient patient = builder.build(buffer);
+		assertEquals("ab100", patient.getPatientID());
+		assertEquals("", patient.getMedPhotos());
+		try {
+			builder.build(buffer);
+			fail("short record accepted");
+		} catch (IOException expected) {
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.ucl.medicaldb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RecordWriterTest {
+
+	private static List<String> parse(RecordWriter writer) throws IOException {
+		final List<String> fields = new ArrayList<String>();
+		new RecordParser().parse(ByteBuffer.wrap(writer.array(), 0, writer.length()), new RecordParser.FieldSink() {
+			@Override
+			public void field(int index, ByteBuffer bytes, int offset, int length) {
+				byte[] copy = new byte[length];
+				for (int i = 0; i < length; i++) {
+					copy[i] = bytes.get(offset + i);
+				}
+				fields.add(new String(copy, StandardCharsets.UTF_8));
+			}
+		});
+		return fields;
+	}
+
+	@Test
+	public void testAwkwardFieldsRoundTrip() throws IOException {
+		String[] values = { "plain", "", "100% fine", "a|b", "\"quoted\" at the start", "C:\\new|x", "back\\slash",
+				"two\nlines\r\n", "say \"hi\" | bye", "caf\u00e9 \u65e5\u672c \ud83d\ude00", "trailing\\" };
+		RecordWriter writer = new RecordWriter(true);
+		for (String value : values) {
+			writer.field(value);
+		}
+		assertEquals(-1, indexOf(writer, (byte) '\n'));
+		List<String> fields = parse(writer);
+		assertEquals(values.length, fields.size());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], fields.get(i));
+		}
+	}
+
+	@Test
+	public void testPlainFieldsAreNotQuoted() {
+		RecordWriter writer = new RecordWriter(true);
+		writer.field("ab12");
+		writer.field("12/10/2030");
+		writer.field("say \"hi\"");
+		assertEquals("ab12|12/10/2030|say \"hi\"", new String(writer.array(), 0, writer.length(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testPatientMatchesItsFields() throws IOException {
+		Patient patient = new Patient();
+		String[] values = { "Ann", "O'Neil", "ab007", "Dr", "Female", "01/02/1990", "1 High St|NW10 7NX", "asthma",
+				"3/4/2031", "50% better\nnext time", "https://x.org", "/photos/ab007.png", "/med/ab007" };
+		for (int field = 0; field < values.length; field++) {
+			patient.restoreField(field, values[field]);
+		}
+		RecordWriter writer = new RecordWriter(true);
+		writer.write(patient);
+		List<String> fields = parse(writer);
+		for (int field = 0; field < values.length; field++) {
+			assertEquals(values[field], fields.get(field));
+		}
+	}
+
+	private static int indexOf(RecordWriter writer, byte b) {
+		for (int i = 0; i < writer.length(); i++) {
+			if (writer.array()[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}